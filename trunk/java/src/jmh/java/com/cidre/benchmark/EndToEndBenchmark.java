@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.benchmark;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cidre.core.Cidre;
+import com.cidre.core.Options.CorrectionMode;
+import com.cidre.core.PhaseProfiler;
+import com.cidre.io.SyntheticDataset;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.annotation.Arg;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+
+/**
+ * End-to-end performance regression runner.  Runs the whole
+ * {@link Cidre#execute()} pipeline (build, save and apply) over synthetic
+ * datasets of every combination of image size, number of images and
+ * channels, and records the median wall time and the largest heap
+ * high-water mark of every phase.  The report is written as CSV and, if a
+ * baseline report is given, compared against it; the exit status is 1 if
+ * any phase regressed beyond the tolerances.
+ */
+public class EndToEndBenchmark {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(EndToEndBenchmark.class);
+
+    private static final String HEADER =
+        "imageSize,numberOfImages,sizeC,phase,wallTimeMs,peakHeapMB";
+
+    private static final String TOTAL = "total";
+
+    @Arg
+    private String workDirectory;
+
+    @Arg
+    private ArrayList<Integer> imageSizes;
+
+    @Arg
+    private ArrayList<Integer> numbersOfImages;
+
+    @Arg
+    private ArrayList<Integer> channels;
+
+    @Arg
+    private Integer repetitions;
+
+    @Arg
+    private String report;
+
+    @Arg
+    private String baseline;
+
+    @Arg
+    private Double timeTolerance;
+
+    @Arg
+    private Double heapTolerance;
+
+    @Arg
+    private Long minimumDifference;
+
+    /**
+     * A single row of the report.
+     */
+    private static class Row {
+        String configuration;
+        String phase;
+        long wallTime;
+        long peakHeap;
+
+        String key() {
+            return this.configuration + "," + this.phase;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s,%s,%d,%d",
+                this.configuration, this.phase, this.wallTime,
+                this.peakHeap);
+        }
+
+        static Row parse(String line) {
+            String[] fields = line.split(",");
+            Row row = new Row();
+            row.configuration = fields[0] + "," + fields[1] + ","
+                              + fields[2];
+            row.phase = fields[3];
+            row.wallTime = Long.parseLong(fields[4]);
+            row.peakHeap = Long.parseLong(fields[5]);
+            return row;
+        }
+    }
+
+    private File getDataset(int imageSize, int numberOfImages, int sizeC)
+            throws Exception
+    {
+        File file = new File(this.workDirectory, String.format(
+            "synthetic_%d_%d_%d.ome.tif", imageSize, numberOfImages, sizeC));
+        if (!file.exists()) {
+            SyntheticDataset dataset = new SyntheticDataset();
+            dataset.width = imageSize;
+            dataset.height = imageSize;
+            dataset.numberOfImages = numberOfImages;
+            dataset.sizeC = sizeC;
+            dataset.generate(file.getAbsolutePath(), null);
+        }
+        return file;
+    }
+
+    private List<Row> run(int imageSize, int numberOfImages, int sizeC)
+            throws Exception
+    {
+        File dataset = this.getDataset(imageSize, numberOfImages, sizeC);
+        File output = new File(this.workDirectory, "output");
+        Map<String, List<Long>> wallTimes = new HashMap<String, List<Long>>();
+        Map<String, Long> peakHeaps = new HashMap<String, Long>();
+        List<String> phases = new ArrayList<String>();
+        for (int i = 0; i < this.repetitions; i++) {
+            EndToEndBenchmark.clean(output);
+            System.gc();
+            Cidre cidre = new Cidre(
+                dataset.getAbsolutePath(), output.getAbsolutePath(), null,
+                output.getAbsolutePath(), false, false,
+                CorrectionMode.ZERO_LIGHT_PRESERVED);
+            long start = System.nanoTime();
+            cidre.execute();
+            long total = System.nanoTime() - start;
+            List<PhaseProfiler.Phase> profile =
+                new ArrayList<PhaseProfiler.Phase>(
+                    cidre.getProfiler().getPhases());
+            PhaseProfiler.Phase totalPhase = new PhaseProfiler.Phase();
+            totalPhase.name = TOTAL;
+            totalPhase.wallTime = total;
+            for (PhaseProfiler.Phase phase : profile) {
+                totalPhase.peakHeap =
+                    Math.max(totalPhase.peakHeap, phase.peakHeap);
+            }
+            profile.add(totalPhase);
+            for (PhaseProfiler.Phase phase : profile) {
+                if (!wallTimes.containsKey(phase.name)) {
+                    wallTimes.put(phase.name, new ArrayList<Long>());
+                    peakHeaps.put(phase.name, 0L);
+                    phases.add(phase.name);
+                }
+                wallTimes.get(phase.name).add(phase.wallTime);
+                peakHeaps.put(phase.name,
+                    Math.max(peakHeaps.get(phase.name), phase.peakHeap));
+            }
+        }
+        List<Row> rows = new ArrayList<Row>();
+        for (String phase : phases) {
+            List<Long> times = wallTimes.get(phase);
+            Collections.sort(times);
+            Row row = new Row();
+            row.configuration = imageSize + "," + numberOfImages + ","
+                              + sizeC;
+            row.phase = phase;
+            row.wallTime = times.get(times.size() / 2) / 1000000;
+            row.peakHeap = peakHeaps.get(phase) >> 20;
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static void clean(File directory) {
+        if (directory.isDirectory()) {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+        } else {
+            directory.mkdirs();
+        }
+    }
+
+    /**
+     * @return the number of phases that regressed against the baseline
+     */
+    private int compare(List<Row> rows) throws Exception {
+        Map<String, Row> baselineRows = new HashMap<String, Row>();
+        List<String> lines = Files.readAllLines(
+            Paths.get(this.baseline), StandardCharsets.UTF_8);
+        for (String line : lines.subList(1, lines.size())) {
+            if (!line.trim().isEmpty()) {
+                Row row = Row.parse(line);
+                baselineRows.put(row.key(), row);
+            }
+        }
+        int regressions = 0;
+        for (Row row : rows) {
+            Row base = baselineRows.get(row.key());
+            if (base == null) {
+                log.warn("No baseline for {}", row.key());
+                continue;
+            }
+            if (row.wallTime > base.wallTime * (1 + this.timeTolerance)
+                && row.wallTime - base.wallTime > this.minimumDifference)
+            {
+                log.error("Wall time regression for {}: {} ms vs {} ms",
+                          row.key(), row.wallTime, base.wallTime);
+                regressions++;
+            }
+            if (row.peakHeap > base.peakHeap * (1 + this.heapTolerance)) {
+                log.error("Peak heap regression for {}: {} MB vs {} MB",
+                          row.key(), row.peakHeap, base.peakHeap);
+                regressions++;
+            }
+        }
+        return regressions;
+    }
+
+    public int execute() throws Exception {
+        new File(this.workDirectory).mkdirs();
+        StringBuilder report = new StringBuilder(HEADER).append('\n');
+        List<Row> rows = new ArrayList<Row>();
+        for (int imageSize : this.imageSizes) {
+            for (int numberOfImages : this.numbersOfImages) {
+                for (int sizeC : this.channels) {
+                    log.info("Benchmarking [{}, {}] x {} images x {} "
+                             + "channels", imageSize, imageSize,
+                             numberOfImages, sizeC);
+                    for (Row row : this.run(imageSize, numberOfImages, sizeC))
+                    {
+                        rows.add(row);
+                        report.append(row).append('\n');
+                    }
+                }
+            }
+        }
+        String reportFile = this.report != null ? this.report :
+            new File(this.workDirectory, "e2e-report.csv").getPath();
+        Files.write(Paths.get(reportFile),
+                    report.toString().getBytes(StandardCharsets.UTF_8));
+        log.info("Report written to {}:\n{}", reportFile, report);
+        if (this.baseline == null) {
+            return 0;
+        }
+        int regressions = this.compare(rows);
+        log.info("{} regressions against {}", regressions, this.baseline);
+        return regressions;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser =
+            ArgumentParsers.newArgumentParser("cidre-e2e-benchmark");
+        parser.addArgument("--workDirectory").required(true)
+              .help("Directory for the synthetic datasets and outputs");
+        parser.addArgument("--imageSizes").nargs("+").type(Integer.class)
+              .setDefault(new ArrayList<Integer>(
+                  Arrays.asList(256, 512)));
+        parser.addArgument("--numbersOfImages").nargs("+")
+              .type(Integer.class)
+              .setDefault(new ArrayList<Integer>(
+                  Arrays.asList(100, 400)));
+        parser.addArgument("--channels").nargs("+").type(Integer.class)
+              .setDefault(new ArrayList<Integer>(
+                  Arrays.asList(1, 2)));
+        parser.addArgument("--repetitions").type(Integer.class)
+              .setDefault(3).help("Runs per configuration, median reported");
+        parser.addArgument("--report")
+              .help("Report file (default: e2e-report.csv in the work "
+                    + "directory)");
+        parser.addArgument("--baseline")
+              .help("Report of a previous run to compare against");
+        parser.addArgument("--timeTolerance").type(Double.class)
+              .setDefault(0.25)
+              .help("Allowed relative increase of a phase's wall time");
+        parser.addArgument("--heapTolerance").type(Double.class)
+              .setDefault(0.25)
+              .help("Allowed relative increase of a phase's peak heap");
+        parser.addArgument("--minimumDifference").type(Long.class)
+              .setDefault(100L)
+              .help("Wall time differences below this many milliseconds "
+                    + "are never reported as regressions");
+
+        EndToEndBenchmark benchmark = new EndToEndBenchmark();
+        try {
+            parser.parseArgs(args, benchmark);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+        System.exit(benchmark.execute() > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.awt.Dimension;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cidre.core.Options.CorrectionMode;
+
+/**
+ * Benchmark of applying a model to a single plane.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorrectionBenchmark {
+
+    @Param({"512", "1024", "2048"})
+    public int imageSize;
+
+    @Param({"ZERO_LIGHT_PRESERVED", "DYNAMIC_RANGE_CORRECTED", "DIRECT"})
+    public CorrectionMode correctionMode;
+
+    @Param({"false", "true"})
+    public boolean useMinImage;
+
+    private double[][] plane;
+
+    private ModelDescriptor descriptor;
+
+    @Setup
+    public void setup() {
+        int n = this.imageSize * this.imageSize;
+        this.plane = BenchmarkStacks.randomPlane(
+            this.imageSize, this.imageSize, 42);
+        this.descriptor = new ModelDescriptor();
+        this.descriptor.imageSize = new Dimension(
+            this.imageSize, this.imageSize);
+        this.descriptor.v = new double[n];
+        this.descriptor.z = new double[n];
+        this.descriptor.minImage = new double[n];
+        double[][] v = BenchmarkStacks.randomPlane(
+            this.imageSize, this.imageSize, 43);
+        for (int x = 0; x < this.imageSize; x++) {
+            for (int y = 0; y < this.imageSize; y++) {
+                this.descriptor.v[x * this.imageSize + y] = v[x][y] / 4100.0;
+                this.descriptor.z[x * this.imageSize + y] = 100.0;
+                this.descriptor.minImage[x * this.imageSize + y] = 90.0;
+            }
+        }
+    }
+
+    @Benchmark
+    public float[][] correctPlane() {
+        return ImageCorrection.correctPlane(
+            this.plane, this.descriptor, this.correctionMode,
+            this.useMinImage);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the symmetric-padded LoG filtering used by the spatial
+ * regularisation term, for each scale used by the objective.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImfilterBenchmark {
+
+    @Param({"64", "96", "128"})
+    public int workingSize;
+
+    @Param({"0.5", "1", "2", "4"})
+    public double sigma;
+
+    private ModelGenerator generator;
+
+    private double[] pixels;
+
+    private double[][] kernel;
+
+    @Setup
+    public void setup() {
+        this.generator = new ModelGenerator(BenchmarkStacks.options(
+            this.workingSize, this.workingSize, 1));
+        double[][] plane = BenchmarkStacks.randomPlane(
+            this.workingSize, this.workingSize, 42);
+        this.pixels = new double[this.workingSize * this.workingSize];
+        for (int x = 0; x < this.workingSize; x++) {
+            System.arraycopy(plane[x], 0, this.pixels, x * this.workingSize,
+                             this.workingSize);
+        }
+        this.kernel = ModelGenerator.scaleInvariantLoG(this.sigma);
+    }
+
+    @Benchmark
+    public double[] imfilterSymmetric() {
+        return this.generator.imfilter_symmetric(
+            this.pixels, this.workingSize, this.workingSize, this.kernel);
+    }
+}
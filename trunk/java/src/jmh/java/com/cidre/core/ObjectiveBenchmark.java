@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cidre.algorithms.ObjectiveResult;
+import com.cidre.algorithms.WolfeLineSearchResult;
+import com.cidre.core.ModelGenerator.Mestimator;
+
+/**
+ * Benchmarks of the optimisation hot paths of {@link ModelGenerator}:
+ * the objective, the L-BFGS direction and the line search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectiveBenchmark {
+
+    private static final int CORRECTIONS = 100;
+
+    @Param({"64", "96", "128"})
+    public int workingSize;
+
+    @Param({"100", "200"})
+    public int depth;
+
+    @Param({"false", "true"})
+    public boolean float32;
+
+    private ModelGenerator generator;
+
+    private PivotedStack stack;
+
+    private double[] x0;
+
+    private double cauchyW;
+
+    private double lambdaVreg;
+
+    private double lambdaZero;
+
+    private double[] g;
+
+    private double[] d;
+
+    private double f;
+
+    private double gtd;
+
+    private LineObjective line;
+
+    private double[][] S;
+
+    private double[][] Y;
+
+    private double[] YS;
+
+    @Setup
+    public void setup() {
+        Options options = BenchmarkStacks.options(
+            this.workingSize, this.workingSize, this.depth);
+        options.float32 = this.float32;
+        this.generator = new ModelGenerator(options);
+        this.generator.setDefaultOptions();
+        this.generator.prepare(BenchmarkStacks.quantileStack(
+            this.workingSize, this.workingSize, this.depth, 42));
+        this.stack = this.generator.stack;
+        this.lambdaVreg = Math.pow(10, options.lambdaVreg);
+        this.lambdaZero = Math.pow(10, options.lambdaZero);
+        this.x0 = this.generator.initialGuess();
+        int n = this.workingSize * this.workingSize;
+        double[] v0 = new double[n];
+        double[] b0 = new double[n];
+        System.arraycopy(this.x0, 0, v0, 0, n);
+        System.arraycopy(this.x0, n, b0, 0, n);
+        this.cauchyW = this.generator.computeStandardError(
+            this.stack, v0, b0, this.generator.Q);
+
+        ObjectiveResult objective = this.objective(Mestimator.CAUCHY, 1);
+        this.f = objective.E;
+        this.g = objective.G;
+        this.d = new double[this.g.length];
+        double sumAbsG = 0.0;
+        for (int i = 0; i < this.g.length; i++) {
+            sumAbsG += Math.abs(this.g[i]);
+        }
+        this.gtd = 0.0;
+        for (int i = 0; i < this.g.length; i++) {
+            this.d[i] = -this.g[i] / sumAbsG;
+            this.gtd += this.g[i] * this.d[i];
+        }
+
+        this.line = new CdrObjective(
+            this.generator, this.stack, this.cauchyW,
+            this.generator.pivotShiftX, this.generator.pivotShiftY,
+            Mestimator.CAUCHY, this.generator.Q, 1, this.lambdaVreg,
+            this.lambdaZero, null).line(this.x0);
+
+        // a full L-BFGS history of random, positively curved pairs
+        Random random = new Random(42);
+        this.S = new double[CORRECTIONS][this.x0.length];
+        this.Y = new double[CORRECTIONS][this.x0.length];
+        this.YS = new double[CORRECTIONS];
+        for (int j = 0; j < CORRECTIONS; j++) {
+            for (int i = 0; i < this.x0.length; i++) {
+                this.S[j][i] = random.nextGaussian();
+                this.Y[j][i] = this.S[j][i] + 0.1 * random.nextGaussian();
+                this.YS[j] += this.S[j][i] * this.Y[j][i];
+            }
+        }
+    }
+
+    private ObjectiveResult objective(Mestimator method, int term) {
+        return this.generator.cdr_objective(
+            this.stack, this.x0, this.cauchyW, this.generator.pivotShiftX,
+            this.generator.pivotShiftY, method, this.generator.Q, term,
+            this.lambdaVreg, this.lambdaZero);
+    }
+
+    @Benchmark
+    public ObjectiveResult objectiveLeastSquares() {
+        return this.objective(Mestimator.LS, 0);
+    }
+
+    @Benchmark
+    public ObjectiveResult objectiveCauchy() {
+        return this.objective(Mestimator.CAUCHY, 1);
+    }
+
+    @Benchmark
+    public double[] lbfgsProd() {
+        return this.generator.lbfgsProd(
+            this.g, this.S, this.Y, this.YS, 0, CORRECTIONS - 1, 1.0, null);
+    }
+
+    @Benchmark
+    public WolfeLineSearchResult wolfeLineSearch() {
+        this.line.setDirection(this.d);
+        return this.generator.WolfeLineSearch(
+            this.line, this.x0, 1.0, this.d, this.f, this.g, this.gtd,
+            1e-4, 0.9, 2, 0, 25, 1e-5, 1);
+    }
+}
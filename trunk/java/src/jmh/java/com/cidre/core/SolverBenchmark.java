@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of a whole {@link ModelGenerator} optimisation, run to the
+ * convergence criteria of each optimiser, with and without the diagonal
+ * preconditioning of L-BFGS and the quantile pyramid.  Besides the wall
+ * time, the number of iterations of both stages (of their last level with
+ * the pyramid) and the final objective of the second stage are reported
+ * as secondary results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SolverBenchmark {
+
+    @Param({"64", "96"})
+    public int workingSize;
+
+    @Param({"200"})
+    public int depth;
+
+    @Param({"false", "true"})
+    public boolean precondition;
+
+    @Param({"LBFGS", "NCG", "IRLS", "VARPRO"})
+    public String optimiser;
+
+    @Param({"false", "true"})
+    public boolean quantilePyramid;
+
+    private List<double[][]> stack;
+
+    /**
+     * Optimiser statistics of the last model build.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Statistics {
+        public long stage1Iterations;
+        public long stage2Iterations;
+        public double stage2Objective;
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        // prepare() transforms the stack in place
+        this.stack = BenchmarkStacks.quantileStack(
+            this.workingSize, this.workingSize, this.depth, 7);
+    }
+
+    @Benchmark
+    public ModelDescriptor generate(Statistics statistics) throws Exception {
+        Options options = BenchmarkStacks.options(
+            256, this.workingSize, this.depth);
+        options.precondition = this.precondition;
+        options.optimiser = Options.Method.valueOf(this.optimiser);
+        options.quantilePyramid = this.quantilePyramid;
+        ModelGenerator generator = new ModelGenerator(options);
+        generator.addListener(progress -> {
+            if (progress.stage == 1) {
+                statistics.stage1Iterations = progress.iteration + 1;
+            } else {
+                statistics.stage2Iterations = progress.iteration + 1;
+                statistics.stage2Objective = progress.f;
+            }
+            return true;
+        });
+        return generator.generate(this.stack);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.io;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import loci.formats.FormatTools;
+
+/**
+ * Benchmark of converting raw plane bytes to doubles for every supported
+ * pixel type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"512", "2048"})
+    public int imageSize;
+
+    @Param({"uint8", "uint16", "int16", "uint32", "float", "double"})
+    public String pixelType;
+
+    private byte[] bytes;
+
+    private int bpp;
+
+    private boolean fp;
+
+    private boolean unsigned;
+
+    @Setup
+    public void setup() throws Exception {
+        int type = FormatTools.pixelTypeFromString(this.pixelType);
+        this.bpp = FormatTools.getBytesPerPixel(type);
+        this.fp = FormatTools.isFloatingPoint(type);
+        this.unsigned = !FormatTools.isSigned(type);
+        this.bytes = new byte[this.bpp * this.imageSize * this.imageSize];
+        new Random(42).nextBytes(this.bytes);
+    }
+
+    @Benchmark
+    public double[][] toDoubleArray() {
+        return BfImageLoader.toDoubleArray(
+            this.bytes, this.bpp, this.fp, false, this.unsigned,
+            this.imageSize, this.imageSize);
+    }
+}
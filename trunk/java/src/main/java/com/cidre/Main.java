@@ -22,12 +22,17 @@ package com.cidre;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cidre.core.Cidre;
+import com.cidre.core.JobScheduler;
+import com.cidre.core.JsonLinesProgressWriter;
 import com.cidre.core.Options;
 import com.cidre.core.Options.CorrectionMode;
 
@@ -73,6 +78,86 @@ public class Main {
     @Arg
     private CorrectionMode illuminationCorrectionMode;
 
+    @Arg
+    private Boolean leanMetadata;
+
+    @Arg
+    private String memoDirectory;
+
+    @Arg
+    private String cacheDirectory;
+
+    @Arg
+    private String maxMemory;
+
+    @Arg
+    private Double stageTimeBudget;
+
+    @Arg
+    private Integer maxFunEvals;
+
+    @Arg
+    private Boolean float32;
+
+    @Arg
+    private Boolean precondition;
+
+    @Arg
+    private Options.Method optimiser;
+
+    @Arg
+    private Integer minibatch;
+
+    @Arg
+    private Boolean quantilePyramid;
+
+    @Arg
+    private Boolean fastModel;
+
+    @Arg
+    private Boolean fastStart;
+
+    @Arg
+    private Integer planeSample;
+
+    @Arg
+    private Boolean stratifiedSample;
+
+    @Arg
+    private Long sampleSeed;
+
+    @Arg
+    private String checkpointDirectory;
+
+    @Arg
+    private Double checkpointInterval;
+
+    @Arg
+    private Boolean resume;
+
+    @Arg
+    private Integer maxJobs;
+
+    @Arg
+    private String metricsDirectory;
+
+    @Arg
+    private String progressOutput;
+
+    @Arg
+    private String artifactDirectory;
+
+    @Arg
+    private ArrayList<Double> sweepLambdaVreg;
+
+    @Arg
+    private ArrayList<Double> sweepLambdaZero;
+
+    private JsonLinesProgressWriter progressWriter;
+
+    private static final Pattern MEMORY_SIZE =
+        Pattern.compile("([0-9]+(?:\\.[0-9]+)?)\\s*([KMGT]?)(B?)");
+
     private static final Logger log =
         LoggerFactory.getLogger(Main.class);
 
@@ -130,6 +215,119 @@ public class Main {
         parser.addArgument("--overwrite")
               .action(Arguments.storeTrue())
               .help("Overwrite output file(s) if exist");
+        parser.addArgument("--leanMetadata")
+              .action(Arguments.storeTrue())
+              .help("Skip original metadata population and OME-XML "
+                    + "validation when opening files.  Speeds up opening "
+                    + "files with large metadata (e.g. ND2, CZI, plates).");
+        parser.addArgument("--memoDirectory")
+              .help("Directory where Bio-Formats memo files are cached, "
+                    + "making re-opening the same input nearly free.");
+        parser.addArgument("--cacheDirectory")
+              .help("Directory where preprocessed image stacks are cached. "
+                    + "Repeated model builds of the same input, channel and "
+                    + "preprocessing options skip loading and "
+                    + "preprocessing.");
+        parser.addArgument("--stageTimeBudget").type(Double.class)
+              .help("Wall-clock budget in seconds of each optimisation "
+                    + "stage. When exceeded, the best solution found so far "
+                    + "is used.");
+        parser.addArgument("--maxFunEvals").type(Integer.class)
+              .help("Maximum number of objective function evaluations of "
+                    + "each optimisation stage (default: 1000).");
+        parser.addArgument("--float32")
+              .action(Arguments.storeTrue())
+              .help("Hold the stack of the optimisation in single "
+                    + "precision, halving its memory and memory traffic; "
+                    + "sums and the model are kept in double precision.");
+        parser.addArgument("--precondition")
+              .action(Arguments.storeTrue())
+              .help("Precondition the L-BFGS optimisation with a diagonal "
+                    + "Hessian estimate of every variable; typically "
+                    + "converges to a lower objective, in more iterations.");
+        parser.addArgument("--optimiser")
+              .choices(Options.Method.values())
+              .setDefault(Options.Method.LBFGS)
+              .help("Optimiser of the model.  'NCG' is nonlinear conjugate "
+                    + "gradient; 'IRLS' fits the robust stage as a series "
+                    + "of reweighted least squares problems; 'VARPRO' fits "
+                    + "the robust stage with L-BFGS over v and the "
+                    + "zero-light point only, solving b for every location "
+                    + "internally. (default: LBFGS)");
+        parser.addArgument("--minibatch").type(Integer.class)
+              .help("Start each optimisation stage with gradient steps on "
+                    + "batches of this many quantile planes, switching to "
+                    + "the whole stack when the steps become noisy; for "
+                    + "stacks with thousands of planes, such as with "
+                    + "--skipPreprocessing.");
+        parser.addArgument("--quantilePyramid")
+              .action(Arguments.storeTrue())
+              .help("Optimise each stage on the stack compressed to 25 "
+                    + "quantiles first, then 50, 100 and so on up to the "
+                    + "whole stack, starting each from the previous "
+                    + "solution.");
+        parser.addArgument("--fastModel")
+              .action(Arguments.storeTrue())
+              .help("Build a rough model in seconds, without optimisation, "
+                    + "from a least squares fit of every location smoothed "
+                    + "by the spatial regularisation; for previews and "
+                    + "quality control.");
+        parser.addArgument("--fastStart")
+              .action(Arguments.storeTrue())
+              .help("Start the optimisation from the rough model of "
+                    + "--fastModel instead of flat surfaces.");
+        parser.addArgument("--planeSample").type(Integer.class)
+              .help("Build the model from this many planes, chosen at "
+                    + "random from all series, z-sections and timepoints, "
+                    + "instead of reading every plane; 0 reads as many as "
+                    + "the image entropy of a first sample of 200 planes "
+                    + "requires.");
+        parser.addArgument("--stratifiedSample")
+              .action(Arguments.storeTrue())
+              .help("Draw the --planeSample planes evenly from every "
+                    + "series.");
+        parser.addArgument("--sampleSeed").type(Long.class)
+              .setDefault(0L)
+              .help("Seed of the --planeSample planes. (default: 0)");
+        parser.addArgument("--checkpointDirectory")
+              .help("Directory where the state of model builds is stored "
+                    + "periodically, so a build that dies can be "
+                    + "continued with --resume.");
+        parser.addArgument("--checkpointInterval").type(Double.class)
+              .setDefault(300.0)
+              .help("Minimum time between checkpoints in seconds "
+                    + "(default: 300).");
+        parser.addArgument("--resume").action(Arguments.storeTrue())
+              .help("Continue model builds from the checkpoints in "
+                    + "--checkpointDirectory.");
+        parser.addArgument("--maxMemory")
+              .help("Memory budget for concurrently processed input files, "
+                    + "e.g. `512M` or `8G` (default: 80% of the maximum "
+                    + "heap size).");
+        parser.addArgument("--maxJobs").type(Integer.class)
+              .setDefault(Runtime.getRuntime().availableProcessors())
+              .help("Maximum number of input files processed concurrently "
+                    + "(default: number of available processors).");
+        parser.addArgument("--metricsDirectory")
+              .help("Directory where per-phase timers and counters of "
+                    + "every run are written as JSON.");
+        parser.addArgument("--progressOutput")
+              .help("File the optimiser progress is streamed to as JSON "
+                    + "lines, one per iteration; `-` for standard output.");
+        parser.addArgument("--artifactDirectory")
+              .help("Directory where intermediates of the model build "
+                    + "(Q, pivot shifts, surfaces and standard errors "
+                    + "after each stage) are written for debugging.");
+        parser.addArgument("--sweepLambdaVreg").nargs("+")
+              .type(Double.class)
+              .help("Run a parameter sweep over these lambdaVreg values "
+                    + "(log10 scale) instead of building a single model. "
+                    + "The report is written to the model output "
+                    + "directory.");
+        parser.addArgument("--sweepLambdaZero").nargs("+")
+              .type(Double.class)
+              .help("Run a parameter sweep over these lambdaZero values "
+                    + "(log10 scale) instead of building a single model.");
 
         Main main = new Main();
         try {
@@ -175,6 +373,75 @@ public class Main {
             options.workingSize, options.numberOfQuantiles);
     }
 
+    /**
+     * Parses a memory size such as `4096`, `512M`, `8G` or `8GB` into
+     * bytes.  Values without a suffix are interpreted as megabytes, a bare
+     * `B` suffix as bytes.
+     * @throws Exception if the value is empty or has an unknown suffix
+     */
+    public static long parseMemorySize(String value) throws Exception {
+        Matcher matcher = MEMORY_SIZE.matcher(value.trim().toUpperCase());
+        if (!matcher.matches()) {
+            throw new Exception("Invalid memory size: " + value);
+        }
+        long multiplier = matcher.group(3).isEmpty() ? 1L << 20 : 1L;
+        switch (matcher.group(2)) {
+            case "K":
+                multiplier = 1L << 10;
+                break;
+            case "M":
+                multiplier = 1L << 20;
+                break;
+            case "G":
+                multiplier = 1L << 30;
+                break;
+            case "T":
+                multiplier = 1L << 40;
+                break;
+        }
+        return (long) (Double.parseDouble(matcher.group(1)) * multiplier);
+    }
+
+    private void configure(Cidre cidre) {
+        if (this.channels != null && this.channels.size() > 0) {
+            cidre.setChannelsToProcess(this.channels);
+        }
+        cidre.setLeanMetadata(this.leanMetadata);
+        cidre.setMemoDirectory(this.memoDirectory);
+        cidre.setCacheDirectory(this.cacheDirectory);
+        cidre.setStageTimeBudget(this.stageTimeBudget);
+        cidre.setMaxFunEvals(this.maxFunEvals);
+        cidre.setFloat32(this.float32);
+        cidre.setPrecondition(this.precondition);
+        cidre.setOptimiser(this.optimiser);
+        cidre.setMinibatch(this.minibatch);
+        cidre.setQuantilePyramid(this.quantilePyramid);
+        cidre.setFastModel(this.fastModel);
+        cidre.setFastStart(this.fastStart);
+        cidre.setPlaneSampling(
+            this.planeSample, this.stratifiedSample, this.sampleSeed);
+        cidre.setCheckpointing(
+            this.checkpointDirectory, this.checkpointInterval, this.resume);
+        cidre.setMetricsDirectory(this.metricsDirectory);
+        cidre.setArtifactDirectory(this.artifactDirectory);
+        if (this.progressWriter != null) {
+            cidre.addOptimiserListener(this.progressWriter);
+        }
+        if (this.sweepLambdaVreg != null || this.sweepLambdaZero != null) {
+            // Unswept parameter stays at its default
+            List<Double> lambdaVreg = this.sweepLambdaVreg != null ?
+                this.sweepLambdaVreg :
+                Arrays.asList(Options.DEFAULT_LAMBDA_VREG);
+            List<Double> lambdaZero = this.sweepLambdaZero != null ?
+                this.sweepLambdaZero :
+                Arrays.asList(Options.DEFAULT_LAMBDA_ZERO);
+            // concurrent jobs share the processors between their sweeps
+            int jobs = this.planePerFile ? 1 : this.input.size();
+            cidre.setSweep(lambdaVreg, lambdaZero,
+                           JobScheduler.threadsPerJob(this.maxJobs, jobs));
+        }
+    }
+
     public void correctImages() throws Exception {
         // Setup logger
         ch.qos.logback.classic.Logger root =
@@ -186,6 +453,21 @@ public class Main {
             root.setLevel(Level.INFO);
         }
 
+        if (this.progressOutput != null) {
+            this.progressWriter =
+                new JsonLinesProgressWriter(this.progressOutput);
+        }
+        try {
+            this.run();
+        } finally {
+            if (this.progressWriter != null) {
+                this.progressWriter.close();
+            }
+        }
+        log.info("Done");
+    }
+
+    private void run() throws Exception {
         if (this.planePerFile && this.input.size() == 1)
         {
             Cidre cidre = new Cidre(
@@ -193,21 +475,28 @@ public class Main {
                 this.modelFile, this.modelOutput,
                 this.useMinImage, this.skipPreprocessing,
                 this.illuminationCorrectionMode);
-            if (this.channels != null && this.channels.size() > 0) {
-                cidre.setChannelsToProcess(this.channels);
-            }
+            this.configure(cidre);
             cidre.execute();
         } else if (!this.planePerFile) {
+            List<Cidre> jobs = new ArrayList<Cidre>();
             for (String fileName : this.input) {
                 Cidre cidre = new Cidre(
                     fileName, this.output,
                     this.modelFile, this.modelOutput,
                     this.useMinImage, this.skipPreprocessing,
                     this.illuminationCorrectionMode);
-                if (this.channels != null && this.channels.size() > 0) {
-                    cidre.setChannelsToProcess(this.channels);
-                }
-                cidre.execute();
+                this.configure(cidre);
+                jobs.add(cidre);
+            }
+            if (jobs.size() == 1) {
+                jobs.get(0).execute();
+            } else {
+                long memoryBudget = this.maxMemory != null ?
+                    Main.parseMemorySize(this.maxMemory) :
+                    JobScheduler.defaultMaxMemory();
+                JobScheduler scheduler =
+                    new JobScheduler(memoryBudget, this.maxJobs);
+                scheduler.run(jobs);
             }
         } else if (this.planePerFile && this.input.size() > 1) {
             throw new Exception(
@@ -215,6 +504,5 @@ public class Main {
                 + " a file name mask expected. Use wildcard cahracter `*`"
                 + " to specify multiple input files.");
         }
-        log.info("Done");
-    };
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.algorithms;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Statistics for diagnostic logging that are only computed when the log
+ * message is actually formatted.  slf4j calls <code>toString()</code> on
+ * arguments only for enabled levels, so
+ * <pre>
+ * log.debug("S: {}", Diagnostics.mean(S));
+ * </pre>
+ * costs a single small allocation when DEBUG is disabled, instead of a pass
+ * over <code>S</code>.
+ */
+public final class Diagnostics {
+
+    private Diagnostics() {
+    }
+
+    private static class Statistic {
+
+        private final DoubleSupplier supplier;
+
+        Statistic(DoubleSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(this.supplier.getAsDouble());
+        }
+    }
+
+    public static Object mean(final double[] a) {
+        return new Statistic(() -> CidreMath.mean(a));
+    }
+
+    public static Object mean(final double[][] a) {
+        return new Statistic(() -> CidreMath.mean(a));
+    }
+
+    public static Object mean(final float[][] a) {
+        return new Statistic(() -> CidreMath.mean(a));
+    }
+
+    public static Object min(final double[][] a) {
+        return new Statistic(() -> CidreMath.min(a));
+    }
+
+    public static Object max(final double[][] a) {
+        return new Statistic(() -> CidreMath.max(a));
+    }
+}
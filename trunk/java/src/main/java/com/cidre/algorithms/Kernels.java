@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.algorithms;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming arithmetic of the hot loops: the fitting term of the
+ * objective, the L-BFGS dot products, the correction of a plane and the
+ * decoding of 16-bit samples.  All arrays are one-dimensional and
+ * contiguous, so implementations can use SIMD instructions.
+ * <p>
+ * The implementation is selected once per JVM: <code>VectorKernels</code>,
+ * built from <code>src/vector</code> with a JDK 16+ (see build.gradle), when
+ * it is on the class path and the JVM was started with
+ * <code>--add-modules jdk.incubator.vector</code>; {@link ScalarKernels}
+ * otherwise.  The system property <code>cidre.kernels</code> set to
+ * <code>scalar</code> or <code>vector</code> overrides the choice.
+ */
+public abstract class Kernels {
+
+    private static final Logger log = LoggerFactory.getLogger(Kernels.class);
+
+    private static final String VECTOR_KERNELS =
+        "com.cidre.algorithms.VectorKernels";
+
+    private static final Kernels INSTANCE = Kernels.select();
+
+    public static Kernels get() {
+        return INSTANCE;
+    }
+
+    private static Kernels select() {
+        String choice = System.getProperty("cidre.kernels", "auto");
+        Kernels scalar = new ScalarKernels();
+        if (choice.equals("scalar")) {
+            return scalar;
+        }
+        try {
+            Kernels vector = (Kernels) Class.forName(VECTOR_KERNELS)
+                .getDeclaredConstructor().newInstance();
+            if (Kernels.agree(scalar, vector)) {
+                log.info("Using {} kernels", vector.getName());
+                return vector;
+            }
+            log.warn("{} kernels disagree with scalar kernels",
+                     vector.getName());
+        } catch (Throwable t) {
+            // not built, JVM older than 16 or module not added
+            if (choice.equals("vector")) {
+                log.warn("Vector kernels unavailable, using scalar", t);
+            } else {
+                log.debug("Vector kernels unavailable: {}", t.toString());
+            }
+        }
+        return scalar;
+    }
+
+    /**
+     * Runs every kernel of both implementations on the same data, which
+     * also makes sure all of them link on this JVM.
+     */
+    static boolean agree(Kernels a, Kernels b) {
+        Random random = new Random(1);
+        int n = 37;
+        double[] q = new double[n];
+        double[] Q = new double[n];
+        float[] qf = new float[n];
+        float[] Qf = new float[n];
+        double[] v = new double[n];
+        byte[] bytes = new byte[2 * n];
+        random.nextBytes(bytes);
+        for (int i = 0; i < n; i++) {
+            q[i] = 1000 * random.nextDouble();
+            Q[i] = 1000 * random.nextDouble();
+            qf[i] = (float) q[i];
+            Qf[i] = (float) Q[i];
+            v[i] = 0.5 + random.nextDouble();
+        }
+        double[][] expected = new double[9][];
+        double[][] actual = new double[9][];
+        for (int k = 0; k < 2; k++) {
+            Kernels kernels = k == 0 ? a : b;
+            double[][] results = k == 0 ? expected : actual;
+            for (int i = 0; i < 4; i++) {
+                results[i] = new double[3];
+            }
+            kernels.leastSquares(q, 0, Q, 1.1, 3.0, results[0]);
+            kernels.cauchy(q, 0, Q, 1.1, 3.0, 250.0, results[1]);
+            kernels.leastSquares(qf, 0, Qf, 1.1f, 3.0f, results[2]);
+            kernels.cauchy(qf, 0, Qf, 1.1f, 3.0f, 250.0f, results[3]);
+            float[] corrected = new float[n];
+            kernels.correct(q, Q, v, 0, 2.0, 1.5, 7.0, corrected);
+            results[4] = new double[n];
+            for (int i = 0; i < n; i++) {
+                results[4][i] = corrected[i];
+            }
+            results[5] = new double[n];
+            kernels.uint16ToDoubles(bytes, 0, true, -7.0, results[5]);
+            results[6] = new double[n];
+            kernels.uint16ToDoubles(bytes, 0, false, 0.0, results[6]);
+            results[7] = new double[] {kernels.dot(q, Q)};
+            results[8] = v.clone();
+            kernels.axpy(-0.5, q, results[8]);
+        }
+        for (int i = 0; i < expected.length; i++) {
+            for (int j = 0; j < expected[i].length; j++) {
+                double tolerance =
+                    1e-4 * Math.max(1.0, Math.abs(expected[i][j]));
+                if (!(Math.abs(expected[i][j] - actual[i][j]) <= tolerance)) {
+                    log.debug("Kernel results {} differ: {} != {}", i,
+                              Arrays.toString(expected[i]),
+                              Arrays.toString(actual[i]));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public abstract String getName();
+
+    /**
+     * Least squares fitting term of a single location, with the residuals
+     * <code>r = Q[z] * v + b - q[offset + z]</code> for
+     * <code>z &lt; Q.length</code>.
+     * @param sums set to <code>[sum(r^2), sum(Q * r), sum(r)]</code>
+     */
+    public abstract void leastSquares(
+            double[] q, int offset, double[] Q, double v, double b,
+            double[] sums);
+
+    /**
+     * Single precision {@link #leastSquares(double[], int, double[], double,
+     * double, double[])}; the sums are returned in double precision.
+     */
+    public abstract void leastSquares(
+            float[] q, int offset, float[] Q, float v, float b,
+            double[] sums);
+
+    /**
+     * Cauchy fitting term of a single location, with the residuals as in
+     * {@link #leastSquares(double[], int, double[], double, double,
+     * double[])} and <code>s = 1 + r^2 / w2</code>.
+     * @param sums set to <code>[sum(w2 * log(s) / 2), sum(Q * r / s),
+     * sum(r / s)]</code>
+     */
+    public abstract void cauchy(
+            double[] q, int offset, double[] Q, double v, double b,
+            double w2, double[] sums);
+
+    /**
+     * Single precision {@link #cauchy(double[], int, double[], double,
+     * double, double, double[])}; the sums are returned in double precision.
+     */
+    public abstract void cauchy(
+            float[] q, int offset, float[] Q, float v, float b, float w2,
+            double[] sums);
+
+    /**
+     * Corrects a row of pixels,
+     * <code>out[i] = ((pixels[i] - z[offset + i] - zShift)
+     * / v[offset + i]) * scale + shift</code>.
+     */
+    public abstract void correct(
+            double[] pixels, double[] z, double[] v, int offset,
+            double zShift, double scale, double shift, float[] out);
+
+    /**
+     * Decodes <code>out.length</code> unsigned 16-bit samples starting at
+     * byte <code>offset</code> and adds <code>shift</code>.
+     */
+    public abstract void uint16ToDoubles(
+            byte[] b, int offset, boolean little, double shift,
+            double[] out);
+
+    public abstract double dot(double[] a, double[] b);
+
+    /**
+     * <code>y += alpha * x</code>
+     */
+    public abstract void axpy(double alpha, double[] x, double[] y);
+}
@@ -27,6 +27,11 @@ public class MinFuncOptions {
      */
     public int MaxFunEvals;
 
+    /**
+     *  wall-clock budget in milliseconds, 0 for none
+     */
+    public long maxTime;
+
     /**
      *  progress tolerance
      */
@@ -41,4 +46,22 @@ public class MinFuncOptions {
      *  number of corrections to store in memory
      */
     public int Corr;
+
+    /**
+     *  nonlinear conjugate gradient (Hestenes-Stiefel) directions instead
+     *  of L-BFGS
+     */
+    public boolean cg;
+
+    public MinFuncOptions copy() {
+        MinFuncOptions copy = new MinFuncOptions();
+        copy.maxIter = this.maxIter;
+        copy.MaxFunEvals = this.MaxFunEvals;
+        copy.maxTime = this.maxTime;
+        copy.progTol = this.progTol;
+        copy.optTol = this.optTol;
+        copy.Corr = this.Corr;
+        copy.cg = this.cg;
+        return copy;
+    }
 }
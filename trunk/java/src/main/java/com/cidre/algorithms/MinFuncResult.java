@@ -18,4 +18,17 @@ package com.cidre.algorithms;
 public class MinFuncResult {
     public double[] x;
     public double f;
+    public int iterations;
+    public int funEvals;
+
+    /**
+     *  1: optimality condition below optTol,
+     *  2: progress below progTol,
+     *  0: iteration or function evaluation limit reached,
+     * -1: stopped by a listener,
+     * -2: time budget exceeded,
+     * -3: interrupted;
+     * when negative, x is the best iterate found so far
+     */
+    public int exitflag;
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.algorithms;
+
+/**
+ * An objective of data made of ordered slices, which can be approximated
+ * by the objective of fewer, merged slices; the structure exploited by
+ * coarse-to-fine optimisation.
+ */
+public interface MultiscaleObjective extends Objective {
+
+    /**
+     * @return number of slices of the data
+     */
+    int size();
+
+    /**
+     * The objective of the data with runs of adjacent slices merged into
+     * <code>size</code> slices.
+     */
+    Objective coarsen(int size);
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.algorithms;
+
+/**
+ * A differentiable objective function, minimised by an {@link Optimiser}.
+ */
+public interface Objective {
+
+    /**
+     * Value and gradient at x.
+     */
+    ObjectiveResult evaluate(double[] x);
+
+    /**
+     * The objective along lines through x, as searched by the line searches
+     * of the optimisers.  The default evaluates every trial step from
+     * scratch.
+     */
+    default LineFunction line(double[] x) {
+        final double[] origin = x.clone();
+        return new LineFunction() {
+
+            private double[] d;
+
+            @Override
+            public void setDirection(double[] d) {
+                this.d = d;
+            }
+
+            @Override
+            public ObjectiveResult evaluate(double t) {
+                double[] x2 = new double[origin.length];
+                for (int j = 0; j < x2.length; j++) {
+                    x2[j] = origin[j] + t * this.d[j];
+                }
+                return Objective.this.evaluate(x2);
+            }
+
+            @Override
+            public void advance(double t) {
+                for (int j = 0; j < origin.length; j++) {
+                    origin[j] += t * this.d[j];
+                }
+            }
+        };
+    }
+
+    /**
+     * Diagonal of an approximate inverse Hessian at x, used to
+     * precondition the optimisation.
+     * @return the diagonal or <code>null</code> if there is no estimate
+     */
+    default double[] inverseHessianDiagonal(double[] x) {
+        return null;
+    }
+}
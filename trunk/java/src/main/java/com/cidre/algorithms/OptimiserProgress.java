@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.algorithms;
+
+/**
+ * State of the model optimisation after a single L-BFGS iteration.
+ */
+public class OptimiserProgress {
+    /** input file, set by {@link com.cidre.core.Cidre} */
+    public String input;
+    /** channel, set by {@link com.cidre.core.Cidre} */
+    public int channel;
+    /** 1 for the least squares fit, 2 for the robust fit */
+    public int stage;
+    public double lambdaVreg;
+    public double lambdaZero;
+    public int iteration;
+    public double f;
+    /** infinity norm of the gradient */
+    public double gradientNorm;
+    /** step length of the line search */
+    public double t;
+    /** objective evaluations so far in this stage */
+    public int funEvals;
+    /** time since the start of this stage in milliseconds */
+    public double elapsed;
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.algorithms;
+
+/**
+ * Plain Java {@link Kernels}, evaluated in the same order as the loops they
+ * replace.
+ */
+public class ScalarKernels extends Kernels {
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public void leastSquares(
+            double[] q, int offset, double[] Q, double v, double b,
+            double[] sums)
+    {
+        double energy = 0;
+        double dv = 0;
+        double db = 0;
+        for (int z = 0; z < Q.length; z++) {
+            double val = Q[z] * v + b - q[offset + z];
+            energy += val * val;
+            dv += Q[z] * val;
+            db += val;
+        }
+        sums[0] = energy;
+        sums[1] = dv;
+        sums[2] = db;
+    }
+
+    @Override
+    public void leastSquares(
+            float[] q, int offset, float[] Q, float v, float b,
+            double[] sums)
+    {
+        double energy = 0;
+        double dv = 0;
+        double db = 0;
+        for (int z = 0; z < Q.length; z++) {
+            float val = Q[z] * v + b - q[offset + z];
+            energy += val * val;
+            dv += Q[z] * val;
+            db += val;
+        }
+        sums[0] = energy;
+        sums[1] = dv;
+        sums[2] = db;
+    }
+
+    @Override
+    public void cauchy(
+            double[] q, int offset, double[] Q, double v, double b,
+            double w2, double[] sums)
+    {
+        double energy = 0;
+        double dv = 0;
+        double db = 0;
+        for (int z = 0; z < Q.length; z++) {
+            double val = Q[z] * v + b - q[offset + z];
+            energy += w2 * Math.log(1 + (val * val) / w2) / 2.0;
+            dv += (Q[z] * val) / (1.0 + (val * val) / w2);
+            db += val / (1.0 + (val * val) / w2);
+        }
+        sums[0] = energy;
+        sums[1] = dv;
+        sums[2] = db;
+    }
+
+    @Override
+    public void cauchy(
+            float[] q, int offset, float[] Q, float v, float b, float w2,
+            double[] sums)
+    {
+        double energy = 0;
+        double dv = 0;
+        double db = 0;
+        for (int z = 0; z < Q.length; z++) {
+            float val = Q[z] * v + b - q[offset + z];
+            float s = 1.0f + (val * val) / w2;
+            energy += Math.log(s);
+            dv += (Q[z] * val) / s;
+            db += val / s;
+        }
+        sums[0] = energy * w2 / 2.0;
+        sums[1] = dv;
+        sums[2] = db;
+    }
+
+    @Override
+    public void correct(
+            double[] pixels, double[] z, double[] v, int offset,
+            double zShift, double scale, double shift, float[] out)
+    {
+        for (int i = 0; i < pixels.length; i++) {
+            double enumerator = pixels[i] - z[offset + i] - zShift;
+            out[i] = (float) (
+                ((enumerator / v[offset + i]) * scale) + shift);
+        }
+    }
+
+    @Override
+    public void uint16ToDoubles(
+            byte[] b, int offset, boolean little, double shift,
+            double[] out)
+    {
+        for (int i = 0; i < out.length; i++) {
+            int first = b[offset + 2 * i] & 0xff;
+            int second = b[offset + 2 * i + 1] & 0xff;
+            int value = little ? first | (second << 8) : (first << 8) | second;
+            out[i] = value + shift;
+        }
+    }
+
+    @Override
+    public double dot(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, double[] y) {
+        for (int i = 0; i < x.length; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+}
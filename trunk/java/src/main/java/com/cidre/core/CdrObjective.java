@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import com.cidre.algorithms.BatchObjective;
+import com.cidre.algorithms.MultiscaleObjective;
+import com.cidre.algorithms.Objective;
+import com.cidre.algorithms.ObjectiveResult;
+import com.cidre.algorithms.ReweightedObjective;
+import com.cidre.core.ModelGenerator.Mestimator;
+
+/**
+ * {@link ModelGenerator#cdr_objective} of an optimisation stage as an
+ * {@link Objective}.  With <code>weights</code> set, the fitting term
+ * is the weighted least squares majoriser of the CAUCHY term.
+ */
+class CdrObjective
+    implements ReweightedObjective, BatchObjective, MultiscaleObjective
+{
+
+    private final ModelGenerator generator;
+    final PivotedStack stack;
+    final double cauchy_w;
+    final double pivotShiftX;
+    final double[] pivotShiftY;
+    final Mestimator method;
+    final double[] Q;
+    final int TERM;
+    final double lambdaVreg;
+    final double lambdaZero;
+    final Majoriser weights;
+
+    CdrObjective(
+            ModelGenerator generator, PivotedStack stack, double cauchy_w,
+            double pivotShiftX, double[] pivotShiftY, Mestimator method,
+            double[] Q, int TERM, double lambdaVreg, double lambdaZero,
+            Majoriser weights)
+    {
+        this.generator = generator;
+        this.stack = stack;
+        this.cauchy_w = cauchy_w;
+        this.pivotShiftX = pivotShiftX;
+        this.pivotShiftY = pivotShiftY;
+        this.method = method;
+        this.Q = Q;
+        this.TERM = TERM;
+        this.lambdaVreg = lambdaVreg;
+        this.lambdaZero = lambdaZero;
+        this.weights = weights;
+    }
+
+    @Override
+    public ObjectiveResult evaluate(double[] x)
+    {
+        return this.generator.cdr_objective(
+            this.stack, x, this.cauchy_w, this.pivotShiftX,
+            this.pivotShiftY, this.method, this.Q, this.TERM,
+            this.lambdaVreg, this.lambdaZero, this.weights);
+    }
+
+    @Override
+    public LineObjective line(double[] x)
+    {
+        return new LineObjective(this.generator, this, x);
+    }
+
+    @Override
+    public double[] inverseHessianDiagonal(double[] x)
+    {
+        return this.generator.inverseHessianDiagonal(
+            x, this.pivotShiftX, this.Q, this.TERM, this.lambdaVreg,
+            this.lambdaZero, this.generator.logKernels());
+    }
+
+    @Override
+    public int size()
+    {
+        return this.Q.length;
+    }
+
+    /**
+     * The objective of the given planes of the stack; the fitting term
+     * is normalised by the number of planes, so it estimates that of
+     * the whole stack.  A majoriser is sliced with its weights, those
+     * of the given planes.
+     */
+    @Override
+    public CdrObjective subset(int[] slices)
+    {
+        PivotedStack stack = this.stack.subset(slices);
+        double[] Q = new double[slices.length];
+        for (int i = 0; i < slices.length; i++) {
+            Q[i] = this.Q[slices[i]];
+        }
+        return new CdrObjective(
+            this.generator, stack, this.cauchy_w, this.pivotShiftX,
+            this.pivotShiftY, this.method, Q, this.TERM, this.lambdaVreg,
+            this.lambdaZero,
+            this.weights == null ? null : this.weights.of(stack, Q));
+    }
+
+    /**
+     * The objective of the stack compressed to <code>size</code>
+     * quantiles, every plane and Q the mean of a run of adjacent
+     * planes.  A majoriser is taken again at the same point, with the
+     * weights of the compressed planes.
+     */
+    @Override
+    public CdrObjective coarsen(int size)
+    {
+        int depth = this.Q.length;
+        PivotedStack stack = this.stack.coarsen(size);
+        double[] Q = new double[size];
+        for (int i = 0; i < size; i++) {
+            int from = (int) ((long) i * depth / size);
+            int to = (int) ((long) (i + 1) * depth / size);
+            for (int z = from; z < to; z++) {
+                Q[i] += this.Q[z];
+            }
+            Q[i] /= to - from;
+        }
+        return new CdrObjective(
+            this.generator, stack, this.cauchy_w, this.pivotShiftX,
+            this.pivotShiftY, this.method, Q, this.TERM, this.lambdaVreg,
+            this.lambdaZero,
+            this.weights == null ? null : this.weights.of(stack, Q));
+    }
+
+    /**
+     * The least squares objective is its own majoriser.
+     */
+    @Override
+    public CdrObjective reweight(double[] x)
+    {
+        if (this.method == Mestimator.LS) {
+            return this;
+        }
+        return new CdrObjective(
+            this.generator, this.stack, this.cauchy_w, this.pivotShiftX,
+            this.pivotShiftY, Mestimator.LS, this.Q, this.TERM,
+            this.lambdaVreg, this.lambdaZero,
+            new Majoriser(this.stack, this.Q, x, this.cauchy_w));
+    }
+}
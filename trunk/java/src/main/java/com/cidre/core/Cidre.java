@@ -20,17 +20,28 @@
 package com.cidre.core;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cidre.algorithms.CidreMath;
 import com.cidre.core.Options.CorrectionMode;
+import com.cidre.io.ArtifactSink;
 import com.cidre.io.BfImageLoader;
+import com.cidre.io.BfImageSession;
 import com.cidre.io.BfModelLoader;
 import com.cidre.io.BfModelWriter;
+import com.cidre.io.Checkpoint;
+import com.cidre.jfr.CorrectionWriteEvent;
+import com.cidre.jfr.Jfr;
 
 import loci.common.services.ServiceFactory;
 import loci.formats.FormatTools;
@@ -73,6 +84,8 @@ public class Cidre {
 
     private String modelOutputDir = null;
 
+    private BfImageSession session = null;
+
     private BfImageLoader imageLoader = null;
 
     private boolean useMinImage = false;
@@ -81,6 +94,59 @@ public class Cidre {
 
     private ArrayList<Integer> channelsToProcess;
 
+    private boolean leanMetadata = false;
+
+    private String memoDirectory = null;
+
+    private String cacheDirectory = null;
+
+    private Double stageTimeBudget = null;
+
+    private Integer maxFunEvals = null;
+
+    private boolean float32 = false;
+
+    private boolean precondition = false;
+
+    private Options.Method optimiser = Options.Method.LBFGS;
+
+    private Integer minibatch = null;
+
+    private boolean quantilePyramid = false;
+
+    private boolean fastModel = false;
+
+    private boolean fastStart = false;
+
+    private Integer planeSample = null;
+
+    private boolean stratifiedSample = false;
+
+    private long sampleSeed = 0;
+
+    private String checkpointDirectory = null;
+
+    private double checkpointInterval = 300;
+
+    private boolean resume = false;
+
+    private List<Double> sweepLambdaVreg = null;
+
+    private List<Double> sweepLambdaZero = null;
+
+    private int sweepThreads = 1;
+
+    private PhaseProfiler profiler = new PhaseProfiler();
+
+    private String metricsDirectory = null;
+
+    private String artifactDirectory = null;
+
+    private ArtifactSink artifactSink = null;
+
+    private final List<OptimiserListener> listeners =
+        new ArrayList<OptimiserListener>();
+
     private final CorrectionMode correctionMode;
 
     public Cidre(String fileName, String outputDir,
@@ -95,6 +161,7 @@ public class Cidre {
         this.useMinImage = useMinImage;
         this.skipPreProcessing = skipPreprocessing;
         this.correctionMode = correctionMode;
+        this.profiler.setSource(fileName);
     }
 
     public void setChannelsToProcess(ArrayList<Integer> channelsToProcess) {
@@ -121,6 +188,206 @@ public class Cidre {
         this.skipPreProcessing = skipPreprocessing;
     }
 
+    public void setLeanMetadata(boolean leanMetadata) {
+        this.leanMetadata = leanMetadata;
+    }
+
+    public void setMemoDirectory(String memoDirectory) {
+        this.memoDirectory = memoDirectory;
+    }
+
+    public void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @param stageTimeBudget wall-clock budget of each optimisation stage
+     * in seconds or <code>null</code> for none; when exceeded, the stage
+     * continues with the best solution found so far
+     */
+    public void setStageTimeBudget(Double stageTimeBudget) {
+        this.stageTimeBudget = stageTimeBudget;
+    }
+
+    /**
+     * @param maxFunEvals maximum number of objective evaluations of each
+     * optimisation stage or <code>null</code> for the default
+     */
+    public void setMaxFunEvals(Integer maxFunEvals) {
+        this.maxFunEvals = maxFunEvals;
+    }
+
+    /**
+     * Uses the given registry for the counters and timers of this run,
+     * e.g. to aggregate the metrics of all runs of a long-running process.
+     * Must be called before {@link #execute()}.
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.profiler = new PhaseProfiler(metrics);
+        this.profiler.setSource(this.input);
+    }
+
+    public MetricsRegistry getMetrics() {
+        return this.profiler.getMetrics();
+    }
+
+    /**
+     * Adds a listener notified after every iteration of the model
+     * optimisation, with the input and channel filled in.
+     */
+    public void addOptimiserListener(OptimiserListener listener) {
+        this.listeners.add(listener);
+    }
+
+    private ModelGenerator createModelGenerator(
+            Options options, final int channel)
+    {
+        ModelGenerator model = new ModelGenerator(options);
+        model.setProfiler(this.profiler);
+        if (this.artifactDirectory != null) {
+            if (this.artifactSink == null) {
+                this.artifactSink = new ArtifactSink(
+                    new File(this.artifactDirectory,
+                             new File(this.input).getName().split("\\.")[0])
+                    .getPath());
+            }
+            model.setArtifactSink(this.artifactSink, "c" + channel + "_");
+        }
+        for (final OptimiserListener listener : this.listeners) {
+            model.addListener(progress -> {
+                progress.input = this.input;
+                progress.channel = channel;
+                return listener.iteration(progress);
+            });
+        }
+        return model;
+    }
+
+    /**
+     * @param metricsDirectory directory the metrics of the run are written
+     * to as <code>&lt;input&gt;.metrics.json</code> or <code>null</code>
+     */
+    public void setMetricsDirectory(String metricsDirectory) {
+        this.metricsDirectory = metricsDirectory;
+    }
+
+    /**
+     * @param float32 whether to hold the quantile stack of the
+     * optimisation in single precision only, with double precision sums;
+     * the model surfaces and the min image remain double precision
+     */
+    public void setFloat32(boolean float32) {
+        this.float32 = float32;
+    }
+
+    /**
+     * @param precondition whether to use a per-variable diagonal initial
+     * Hessian, estimated from the objective, in the L-BFGS optimisation
+     */
+    public void setPrecondition(boolean precondition) {
+        this.precondition = precondition;
+    }
+
+    /**
+     * @param optimiser optimiser of the model
+     */
+    public void setOptimiser(Options.Method optimiser) {
+        this.optimiser = optimiser;
+    }
+
+    /**
+     * @param minibatch quantile planes per batch of a minibatch phase at the
+     * start of each optimisation stage or <code>null</code> for none
+     */
+    public void setMinibatch(Integer minibatch) {
+        this.minibatch = minibatch;
+    }
+
+    /**
+     * @param quantilePyramid whether to optimise each stage on coarser
+     * quantile compressions of the stack first, from 25 quantiles up
+     */
+    public void setQuantilePyramid(boolean quantilePyramid) {
+        this.quantilePyramid = quantilePyramid;
+    }
+
+    /**
+     * @param fastModel whether to build a rough model in seconds, from a
+     * least squares fit of every location smoothed by the spatial
+     * regularisation, without optimisation
+     */
+    public void setFastModel(boolean fastModel) {
+        this.fastModel = fastModel;
+    }
+
+    /**
+     * @param fastStart whether to start the optimisation from the rough
+     * model of {@link #setFastModel(boolean)}
+     */
+    public void setFastStart(boolean fastStart) {
+        this.fastStart = fastStart;
+    }
+
+    /**
+     * Builds models from a seeded random sample of the planes instead of
+     * all of them.
+     * @param planeSample number of planes to read, 0 for as many as the
+     * entropy of the stack requires or <code>null</code> to read all planes
+     * @param stratifiedSample whether to draw the sample evenly from every
+     * series
+     * @param sampleSeed seed of the sample
+     */
+    public void setPlaneSampling(
+            Integer planeSample, boolean stratifiedSample, long sampleSeed)
+    {
+        this.planeSample = planeSample;
+        this.stratifiedSample = stratifiedSample;
+        this.sampleSeed = sampleSeed;
+    }
+
+    /**
+     * Periodically stores the state of model builds, one file per input and
+     * channel, so a build that dies can be continued.
+     * @param checkpointDirectory directory of the checkpoints or
+     * <code>null</code> to disable
+     * @param checkpointInterval minimum time between checkpoints in seconds
+     * @param resume whether to continue from existing checkpoints
+     */
+    public void setCheckpointing(
+            String checkpointDirectory, double checkpointInterval,
+            boolean resume)
+    {
+        this.checkpointDirectory = checkpointDirectory;
+        this.checkpointInterval = checkpointInterval;
+        this.resume = resume;
+    }
+
+    /**
+     * @param artifactDirectory directory the diagnostic intermediates of
+     * every model build (Q, pivot shifts, surfaces after each stage, ...) are
+     * written to, in a subdirectory per input, or <code>null</code>
+     */
+    public void setArtifactDirectory(String artifactDirectory) {
+        this.artifactDirectory = artifactDirectory;
+    }
+
+    /**
+     * Switches to parameter sweep mode: instead of building, saving and
+     * applying a single model, the optimisation is run for every
+     * combination of the given values (log10 scale) and a report is
+     * written to the model output directory.
+     * @param lambdaVreg lambdaVreg values to try
+     * @param lambdaZero lambdaZero values to try
+     * @param threads maximum number of concurrent optimisations
+     */
+    public void setSweep(
+            List<Double> lambdaVreg, List<Double> lambdaZero, int threads)
+    {
+        this.sweepLambdaVreg = lambdaVreg;
+        this.sweepLambdaZero = lambdaZero;
+        this.sweepThreads = threads;
+    }
+
     private void printSettings() {
         log.info("CIDRE settings:\n"
                  + "\tInput file:        {}\n"
@@ -128,9 +395,13 @@ public class Cidre {
                  + "\tModel input:       {}\n"
                  + "\tModel output:      {}\n"
                  + "\tuseMinImage:       {}\n"
-                 + "\tskipPreprocessing: {}",
+                 + "\tskipPreprocessing: {}\n"
+                 + "\tleanMetadata:      {}\n"
+                 + "\tmemoDirectory:     {}\n"
+                 + "\tcacheDirectory:    {}",
                  this.input, this.outputDir, this.modelInput,
-                 this.modelOutputDir, this.useMinImage, this.skipPreProcessing
+                 this.modelOutputDir, this.useMinImage, this.skipPreProcessing,
+                 this.leanMetadata, this.memoDirectory, this.cacheDirectory
         );
     }
 
@@ -139,22 +410,150 @@ public class Cidre {
         if (this.input == null) {
             throw new Exception("No input or empty.");
         }
-        Options options = new Options();
-        this.imageLoader = new BfImageLoader(options, this.input);
-        if (this.modelInput == null) {
-            log.info("Building model");
-            this.buildModel();
-        } else {
-            log.info("Loading model");
-            this.loadModel();
+        try {
+            if (this.sweepLambdaVreg != null) {
+                log.info("Sweeping model parameters");
+                this.sweep();
+                return;
+            }
+            if (this.modelInput == null) {
+                log.info("Building model");
+                this.buildModel();
+            } else {
+                log.info("Loading model");
+                this.loadModel();
+            }
+            if (this.modelOutputDir != null) {
+                log.info("Saving model files");
+                try (PhaseProfiler.Measurement m =
+                        this.profiler.start(PhaseProfiler.SAVE))
+                {
+                    this.saveModel();
+                }
+            }
+            if (this.outputDir != null
+                    && Thread.currentThread().isInterrupted())
+            {
+                log.warn("Interrupted, not correcting files with the "
+                         + "partial model");
+            } else if (this.outputDir != null) {
+                if (this.modelInput == null && this.isPartial()) {
+                    log.warn("Correcting files with a partial model");
+                }
+                log.info("Correcting files");
+                try (PhaseProfiler.Measurement m =
+                        this.profiler.start(PhaseProfiler.APPLY))
+                {
+                    this.applyModel();
+                }
+            }
+        } finally {
+            this.close();
+            this.profiler.logSummary();
+            if (this.metricsDirectory != null) {
+                this.writeMetrics();
+            }
         }
-        if (this.modelOutputDir != null) {
-            log.info("Saving model files");
-            this.saveModel();
+    }
+
+    /**
+     * Closes the readers shared by all phases of this run.
+     */
+    public void close() throws Exception {
+        if (this.imageLoader != null) {
+            this.imageLoader.close();
+            this.imageLoader = null;
+        }
+        if (this.session != null) {
+            this.session.close();
+            this.session = null;
+        }
+        if (this.artifactSink != null) {
+            this.artifactSink.close();
+            this.artifactSink = null;
+        }
+    }
+
+    /**
+     * Returns the session of this run, opening the input files on first use.
+     */
+    private BfImageSession getSession() throws Exception {
+        if (this.session == null) {
+            this.session = new BfImageSession(
+                this.input, this.leanMetadata, this.memoDirectory);
+        }
+        this.session.open();
+        return this.session;
+    }
+
+    /**
+     * Returns the initialised image loader shared by the build and apply
+     * phases.
+     */
+    private BfImageLoader getImageLoader() throws Exception {
+        if (this.imageLoader != null && this.imageLoader.isInitialised()) {
+            return this.imageLoader;
         }
-        if (this.outputDir != null) {
-            log.info("Correcting files");
-            this.applyModel();
+        try (PhaseProfiler.Measurement m =
+                this.profiler.start(PhaseProfiler.INIT))
+        {
+            if (this.imageLoader == null) {
+                Options options = new Options();
+                options.leanMetadata = this.leanMetadata;
+                options.memoDirectory = this.memoDirectory;
+                options.cacheDirectory = this.cacheDirectory;
+                options.stageTimeBudget = this.stageTimeBudget;
+                options.maxFunEvals = this.maxFunEvals;
+                options.float32 = this.float32;
+                options.precondition = this.precondition;
+                options.optimiser = this.optimiser;
+                options.minibatch = this.minibatch;
+                options.quantilePyramid = this.quantilePyramid;
+                options.fastModel = this.fastModel;
+                options.fastStart = this.fastStart;
+                options.planeSample = this.planeSample;
+                options.stratifiedSample = this.stratifiedSample;
+                options.sampleSeed = this.sampleSeed;
+                this.imageLoader =
+                    new BfImageLoader(options, this.getSession());
+                this.imageLoader.setProfiler(this.profiler);
+            }
+            if (!this.imageLoader.initialise()) {
+                throw new Exception("Could not initialise " + this.input);
+            }
+        }
+        return this.imageLoader;
+    }
+
+    private void writeMetrics() {
+        File file = new File(
+            this.metricsDirectory,
+            new File(this.input).getName().split("\\.")[0]
+            + ".metrics.json");
+        try {
+            new File(this.metricsDirectory).mkdirs();
+            this.profiler.getMetrics().writeJson(file);
+            log.info("Metrics written to {}", file);
+        } catch (IOException e) {
+            log.error("Could not write metrics to {}", file, e);
+        }
+    }
+
+    /**
+     * @return wall time and heap high-water mark of the phases run so far
+     */
+    public PhaseProfiler getProfiler() {
+        return this.profiler;
+    }
+
+    private void resolveChannelsToProcess(int sizeC) {
+        if (this.channelsToProcess == null ||
+            this.channelsToProcess.size() == 0)
+        {
+            this.channelsToProcess = new ArrayList<Integer>();
+            for (int channel = 0; channel < sizeC; channel++) {
+                this.channelsToProcess.add(channel);
+            }
         }
     }
 
@@ -162,6 +561,69 @@ public class Cidre {
         return this.descriptors;
     }
 
+    public String getInput() {
+        return this.input;
+    }
+
+    /**
+     * Estimates the peak heap usage, in bytes, of {@link #execute()} for
+     * this input.  Covers the working-size stack (including the worst case
+     * scale-space resampling), the L-BFGS history and objective
+     * temporaries of every concurrent optimisation of a sweep, the packed
+     * quantile stack, the buffers of a resumed checkpoint, the
+     * full-resolution plane and min image buffers and the full-resolution
+     * model surfaces of all processed channels.  The input files are
+     * opened in the session that {@link #execute()} then reuses.
+     * @throws Exception if the input cannot be opened
+     */
+    public long estimateMemoryFootprint() throws Exception {
+        BfImageLoader loader = this.getImageLoader();
+        Options options = loader.getOptions();
+        int numberOfChannels = this.channelsToProcess != null
+            && this.channelsToProcess.size() > 0 ?
+            this.channelsToProcess.size() : loader.getSizeC();
+        int numberOfQuantiles = this.skipPreProcessing ?
+            loader.getSizeS() : options.numberOfQuantiles;
+        int optimisers = this.sweepLambdaVreg != null ?
+            Math.max(1, Math.min(
+                this.sweepThreads, this.sweepLambdaZero.size())) : 1;
+        return Cidre.estimateMemoryFootprint(
+            options.numImagesProvided, numberOfQuantiles,
+            options.workingSize.width * options.workingSize.height,
+            (long) loader.getWidth() * loader.getHeight(),
+            FormatTools.getBytesPerPixel(loader.getPixelType()),
+            numberOfChannels, optimisers, this.float32,
+            this.checkpointDirectory != null);
+    }
+
+    static long estimateMemoryFootprint(
+            long numberOfImages, long numberOfQuantiles, long workingPixels,
+            long fullPixels, int bytesPerPixel, int numberOfChannels,
+            int optimisers, boolean float32, boolean checkpointing)
+    {
+        // scale-space resampling may stack every octave of the pyramid
+        long octaves = 1 + (long) Math.floor(
+            Math.log(Math.sqrt(workingPixels)) / Math.log(2));
+        long stack = 8 * numberOfImages * workingPixels * (octaves + 2);
+        // S and Y correction history plus objective temporaries, for each
+        // concurrent optimisation
+        long variables = 2 * workingPixels + 2;
+        long optimiser = optimisers * 8 * variables * (2 * 100 + 20);
+        // quantile stack packed for the optimisation, allocated while the
+        // planes it replaces are still held; single precision in float32
+        long packed = (float32 ? 4 : 8) * numberOfQuantiles * workingPixels;
+        // a resumed checkpoint is read in full, quantile stack, min image
+        // and optimiser state, before it replaces the prepared state
+        long checkpoint = checkpointing ?
+            8 * numberOfQuantiles * workingPixels + 8 * fullPixels
+            + 8 * variables * (2 * 100 + 5) : 0;
+        // raw plane, decoded plane, min image and corrected output plane
+        long planes = fullPixels * (bytesPerPixel + 8 + 8 + 4 + 4);
+        // v, z and min image surfaces kept for every channel
+        long model = 3 * 8 * fullPixels * numberOfChannels;
+        return stack + optimiser + packed + checkpoint + planes + model;
+    }
+
     /**
      * Build CIDRE model
      */
@@ -169,14 +631,13 @@ public class Cidre {
     {
         log.info("Building CIDRE model");
         this.descriptors.clear();
-        Options options = new Options();
-        this.imageLoader = new BfImageLoader(options, this.input);
         try {
-            this.imageLoader.initialise();
+            this.getImageLoader();
         } catch (Exception e) {
             log.error("Error during initialization", e);
             return null;
         }
+        Options options = this.imageLoader.getOptions();
         if (this.skipPreProcessing) {
             options.numberOfQuantiles = this.imageLoader.getSizeS();
         }
@@ -184,33 +645,63 @@ public class Cidre {
         log.info("Building model from {} images [{}, {}]",
                  this.imageLoader.getSizeS(), this.imageLoader.getWidth(),
                  this.imageLoader.getHeight());
-        if (this.channelsToProcess == null ||
-            this.channelsToProcess.size() == 0)
-        {
-            this.channelsToProcess = new ArrayList<Integer>();
-            for (int channel = 0; channel < this.imageLoader.getSizeC();
-                 channel++)
-            {
-                this.channelsToProcess.add(channel);
-            }
-        }
+        this.resolveChannelsToProcess(this.imageLoader.getSizeC());
         for (int channel : this.channelsToProcess) {
-            try {
-                this.imageLoader.loadImages(channel);
-            } catch (Exception e) {
-                log.error("Error during image loading", e);
-                return null;
+            ModelGenerator model = this.createModelGenerator(options, channel);
+            File checkpointFile = null;
+            Checkpoint checkpoint = null;
+            if (this.checkpointDirectory != null) {
+                try {
+                    model.setInputKey(
+                        this.imageLoader.getStackKey(channel));
+                } catch (Exception e) {
+                    log.error("Error during initialization", e);
+                    return null;
+                }
+                checkpointFile = new File(
+                    this.checkpointDirectory,
+                    new File(this.input).getName().split("\\.")[0]
+                    + ".c" + channel + ".checkpoint");
+                if (this.resume) {
+                    checkpoint = Checkpoint.read(checkpointFile);
+                }
+                if (checkpoint != null && !model.canResume(checkpoint)) {
+                    log.warn("Ignoring checkpoint {} of a build with a "
+                             + "different input or parameters",
+                             checkpointFile);
+                    checkpoint = null;
+                }
+            }
+            double[][] minImage;
+            if (checkpoint != null) {
+                options.bitDepth = checkpoint.bitDepth;
+                minImage = checkpoint.minImage;
+            } else {
+                try {
+                    this.imageLoader.loadImages(channel);
+                } catch (Exception e) {
+                    log.error("Error during image loading", e);
+                    return null;
+                }
+                minImage = this.imageLoader.getMinImage();
             }
             if (this.useMinImage) {
-                double[] zLimits = CidreMath.zLimitsFromPercentiles(
-                    this.imageLoader.getMinImage());
+                double[] zLimits = CidreMath.zLimitsFromPercentiles(minImage);
                 options.zLimits[0] = zLimits[0];
                 options.zLimits[1] = zLimits[1];
             }
-            ModelGenerator model = new ModelGenerator(options);
-            ModelDescriptor descriptor = model.generate(
-                this.imageLoader.getStack());
-            double[][] minImage = this.imageLoader.getMinImage();
+            if (checkpointFile != null) {
+                model.setCheckpointing(
+                    checkpointFile, this.checkpointInterval, minImage);
+            }
+            ModelDescriptor descriptor = checkpoint != null ?
+                model.resume(checkpoint) :
+                model.generate(this.imageLoader.getStack());
+            if (checkpointFile != null
+                    && !Thread.currentThread().isInterrupted())
+            {
+                checkpointFile.delete();
+            }
             double[] buffer = new double[
                 this.imageLoader.getHeight() * this.imageLoader.getWidth()];
             int width = this.imageLoader.getWidth();
@@ -222,16 +713,97 @@ public class Cidre {
             }
             descriptor.minImage = buffer;
             this.descriptors.add(descriptor);
+            if (descriptor.partial) {
+                log.warn("The model of channel {} is partial, its "
+                         + "optimisation stopped before convergence",
+                         channel);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // every further optimisation would stop at once
+                log.warn("Interrupted, skipping the remaining channels");
+                break;
+            }
         }
         return this.descriptors;
     }
 
+    /**
+     * @return whether the built model is partial: a channel stopped before
+     * convergence or was skipped after an interrupt
+     */
+    public boolean isPartial() {
+        if (this.channelsToProcess != null
+                && this.descriptors.size() < this.channelsToProcess.size())
+        {
+            return true;
+        }
+        for (ModelDescriptor descriptor : this.descriptors) {
+            if (descriptor.partial) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run a parameter sweep for every channel, sharing the preprocessed
+     * stack and the least squares fit between all settings of a channel
+     */
+    public List<SweepResult> sweep() throws Exception
+    {
+        log.info("Sweeping CIDRE model parameters");
+        this.getImageLoader();
+        Options options = this.imageLoader.getOptions();
+        if (this.skipPreProcessing) {
+            options.numberOfQuantiles = this.imageLoader.getSizeS();
+        }
+        options.numImagesProvided = this.imageLoader.getSizeS();
+        this.resolveChannelsToProcess(this.imageLoader.getSizeC());
+        List<SweepResult> results = new ArrayList<SweepResult>();
+        StringBuilder report = new StringBuilder(
+            "channel,lambdaVreg,lambdaZero,energy,iterations,funEvals,"
+            + "runtimeMs,warmStarted\n");
+        for (int channel : this.channelsToProcess) {
+            this.imageLoader.loadImages(channel);
+            if (this.useMinImage) {
+                double[] zLimits = CidreMath.zLimitsFromPercentiles(
+                    this.imageLoader.getMinImage());
+                options.zLimits[0] = zLimits[0];
+                options.zLimits[1] = zLimits[1];
+            }
+            ModelGenerator model = this.createModelGenerator(options, channel);
+            List<SweepResult> channelResults = model.sweep(
+                this.imageLoader.getStack(), this.sweepLambdaVreg,
+                this.sweepLambdaZero, this.sweepThreads);
+            for (SweepResult result : channelResults) {
+                report.append(String.format(
+                    Locale.ROOT, "%d,%s,%s,%s,%d,%d,%d,%b%n", channel,
+                    result.lambdaVreg, result.lambdaZero, result.energy,
+                    result.iterations, result.funEvals, result.runtime,
+                    result.warmStarted));
+            }
+            results.addAll(channelResults);
+        }
+        log.info("Sweep results:\n{}", report);
+        if (this.modelOutputDir != null) {
+            File inputFile = new File(this.input);
+            String fileName = this.modelOutputDir + File.separator
+                            + inputFile.getName().split("\\.")[0]
+                            + ".sweep.csv";
+            log.info("Saving sweep report to {}", fileName);
+            Files.write(Paths.get(fileName),
+                        report.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return results;
+    }
+
     /**
      * Load CIDRE model
      * @throws Exception 
      */
     public void loadModel() throws Exception {
-        BfModelLoader loader = new BfModelLoader(this.modelInput);
+        BfModelLoader loader =
+            new BfModelLoader(this.modelInput, this.leanMetadata);
         this.descriptors = loader.loadModel();
     };
 
@@ -250,7 +822,9 @@ public class Cidre {
     public void saveModel(ArrayList<ModelDescriptor> descriptor) throws Exception
     {
         File inputFile = new File(this.input);
+        // partial models are kept apart from converged ones
         String fileName = inputFile.getName().split("\\.")[0]
+                        + (this.isPartial() ? ".partial" : "")
                         + ".ill.cor.ome.tif";
         fileName = this.modelOutputDir + File.separator + fileName;
         log.info("Saving model to {}", fileName);
@@ -263,10 +837,8 @@ public class Cidre {
      * @throws Exception 
      */
     public void applyModel() throws Exception {
-        if (this.imageLoader == null) {
-            Options options = new Options();
-            this.imageLoader = new BfImageLoader(options, this.input);
-        }
+        this.getImageLoader();
+        this.resolveChannelsToProcess(this.descriptors.size());
         ServiceFactory factory = new ServiceFactory();
         OMEXMLService service = factory.getInstance(OMEXMLService.class);
         IMetadata meta = service.createOMEXMLMetadata();
@@ -296,6 +868,11 @@ public class Cidre {
             for (int c = 0; c < this.channelsToProcess.size(); c++) {
                 channel = this.channelsToProcess.get(c);
                 descriptor = this.descriptors.get(c);
+                CorrectionWriteEvent event =
+                    Jfr.ENABLED ? new CorrectionWriteEvent() : null;
+                if (event != null) {
+                    event.begin();
+                }
                 pixels = this.imageLoader.loadPlane(
                     s, channel, timepoint, zPlane);
                 pixelsFloat = ImageCorrection.correctPlane(
@@ -307,6 +884,13 @@ public class Cidre {
                     }
                 }
                 writer.saveBytes(c, buffer.array());
+                if (event != null) {
+                    event.file = fileName;
+                    event.series = s;
+                    event.channel = channel;
+                    event.bytes = buffer.capacity();
+                    event.commit();
+                }
             }
         }
         writer.close();
@@ -18,6 +18,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cidre.algorithms.CidreMath;
+import com.cidre.algorithms.Diagnostics;
+import com.cidre.algorithms.Kernels;
 
 public class ImageCorrection {
 
@@ -29,48 +31,49 @@ public class ImageCorrection {
         Options.CorrectionMode correctionMode, boolean useMinImage)
     {
         double minImageMean = CidreMath.mean(descriptor.minImage);
-        double enumerator, denominator;
         int width = descriptor.imageSize.width,
             height = descriptor.imageSize.height;
         double mean_v = CidreMath.mean(descriptor.v);
         double mean_z = CidreMath.mean(descriptor.z);
         log.debug("{}, {}", width, height);
         log.debug("{}, {} ,{}", mean_v, mean_z, minImageMean);
+        // enumerator is pixel - zeroLight[i] - zShift, output is
+        // (enumerator / v) * scale + shift
+        double[] zeroLight = descriptor.z;
+        double zShift = 0.0;
+        if (useMinImage) {
+            zeroLight = descriptor.minImage;
+            zShift = mean_z - minImageMean;
+        }
+        double scale, shift;
+        switch(correctionMode)
+        {
+            case ZERO_LIGHT_PRESERVED:
+                scale = mean_v;
+                shift = mean_z;
+                break;
+            case DYNAMIC_RANGE_CORRECTED:
+                scale = mean_v;
+                shift = 0.0;
+                break;
+            case DIRECT:
+                scale = 1.0;
+                shift = 0.0;
+                break;
+            default:
+                log.error("Unrecognized correction mode.");
+                return new float[width][height];
+        }
+        Kernels kernels = Kernels.get();
         float[][] floatArray = new float[width][height];
         for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                if (useMinImage) {
-                    enumerator = pixelData[x][y] - (
-                        descriptor.minImage[x * height + y]
-                        - minImageMean + mean_z);
-                } else {
-                    enumerator = pixelData[x][y]
-                               - descriptor.z[x * height + y];
-                }
-                denominator = descriptor.v[x * height + y];
-                switch(correctionMode)
-                {
-                    case ZERO_LIGHT_PRESERVED:
-                        floatArray[x][y] = (float) (
-                            ((enumerator / denominator) * mean_v) + mean_z);
-                        break;
-                    case DYNAMIC_RANGE_CORRECTED:
-                        floatArray[x][y] = (float) (
-                             (enumerator / denominator) * mean_v);
-                        break;
-                    case DIRECT:
-                        floatArray[x][y] = (float) (
-                            enumerator / denominator);
-                        break;
-                    default:
-                        log.error("Unrecognized correction mode.");
-                        break;
-                }
-            }
+            kernels.correct(
+                pixelData[x], zeroLight, descriptor.v, x * height, zShift,
+                scale, shift, floatArray[x]);
         }
         log.debug("Image size [{}, {}], mean: {}",
                  floatArray.length, floatArray[0].length,
-                 CidreMath.mean(floatArray));
+                 Diagnostics.mean(floatArray));
         return floatArray;
     }
 
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cidre.algorithms.MinFuncOptions;
+import com.cidre.algorithms.MinFuncResult;
+import com.cidre.algorithms.Objective;
+import com.cidre.algorithms.ObjectiveResult;
+import com.cidre.algorithms.Optimiser;
+import com.cidre.algorithms.ReweightedObjective;
+
+/**
+ * Iteratively reweighted least squares for a
+ * {@link ReweightedObjective}.  Every iteration minimises the weighted
+ * least squares majoriser of the robust term at the current iterate
+ * with a bounded number of L-BFGS iterations; the majoriser of the
+ * CAUCHY term is evaluated from per location moments, so the stack is
+ * only read once per iteration.  Stops when the objective decreases by
+ * less than progTol relative to its value.  The iterations are reported
+ * to the listeners but not checkpointed.
+ */
+class IrlsOptimiser implements Optimiser {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(IrlsOptimiser.class);
+
+    // L-BFGS iterations on each majoriser
+    private static final int INNER_ITERATIONS = 200;
+
+    private final ModelGenerator generator;
+    private final MinFuncOptions minFuncOptions;
+    private final int stage;
+    private final double lambdaVreg;
+    private final double lambdaZero;
+
+    IrlsOptimiser(
+            ModelGenerator generator, MinFuncOptions minFuncOptions,
+            int stage, double lambdaVreg, double lambdaZero)
+    {
+        this.generator = generator;
+        this.minFuncOptions = minFuncOptions;
+        this.stage = stage;
+        this.lambdaVreg = lambdaVreg;
+        this.lambdaZero = lambdaZero;
+    }
+
+    @Override
+    public MinFuncResult minimise(Objective objective, double[] x0)
+    {
+        if (!(objective instanceof ReweightedObjective)) {
+            throw new IllegalArgumentException(
+                "IRLS requires a reweighted objective");
+        }
+        log.info("Running IRLS minimization");
+        ReweightedObjective robust = (ReweightedObjective) objective;
+        MinFuncOptions options = this.minFuncOptions;
+        long startTime = System.nanoTime();
+        MinFuncOptions inner = options.copy();
+        inner.maxIter = INNER_ITERATIONS;
+        double[] x = x0.clone();
+        ObjectiveResult result = robust.evaluate(x);
+        double f = result.E;
+        double[] g = result.G;
+        int funEvals = 1;
+        int iterations = 0;
+        int exitflag = 0;
+        for (int i = 0; i < options.maxIter; i++) {
+            if (funEvals >= options.MaxFunEvals) {
+                exitflag = 0;
+                log.info(
+                    "Reached Maximum Number of Function Evaluations");
+                break;
+            }
+            iterations = i + 1;
+            if (options.maxTime > 0) {
+                long elapsed = (System.nanoTime() - startTime) / 1000000;
+                inner.maxTime = Math.max(1, options.maxTime - elapsed);
+            }
+            inner.MaxFunEvals = Math.max(
+                1, options.MaxFunEvals - funEvals);
+            MinFuncResult step = this.generator.minFunc(
+                robust.reweight(x), x, inner, 0, this.lambdaVreg,
+                this.lambdaZero, false);
+            result = robust.evaluate(step.x);
+            funEvals += step.funEvals + 1;
+            double f_old = f;
+            if (result.E < f) {
+                x = step.x;
+                f = result.E;
+                g = result.G;
+            }
+            double optCond = Double.MIN_VALUE;
+            for (int j = 0; j < g.length; j++) {
+                optCond = Math.max(optCond, Math.abs(g[j]));
+            }
+            log.debug("IRLS iteration {}, f = {}, inner iterations: {}",
+                      i, f, step.iterations);
+            if (!this.generator.report(
+                    this.stage, this.lambdaVreg, this.lambdaZero, i, f,
+                    optCond, 1.0, funEvals, startTime))
+            {
+                exitflag = -1;
+                log.info("Stopped by optimiser listener");
+                break;
+            }
+            if (step.exitflag == -3
+                || Thread.currentThread().isInterrupted())
+            {
+                exitflag = -3;
+                log.info("Interrupted");
+                break;
+            }
+            if (step.exitflag == -2) {
+                exitflag = -2;
+                log.info("Reached time budget of {} ms", options.maxTime);
+                break;
+            }
+            if (optCond <= options.optTol) {
+                exitflag = 1;
+                log.info("Optimality Condition below optTol");
+                break;
+            }
+            if (f_old - f <= options.progTol * Math.abs(f)) {
+                exitflag = 2;
+                log.info("Function Value changing by less than progTol");
+                break;
+            }
+        }
+        MinFuncResult minFuncResult = new MinFuncResult();
+        minFuncResult.x = x;
+        minFuncResult.f = f;
+        minFuncResult.iterations = iterations;
+        minFuncResult.funEvals = funEvals;
+        minFuncResult.exitflag = exitflag;
+        return minFuncResult;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.cidre.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs several {@link Cidre} jobs concurrently.  Jobs are admitted in
+ * submission order once both a worker slot and enough of the memory budget
+ * are free to cover the job's estimated footprint
+ * (see {@link Cidre#estimateMemoryFootprint()}).  A job whose estimate
+ * exceeds the whole budget is run on its own.
+ */
+public class JobScheduler {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(JobScheduler.class);
+
+    private final long maxMemory;
+
+    private final int maxJobs;
+
+    private long reservedMemory = 0;
+
+    public JobScheduler(long maxMemory, int maxJobs) {
+        this.maxMemory = maxMemory;
+        this.maxJobs = Math.max(1, maxJobs);
+    }
+
+    /**
+     * Default memory budget: 80% of the maximum heap of this JVM.
+     */
+    public static long defaultMaxMemory() {
+        return (long) (0.8 * Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * Threads each job may use when <code>jobs</code> jobs are run at most
+     * <code>maxJobs</code> at a time, so that the concurrent jobs together
+     * use no more threads than there are processors.
+     */
+    public static int threadsPerJob(int maxJobs, int jobs) {
+        return JobScheduler.threadsPerJob(
+            Runtime.getRuntime().availableProcessors(), maxJobs, jobs);
+    }
+
+    static int threadsPerJob(int processors, int maxJobs, int jobs) {
+        int concurrent = Math.max(1, Math.min(maxJobs, jobs));
+        return Math.max(1, processors / concurrent);
+    }
+
+    public long getMaxMemory() {
+        return this.maxMemory;
+    }
+
+    public int getMaxJobs() {
+        return this.maxJobs;
+    }
+
+    /**
+     * Executes all jobs, blocking until every admitted job has finished.
+     * Failures do not stop the remaining jobs; the first failure is
+     * re-thrown once all jobs are done.
+     */
+    public void run(List<Cidre> jobs) throws Exception {
+        log.info("Scheduling {} jobs, max concurrent jobs: {}, "
+                 + "memory budget: {} MB",
+                 jobs.size(), this.maxJobs, this.maxMemory >> 20);
+        ExecutorService executor = Executors.newFixedThreadPool(this.maxJobs);
+        Semaphore slots = new Semaphore(this.maxJobs);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        Exception firstError = null;
+        try {
+            for (final Cidre job : jobs) {
+                // the estimate opens the input files, which the job then
+                // reuses; only open them once the job has a worker slot
+                slots.acquire();
+                long estimate;
+                try {
+                    estimate = job.estimateMemoryFootprint();
+                } catch (Exception e) {
+                    log.error("Could not estimate memory footprint of {}",
+                              job.getInput(), e);
+                    if (firstError == null) {
+                        firstError = e;
+                    }
+                    job.close();
+                    slots.release();
+                    continue;
+                }
+                final long reservation = Math.min(estimate, this.maxMemory);
+                this.reserve(reservation);
+                log.info("Admitting {}, estimated footprint: {} MB, "
+                         + "reserved: {} / {} MB",
+                         job.getInput(), estimate >> 20,
+                         this.getReservedMemory() >> 20,
+                         this.maxMemory >> 20);
+                futures.add(executor.submit(() -> {
+                    try {
+                        job.execute();
+                    } finally {
+                        this.release(reservation);
+                        slots.release();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("Job failed", e.getCause());
+                    if (firstError == null) {
+                        firstError = e.getCause() instanceof Exception ?
+                            (Exception) e.getCause() : e;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (firstError != null) {
+            throw firstError;
+        }
+    }
+
+    private synchronized void reserve(long bytes)
+            throws InterruptedException
+    {
+        // Always admit a job when nothing else is running, even if its
+        // estimate alone does not fit the budget
+        while (this.reservedMemory > 0
+               && this.reservedMemory + bytes > this.maxMemory)
+        {
+            this.wait();
+        }
+        this.reservedMemory += bytes;
+    }
+
+    private synchronized void release(long bytes) {
+        this.reservedMemory -= bytes;
+        this.notifyAll();
+    }
+
+    private synchronized long getReservedMemory() {
+        return this.reservedMemory;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import com.cidre.algorithms.OptimiserProgress;
+
+/**
+ * Streams the optimiser progress as one JSON object per line.
+ */
+public class JsonLinesProgressWriter implements OptimiserListener, Closeable {
+
+    private final PrintWriter writer;
+
+    private final boolean closeStream;
+
+    /**
+     * @param fileName output file or <code>-</code> for standard output
+     */
+    public JsonLinesProgressWriter(String fileName) throws IOException {
+        this(fileName.equals("-") ? System.out :
+             new FileOutputStream(fileName), !fileName.equals("-"));
+    }
+
+    public JsonLinesProgressWriter(OutputStream stream, boolean closeStream) {
+        this.writer = new PrintWriter(new OutputStreamWriter(
+            stream, StandardCharsets.UTF_8));
+        this.closeStream = closeStream;
+    }
+
+    @Override
+    public synchronized boolean iteration(OptimiserProgress progress) {
+        this.writer.println(String.format(
+            Locale.ROOT,
+            "{\"input\": %s, \"channel\": %d, \"stage\": %d, "
+            + "\"lambdaVreg\": %s, \"lambdaZero\": %s, "
+            + "\"iteration\": %d, \"f\": %s, \"gradientNorm\": %s, "
+            + "\"t\": %s, \"funEvals\": %d, \"elapsedMs\": %.3f}",
+            JsonLinesProgressWriter.quote(progress.input), progress.channel,
+            progress.stage, JsonLinesProgressWriter.number(progress.lambdaVreg),
+            JsonLinesProgressWriter.number(progress.lambdaZero),
+            progress.iteration, JsonLinesProgressWriter.number(progress.f),
+            JsonLinesProgressWriter.number(progress.gradientNorm),
+            JsonLinesProgressWriter.number(progress.t), progress.funEvals,
+            progress.elapsed));
+        this.writer.flush();
+        return true;
+    }
+
+    private static String number(double value) {
+        // JSON has no representation of NaN and infinities
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "null";
+        }
+        return Double.toString(value);
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.closeStream) {
+            this.writer.close();
+        } else {
+            this.writer.flush();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.util.Arrays;
+
+import com.cidre.algorithms.LineFunction;
+import com.cidre.algorithms.ObjectiveResult;
+import com.cidre.core.ModelGenerator.Mestimator;
+
+/**
+ * {@link ModelGenerator#cdr_objective} restricted to the line x + t * d
+ * through the current iterate along a search direction.  The LoG filters,
+ * the zero-light residuals and the least squares residuals are linear in
+ * x, so their responses to the direction are computed once per direction
+ * and a trial step only combines them; only the CAUCHY fitting term is
+ * re-evaluated on the stack.  The responses at the iterate are carried
+ * over from the accepted step of the previous direction.
+ */
+class LineObjective implements LineFunction {
+
+    private final ModelGenerator generator;
+    private final CdrObjective objective;
+    private final int n;
+    private final double[][][] h;
+
+    // the iterate and its LoG responses and vreg gradient
+    private final double[] x;
+    private double[][] v_LoG;
+    private double[] G_V_vreg;
+
+    // the direction and its LoG responses and vreg gradient
+    private double[] d;
+    private double[][] d_LoG;
+    private double[] G_D_vreg;
+    // vreg energy along the line, E0 + 2 t E1 + t^2 E2
+    private double E0_vreg;
+    private double E1_vreg;
+    private double E2_vreg;
+
+    // LS fitting term at the iterate, and the moments of Q
+    private double[] energy_fit;
+    private double[] deriv_v_fit;
+    private double[] deriv_b_fit;
+    private double sumQ;
+    private double sumQ2;
+
+    LineObjective(
+            ModelGenerator generator, CdrObjective objective, double[] x)
+    {
+        this.generator = generator;
+        this.objective = objective;
+        this.x = x.clone();
+        this.n = (x.length - 2) / 2;
+        this.h = objective.TERM == 1 ?
+            generator.logKernels() : new double[0][][];
+        this.v_LoG = generator.vregResponses(
+            Arrays.copyOf(x, this.n), this.h);
+        this.G_V_vreg = generator.vregGradient(this.v_LoG, this.h);
+        for (int z = 0; z < objective.Q.length; z++) {
+            this.sumQ += objective.Q[z];
+            this.sumQ2 += objective.Q[z] * objective.Q[z];
+        }
+    }
+
+    @Override
+    public void setDirection(double[] d)
+    {
+        CdrObjective o = this.objective;
+        this.d = d;
+        this.d_LoG = this.generator.vregResponses(
+            Arrays.copyOf(d, this.n), this.h);
+        this.G_D_vreg = this.generator.vregGradient(this.d_LoG, this.h);
+        this.E0_vreg = 0;
+        this.E1_vreg = 0;
+        this.E2_vreg = 0;
+        for (int i = 0; i < this.h.length; i++) {
+            for (int c = 0; c < this.n; c++) {
+                this.E0_vreg += this.v_LoG[i][c] * this.v_LoG[i][c];
+                this.E1_vreg += this.v_LoG[i][c] * this.d_LoG[i][c];
+                this.E2_vreg += this.d_LoG[i][c] * this.d_LoG[i][c];
+            }
+        }
+        if (o.method == Mestimator.LS) {
+            this.energy_fit = new double[this.n];
+            this.deriv_v_fit = new double[this.n];
+            this.deriv_b_fit = new double[this.n];
+            this.generator.fitTerm(
+                o.stack, Arrays.copyOfRange(this.x, 0, this.n),
+                Arrays.copyOfRange(this.x, this.n, 2 * this.n),
+                o.method, o.cauchy_w, o.Q, o.weights, this.energy_fit,
+                this.deriv_v_fit, this.deriv_b_fit);
+        }
+    }
+
+    @Override
+    public ObjectiveResult evaluate(double t)
+    {
+        this.generator.profiler.getMetrics().increment(
+            MetricsRegistry.OBJECTIVE_EVALUATIONS);
+        CdrObjective o = this.objective;
+        int n = this.n;
+        double[] x2 = new double[this.x.length];
+        for (int j = 0; j < x2.length; j++) {
+            x2[j] = this.x[j] + t * this.d[j];
+        }
+
+        double[] energy = new double[n];
+        double[] G_V_fit = new double[n];
+        double[] G_B_fit = new double[n];
+        if (o.method == Mestimator.LS) {
+            // the residuals Q v + b - q move by Q dv + db
+            Majoriser weights = o.weights;
+            double depth = o.Q.length;
+            for (int i = 0; i < n; i++) {
+                double dv = this.d[i];
+                double db = this.d[n + i];
+                double sQ;
+                double s1;
+                if (weights == null) {
+                    sQ = dv * this.sumQ2 + db * this.sumQ;
+                    s1 = dv * this.sumQ + db * depth;
+                } else {
+                    sQ = dv * weights.wQ2[i] + db * weights.wQ[i];
+                    s1 = dv * weights.wQ[i] + db * weights.w[i];
+                }
+                double e1 = dv * this.deriv_v_fit[i]
+                          + db * this.deriv_b_fit[i];
+                double e2 = dv * sQ + db * s1;
+                if (weights == null) {
+                    energy[i] = this.energy_fit[i]
+                              + t * (2 * e1 + t * e2);
+                } else {
+                    energy[i] = this.energy_fit[i]
+                              + t * (e1 + t * e2 / 2);
+                }
+                G_V_fit[i] = this.deriv_v_fit[i] + t * sQ;
+                G_B_fit[i] = this.deriv_b_fit[i] + t * s1;
+            }
+        } else {
+            this.generator.fitTerm(
+                o.stack, Arrays.copyOfRange(x2, 0, n),
+                Arrays.copyOfRange(x2, n, 2 * n), o.method,
+                o.cauchy_w, o.Q, o.weights, energy, G_V_fit, G_B_fit);
+        }
+        double E_fit = this.generator.normaliseFitTerm(
+            o.Q.length, energy, G_V_fit, G_B_fit);
+
+        double E_vreg = 0;
+        double[] G_V_vreg = new double[n];
+        if (o.TERM == 1) {
+            E_vreg = this.E0_vreg
+                   + t * (2 * this.E1_vreg + t * this.E2_vreg);
+            for (int c = 0; c < n; c++) {
+                G_V_vreg[c] = this.G_V_vreg[c] + t * this.G_D_vreg[c];
+            }
+        }
+        return this.generator.combineTerms(
+            x2, o.pivotShiftX, o.pivotShiftY, o.TERM, o.lambdaVreg,
+            o.lambdaZero, E_fit, G_V_fit, G_B_fit, E_vreg, G_V_vreg);
+    }
+
+    @Override
+    public void advance(double t)
+    {
+        for (int j = 0; j < this.x.length; j++) {
+            this.x[j] += t * this.d[j];
+        }
+        for (int i = 0; i < this.h.length; i++) {
+            for (int c = 0; c < this.n; c++) {
+                this.v_LoG[i][c] += t * this.d_LoG[i][c];
+            }
+        }
+        for (int c = 0; c < this.n; c++) {
+            this.G_V_vreg[c] += t * this.G_D_vreg[c];
+        }
+    }
+}
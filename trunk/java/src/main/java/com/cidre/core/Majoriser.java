@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.util.Arrays;
+
+/**
+ * Weighted least squares majoriser of the CAUCHY fitting term at
+ * (v0, b0).  With the residuals r = Q v0 + b0 - q and the weights
+ * w = 1 / (1 + r^2 / c^2), each location contributes
+ * sum(w (r + Q dv + db)^2) / 2 plus a constant making it touch the
+ * CAUCHY term at (v0, b0).  Only the per location moments of w, Q and
+ * r are kept, so the majoriser is evaluated without the stack.
+ */
+class Majoriser {
+
+    private final int n;
+    private final double[] x0;
+    private final double cauchy_w;
+    private final double[] v0;
+    private final double[] b0;
+    // sum(rho(r) - w r^2 / 2), sum(w), sum(w Q), sum(w Q^2), sum(w r),
+    // sum(w r Q) and sum(w r^2) / 2 of every location
+    private final double[] constant;
+    final double[] w;
+    final double[] wQ;
+    final double[] wQ2;
+    private final double[] wr;
+    private final double[] wrQ;
+    private final double[] wr2;
+
+    Majoriser(
+            PivotedStack stack, double[] Q, double[] x, double cauchy_w)
+    {
+        int depth = Q.length;
+        this.n = stack.size();
+        this.x0 = x.clone();
+        this.cauchy_w = cauchy_w;
+        this.v0 = Arrays.copyOfRange(x, 0, this.n);
+        this.b0 = Arrays.copyOfRange(x, this.n, 2 * this.n);
+        this.constant = new double[this.n];
+        this.w = new double[this.n];
+        this.wQ = new double[this.n];
+        this.wQ2 = new double[this.n];
+        this.wr = new double[this.n];
+        this.wrQ = new double[this.n];
+        this.wr2 = new double[this.n];
+        double w2 = cauchy_w * cauchy_w;
+        for (int i = 0; i < this.n; i++) {
+            for (int z = 0; z < depth; z++) {
+                double r = Q[z] * this.v0[i] + this.b0[i]
+                         - stack.get(i, z);
+                double weight = 1.0 / (1.0 + (r * r) / w2);
+                this.constant[i] += w2 * Math.log(1 + (r * r) / w2)
+                                  / 2.0 - weight * r * r / 2.0;
+                this.w[i] += weight;
+                this.wQ[i] += weight * Q[z];
+                this.wQ2[i] += weight * Q[z] * Q[z];
+                this.wr[i] += weight * r;
+                this.wrQ[i] += weight * r * Q[z];
+                this.wr2[i] += weight * r * r / 2.0;
+            }
+        }
+    }
+
+    /**
+     * The majoriser of the CAUCHY term of another stack at the same
+     * (v0, b0); the weights of every plane only depend on its own
+     * residuals, so on a subset of the planes these are the weights
+     * of the subset.
+     */
+    Majoriser of(PivotedStack stack, double[] Q)
+    {
+        return new Majoriser(stack, Q, this.x0, this.cauchy_w);
+    }
+
+    /**
+     * Per location energy and derivatives wrt v and b at (v, b).
+     */
+    void fitTerm(
+            double[] v_vec, double[] b_vec, double[] energy_fit,
+            double[] deriv_v_fit, double[] deriv_b_fit)
+    {
+        for (int i = 0; i < this.n; i++) {
+            double dv = v_vec[i] - this.v0[i];
+            double db = b_vec[i] - this.b0[i];
+            deriv_v_fit[i] = this.wrQ[i] + dv * this.wQ2[i]
+                           + db * this.wQ[i];
+            deriv_b_fit[i] = this.wr[i] + dv * this.wQ[i]
+                           + db * this.w[i];
+            energy_fit[i] = this.constant[i] + this.wr2[i]
+                          + dv * (this.wrQ[i] + dv * this.wQ2[i] / 2)
+                          + db * (this.wr[i] + db * this.w[i] / 2)
+                          + dv * db * this.wQ[i];
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe registry of counters and timers of CIDRE runs.  A registry
+ * may be shared by all runs of a long-running process (see
+ * {@link Cidre#setMetrics(MetricsRegistry)}) and exported as JSON at any
+ * time.  Timers also record the bytes allocated by the timing thread where
+ * the JVM supports it.
+ */
+public class MetricsRegistry {
+
+    public static final String OBJECTIVE_EVALUATIONS =
+        "optimiser.objectiveEvaluations";
+    public static final String LINE_SEARCH_TRIALS =
+        "optimiser.lineSearchTrials";
+    public static final String LBFGS_SKIPS = "optimiser.lbfgsSkips";
+    public static final String OPTIMISER_ITERATIONS =
+        "optimiser.iterations";
+    public static final String PLANES_DECODED = "io.planesDecoded";
+    public static final String BYTES_DECODED = "io.bytesDecoded";
+    public static final String DECODE = "io.decode";
+    public static final String PHASE_PREFIX = "phase.";
+
+    private static final ThreadMXBean threadBean =
+        ManagementFactory.getThreadMXBean();
+
+    private static final boolean allocationSupported =
+        threadBean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threadBean)
+            .isThreadAllocatedMemorySupported();
+
+    /**
+     * Accumulated measurements of a timer.
+     */
+    public static class Timer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+
+        public void record(long nanos, long allocated) {
+            this.count.incrementAndGet();
+            this.totalTime.addAndGet(nanos);
+            this.allocatedBytes.addAndGet(allocated);
+            long max;
+            do {
+                max = this.maxTime.get();
+            } while (nanos > max && !this.maxTime.compareAndSet(max, nanos));
+        }
+
+        public long getCount() {
+            return this.count.get();
+        }
+
+        /** total time in nanoseconds */
+        public long getTotalTime() {
+            return this.totalTime.get();
+        }
+
+        /** longest single measurement in nanoseconds */
+        public long getMaxTime() {
+            return this.maxTime.get();
+        }
+
+        /** bytes allocated by the timing threads, 0 if unsupported */
+        public long getAllocatedBytes() {
+            return this.allocatedBytes.get();
+        }
+    }
+
+    /**
+     * A running measurement of a timer, recorded when closed.  Must be
+     * closed on the thread that started it.
+     */
+    public static class Context implements AutoCloseable {
+
+        private final Timer timer;
+
+        private final long start;
+
+        private final long startAllocated;
+
+        private Context(Timer timer) {
+            this.timer = timer;
+            this.startAllocated = MetricsRegistry.allocatedBytes();
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - this.start;
+            this.timer.record(
+                nanos, MetricsRegistry.allocatedBytes() - this.startAllocated);
+        }
+    }
+
+    private final Map<String, AtomicLong> counters =
+        new ConcurrentHashMap<String, AtomicLong>();
+
+    private final Map<String, Timer> timers =
+        new ConcurrentHashMap<String, Timer>();
+
+    private static long allocatedBytes() {
+        if (!allocationSupported) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) threadBean)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public void increment(String name) {
+        this.increment(name, 1);
+    }
+
+    public void increment(String name, long delta) {
+        AtomicLong counter = this.counters.get(name);
+        if (counter == null) {
+            this.counters.putIfAbsent(name, new AtomicLong());
+            counter = this.counters.get(name);
+        }
+        counter.addAndGet(delta);
+    }
+
+    public long getCounter(String name) {
+        AtomicLong counter = this.counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public Timer getTimer(String name) {
+        Timer timer = this.timers.get(name);
+        if (timer == null) {
+            this.timers.putIfAbsent(name, new Timer());
+            timer = this.timers.get(name);
+        }
+        return timer;
+    }
+
+    /**
+     * Starts a measurement of the named timer.  Use with
+     * try-with-resources.
+     */
+    public Context time(String name) {
+        return new Context(this.getTimer(name));
+    }
+
+    /**
+     * Clears all counters and timers.
+     */
+    public void reset() {
+        this.counters.clear();
+        this.timers.clear();
+    }
+
+    /**
+     * @return all counters and timers, and the decode throughput derived
+     * from them, as a JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+        String separator = "";
+        for (Map.Entry<String, AtomicLong> counter :
+                new TreeMap<String, AtomicLong>(this.counters).entrySet())
+        {
+            json.append(separator).append(String.format(
+                Locale.ROOT, "\n    \"%s\": %d",
+                counter.getKey(), counter.getValue().get()));
+            separator = ",";
+        }
+        json.append("\n  },\n  \"timers\": {");
+        separator = "";
+        for (Map.Entry<String, Timer> entry :
+                new TreeMap<String, Timer>(this.timers).entrySet())
+        {
+            Timer timer = entry.getValue();
+            json.append(separator).append(String.format(
+                Locale.ROOT,
+                "\n    \"%s\": {\"count\": %d, \"totalMs\": %.3f, "
+                + "\"maxMs\": %.3f, \"allocatedBytes\": %d}",
+                entry.getKey(), timer.getCount(),
+                timer.getTotalTime() / 1e6, timer.getMaxTime() / 1e6,
+                timer.getAllocatedBytes()));
+            separator = ",";
+        }
+        Timer decode = this.timers.get(DECODE);
+        double decodeSeconds =
+            decode == null ? 0.0 : decode.getTotalTime() / 1e9;
+        json.append(String.format(
+            Locale.ROOT,
+            "\n  },\n  \"rates\": {\n"
+            + "    \"io.planesDecodedPerSecond\": %.3f,\n"
+            + "    \"io.bytesDecodedPerSecond\": %.3f\n  }\n}\n",
+            decodeSeconds > 0 ?
+                this.getCounter(PLANES_DECODED) / decodeSeconds : 0.0,
+            decodeSeconds > 0 ?
+                this.getCounter(BYTES_DECODED) / decodeSeconds : 0.0));
+        return json.toString();
+    }
+
+    public void writeJson(File file) throws IOException {
+        Files.write(file.toPath(),
+                    this.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+}
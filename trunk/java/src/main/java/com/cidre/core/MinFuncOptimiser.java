@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import com.cidre.algorithms.MinFuncOptions;
+import com.cidre.algorithms.MinFuncResult;
+import com.cidre.algorithms.Objective;
+import com.cidre.algorithms.Optimiser;
+
+/**
+ * {@link ModelGenerator#minFunc} as an {@link Optimiser}.
+ */
+class MinFuncOptimiser implements Optimiser {
+
+    private final ModelGenerator generator;
+    private final MinFuncOptions minFuncOptions;
+    private final int stage;
+    private final double lambdaVreg;
+    private final double lambdaZero;
+    private final boolean checkpointing;
+
+    MinFuncOptimiser(
+            ModelGenerator generator, MinFuncOptions minFuncOptions,
+            int stage, double lambdaVreg, double lambdaZero,
+            boolean checkpointing)
+    {
+        this.generator = generator;
+        this.minFuncOptions = minFuncOptions;
+        this.stage = stage;
+        this.lambdaVreg = lambdaVreg;
+        this.lambdaZero = lambdaZero;
+        this.checkpointing = checkpointing;
+    }
+
+    @Override
+    public MinFuncResult minimise(Objective objective, double[] x0)
+    {
+        return this.generator.minFunc(
+            objective, x0, this.minFuncOptions, this.stage,
+            this.lambdaVreg, this.lambdaZero, this.checkpointing);
+    }
+}
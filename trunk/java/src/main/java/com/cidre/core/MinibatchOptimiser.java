@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cidre.algorithms.BatchObjective;
+import com.cidre.algorithms.MinFuncOptions;
+import com.cidre.algorithms.MinFuncResult;
+import com.cidre.algorithms.Objective;
+import com.cidre.algorithms.ObjectiveResult;
+import com.cidre.algorithms.Optimiser;
+import com.cidre.io.Checkpoint;
+
+/**
+ * Minibatch phase for a {@link BatchObjective} with many slices,
+ * followed by the optimiser of {@link Options#optimiser} on the whole
+ * data.  The slices are dealt into interleaved batches of about
+ * <code>batchSize</code>, each spanning the range of the quantiles,
+ * which are visited in turn.  Every batch takes a preconditioned
+ * gradient step with a backtracking line search on the batch
+ * objective.  The variance of the batch gradients over an epoch, a
+ * visit of all batches, controls the step size: steps are shrunk by
+ * the signal to noise ratio of the epoch, and the minibatch phase
+ * ends once the variance exceeds the squared norm of the mean
+ * gradient, where batch steps stop making reliable progress.  The
+ * minibatch phase is neither reported to the listeners nor
+ * checkpointed, and is skipped when resuming within the stage.
+ */
+class MinibatchOptimiser implements Optimiser {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(MinibatchOptimiser.class);
+
+    private static final int MAX_EPOCHS = 10;
+    // halvings of the step of the line search on a batch
+    private static final int MAX_BACKTRACKS = 10;
+
+    private final ModelGenerator generator;
+    private final MinFuncOptions minFuncOptions;
+    private final int batchSize;
+    private final int stage;
+    private final double lambdaVreg;
+    private final double lambdaZero;
+    private final boolean checkpointing;
+
+    MinibatchOptimiser(
+            ModelGenerator generator, MinFuncOptions minFuncOptions,
+            int batchSize, int stage, double lambdaVreg, double lambdaZero,
+            boolean checkpointing)
+    {
+        this.generator = generator;
+        this.minFuncOptions = minFuncOptions;
+        this.batchSize = batchSize;
+        this.stage = stage;
+        this.lambdaVreg = lambdaVreg;
+        this.lambdaZero = lambdaZero;
+        this.checkpointing = checkpointing;
+    }
+
+    @Override
+    public MinFuncResult minimise(Objective objective, double[] x0)
+    {
+        MinFuncOptions options = this.minFuncOptions;
+        int batches = 0;
+        if (objective instanceof BatchObjective) {
+            batches = ((BatchObjective) objective).size()
+                    / this.batchSize;
+        }
+        Checkpoint resume = this.generator.resumeState;
+        if (batches < 2 || (this.checkpointing && resume != null
+                            && resume.stage == this.stage))
+        {
+            return this.generator.createSolver(
+                options, this.stage, this.lambdaVreg, this.lambdaZero,
+                this.checkpointing).minimise(objective, x0);
+        }
+        log.info("Running minibatch minimization, {} batches",
+                 batches);
+        long startTime = System.nanoTime();
+        BatchObjective sampled = (BatchObjective) objective;
+        int size = sampled.size();
+        Objective[] subsets = new Objective[batches];
+        for (int k = 0; k < batches; k++) {
+            int[] slices = new int[(size - k + batches - 1) / batches];
+            for (int i = 0; i < slices.length; i++) {
+                slices[i] = k + i * batches;
+            }
+            subsets[k] = sampled.subset(slices);
+        }
+
+        double[] x = x0.clone();
+        int p = x.length;
+        double snr = 1.0;
+        double t = 1.0;
+        int batchEvals = 0;
+        for (int epoch = 0; epoch < MAX_EPOCHS; epoch++) {
+            double[] Hinv = objective.inverseHessianDiagonal(x);
+            double[] sumG = new double[p];
+            double sumG2 = 0.0;
+            double sumE = 0.0;
+            for (int k = 0; k < batches; k++) {
+                ObjectiveResult result = subsets[k].evaluate(x);
+                batchEvals++;
+                double[] g = result.G;
+                double[] d = new double[p];
+                double gtd = 0.0;
+                for (int j = 0; j < p; j++) {
+                    sumG[j] += g[j];
+                    sumG2 += g[j] * g[j];
+                    d[j] = -g[j] * (Hinv == null ? 1.0 : Hinv[j]);
+                    gtd += g[j] * d[j];
+                }
+                sumE += result.E;
+                if (!(gtd < 0)) {
+                    continue;
+                }
+                if (Hinv == null && epoch == 0 && k == 0) {
+                    // as the first step of minFunc
+                    double sumAbsG = 0.0;
+                    for (int j = 0; j < p; j++) {
+                        sumAbsG += Math.abs(g[j]);
+                    }
+                    t = Math.min(1.0, 1.0 / sumAbsG);
+                }
+                // Armijo backtracking from twice the previous step
+                t = Math.min(2 * t, snr);
+                for (int i = 0; i < MAX_BACKTRACKS; i++) {
+                    double[] x2 = new double[p];
+                    for (int j = 0; j < p; j++) {
+                        x2[j] = x[j] + t * d[j];
+                    }
+                    double E = subsets[k].evaluate(x2).E;
+                    batchEvals++;
+                    if (E <= result.E + 1e-4 * t * gtd) {
+                        x = x2;
+                        break;
+                    }
+                    t /= 2;
+                }
+            }
+            double meanG2 = 0.0;
+            for (int j = 0; j < p; j++) {
+                meanG2 += (sumG[j] / batches) * (sumG[j] / batches);
+            }
+            double variance = sumG2 / batches - meanG2;
+            snr = meanG2 / (meanG2 + variance);
+            log.info("Minibatch epoch {}: f ~ {}, step {}, signal to "
+                     + "noise ratio {}", epoch, sumE / batches, t, snr);
+            if (snr < 0.5 || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (options.maxTime > 0 && System.nanoTime() - startTime
+                    >= options.maxTime * 1000000L)
+            {
+                break;
+            }
+        }
+
+        // the whole data, with the remaining budget
+        MinFuncOptions finish = options.copy();
+        if (options.maxTime > 0) {
+            long elapsed = (System.nanoTime() - startTime) / 1000000;
+            finish.maxTime = Math.max(1, options.maxTime - elapsed);
+        }
+        int funEvals = (int) Math.ceil((double) batchEvals / batches);
+        finish.MaxFunEvals = Math.max(1, options.MaxFunEvals - funEvals);
+        MinFuncResult minFuncResult = this.generator.createSolver(
+            finish, this.stage, this.lambdaVreg, this.lambdaZero,
+            this.checkpointing).minimise(objective, x);
+        minFuncResult.funEvals += funEvals;
+        return minFuncResult;
+    }
+}
@@ -27,4 +27,11 @@ public class ModelDescriptor {
     public double[] v_small;
     public double[] z_small;
 
+    /**
+     * the optimisation stopped before convergence (time budget or
+     * interrupt) and the surfaces are from the best iterate found; stops
+     * requested by an optimiser listener do not make a model partial
+     */
+    public boolean partial = false;
+
 }
@@ -15,23 +15,38 @@
 package com.cidre.core;
 
 import java.awt.Dimension;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cidre.algorithms.CidreMath;
+import com.cidre.algorithms.Diagnostics;
+import com.cidre.algorithms.Kernels;
 import com.cidre.algorithms.LbfgsAddResult;
+import com.cidre.algorithms.LineFunction;
 import com.cidre.algorithms.MinFuncOptions;
 import com.cidre.algorithms.MinFuncResult;
+import com.cidre.algorithms.Objective;
 import com.cidre.algorithms.ObjectiveResult;
+import com.cidre.algorithms.Optimiser;
+import com.cidre.algorithms.OptimiserProgress;
 import com.cidre.algorithms.WolfeLineSearchResult;
 import com.cidre.algorithms.ZLimitsResult;
-import com.cidre.io.BfImageWriter;
-
-import loci.formats.FormatTools;
+import com.cidre.io.ArtifactSink;
+import com.cidre.io.Checkpoint;
+import com.cidre.io.StackCache;
+import com.cidre.jfr.Jfr;
+import com.cidre.jfr.OptimiserIterationEvent;
 
 public class ModelGenerator {
 
@@ -43,7 +58,16 @@ public class ModelGenerator {
     private static final Logger log =
             LoggerFactory.getLogger(ModelGenerator.class);
 
-    private enum Mestimator { LS, CAUCHY };
+    enum Mestimator { LS, CAUCHY };
+
+    // the standard number of quantiles used for empirical parameter
+    // setting; the fitting term is scaled to this many quantiles
+    static final int N_STANDARD = 200;
+
+    // conjugate gradient iterations and squared relative residual of
+    // fastEstimate()
+    private static final int FAST_ITERATIONS = 100;
+    private static final double FAST_TOLERANCE = 1e-8;
 
     private Options options;
 
@@ -51,28 +75,377 @@ public class ModelGenerator {
 
     private ZLimitsResult zLimitsResult;
 
+    // shared, read-only state of a model build, set by prepare();
+    // package-private for the benchmarks in src/jmh
+    PivotedStack stack;
+
+    double[] Q;
+
+    double pivotShiftX;
+
+    double[] pivotShiftY;
+
+    private double mse;
+
+    /**
+     * an optimisation stage ran out of time or was interrupted; a stop
+     * requested by a listener is a regular result
+     */
+    private boolean stopped = false;
+
+    private MinFuncOptions minFuncOptions;
+
+    PhaseProfiler profiler = new PhaseProfiler();
+
+    private ArtifactSink artifacts = null;
+
+    private String artifactPrefix = "";
+
+    private File checkpointFile = null;
+
+    private long checkpointInterval;
+
+    private long lastCheckpoint;
+
+    private double[][] checkpointMinImage;
+
+    private String inputKey = null;
+
+    // optimiser state to continue from, taken by the next minFunc() call
+    Checkpoint resumeState = null;
+
+    private final List<OptimiserListener> listeners =
+        new CopyOnWriteArrayList<OptimiserListener>();
+
     public ModelGenerator(Options options)  {
         this.options = options;
     }
 
+    /**
+     * Adds a listener notified after every optimiser iteration.
+     */
+    public void addListener(OptimiserListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void setProfiler(PhaseProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Dumps the intermediates of {@link #generate(List)} (Q, pivot shifts,
+     * v, b and standard error maps after each stage) to the given sink.
+     * @param artifacts sink or <code>null</code> to disable
+     * @param prefix prefix of the artifact names, e.g. the channel
+     */
+    public void setArtifactSink(ArtifactSink artifacts, String prefix) {
+        this.artifacts = artifacts;
+        this.artifactPrefix = prefix;
+    }
+
+    /**
+     * Stores the state of {@link #generate(List)} at the start of each stage
+     * and at the given interval during the optimisation, so an interrupted
+     * build can be continued with {@link #resume(Checkpoint)}.
+     * @param file checkpoint file, overwritten every time
+     * @param interval minimum time between checkpoints in seconds
+     * @param minImage minimum image of the stack, stored with the checkpoint
+     */
+    public void setCheckpointing(
+            File file, double interval, double[][] minImage)
+    {
+        this.checkpointFile = file;
+        this.checkpointInterval = Math.round(interval * 1e9);
+        this.checkpointMinImage = minImage;
+    }
+
+    /**
+     * @param inputKey identity of the preprocessed stack the model is built
+     * from, e.g. {@link com.cidre.io.BfImageLoader#getStackKey(int)};
+     * stored with the checkpoints
+     */
+    public void setInputKey(String inputKey) {
+        this.inputKey = inputKey;
+    }
+
+    /**
+     * Whether the checkpoint was written by a build of the same input
+     * (see {@link #setInputKey(String)}) with the same parameters as this
+     * one.
+     */
+    public boolean canResume(Checkpoint checkpoint)
+    {
+        int width = this.options.workingSize.width;
+        int height = this.options.workingSize.height;
+        return this.getCheckpointKey().equals(checkpoint.inputKey)
+            && checkpoint.pivotShiftY.length == width * height;
+    }
+
+    /**
+     * Identity of the build a checkpoint belongs to: the input key and every
+     * option that changes the solution.
+     */
+    private String getCheckpointKey()
+    {
+        this.setDefaultOptions();
+        StringBuilder identity = new StringBuilder();
+        identity.append("input=").append(this.inputKey).append('\n');
+        identity.append("workingSize=")
+                .append(this.options.workingSize.width).append('x')
+                .append(this.options.workingSize.height).append('\n');
+        identity.append("numberOfQuantiles=")
+                .append(this.options.numberOfQuantiles).append('\n');
+        identity.append("lambdaVreg=")
+                .append(this.options.lambdaVreg).append('\n');
+        identity.append("lambdaZero=")
+                .append(this.options.lambdaZero).append('\n');
+        identity.append("maxLbgfsIterations=")
+                .append(this.options.maxLbgfsIterations).append('\n');
+        identity.append("optimiser=")
+                .append(this.options.optimiser).append('\n');
+        identity.append("float32=")
+                .append(this.options.float32).append('\n');
+        identity.append("precondition=")
+                .append(this.options.precondition).append('\n');
+        identity.append("minibatch=")
+                .append(this.options.minibatch).append('\n');
+        identity.append("quantilePyramid=")
+                .append(this.options.quantilePyramid).append('\n');
+        identity.append("fastStart=")
+                .append(this.options.fastStart).append('\n');
+        identity.append("sample=")
+                .append(this.options.planeSample).append('|')
+                .append(this.options.stratifiedSample).append('|')
+                .append(this.options.sampleSeed).append('\n');
+        return StackCache.digest(identity.toString());
+    }
+
+    /**
+     * Builds the model of a preprocessed stack.
+     * @param imageStack preprocessed stack, moved into the build and left
+     * empty, see {@link #prepare(List)}
+     */
     public ModelDescriptor generate(List<double[] []> imageStack)
     {
         log.info("Generating model");
-        // set default values for options that are not specified 
+        this.setDefaultOptions();
+        this.prepare(imageStack);
+        if (this.options.fastModel) {
+            try (PhaseProfiler.Measurement m =
+                    this.profiler.start(PhaseProfiler.DESCRIPTOR))
+            {
+                return this.buildDescriptor(this.fastEstimate());
+            }
+        }
+        if (this.checkpointFile != null) {
+            this.writeCheckpoint(this.createCheckpoint(1));
+        }
+        return this.optimise(1, null);
+    }
+
+    /**
+     * Continues a model build from a checkpoint written by
+     * {@link #generate(List)}; see {@link #canResume(Checkpoint)}.
+     */
+    public ModelDescriptor resume(Checkpoint checkpoint)
+    {
+        log.info("Resuming model generation at stage {}, iteration {}",
+                 checkpoint.stage, checkpoint.iteration);
+        this.setDefaultOptions();
+        this.stack = new PivotedStack(
+            this.options.workingSize.width, this.options.workingSize.height,
+            checkpoint.depth, checkpoint.stack, checkpoint.floatStack);
+        this.Q = checkpoint.Q;
+        this.pivotShiftX = checkpoint.pivotShiftX;
+        this.pivotShiftY = checkpoint.pivotShiftY;
+        this.zLimitsResult = new ZLimitsResult();
+        this.zLimitsResult.zmin = checkpoint.zmin;
+        this.zLimitsResult.zmax = checkpoint.zmax;
+        this.zLimitsResult.zx0 = checkpoint.zx0;
+        this.zLimitsResult.zy0 = checkpoint.zy0;
+        this.mse = checkpoint.mse;
+        this.initialiseMinFuncOptions();
+        if (checkpoint.iteration > 0) {
+            this.resumeState = checkpoint;
+        }
+        return this.optimise(checkpoint.stage, checkpoint.x);
+    }
+
+    /**
+     * Runs the optimisation from the given stage on the prepared state.
+     * @param stage 1 to start with the least squares fit, 2 to start with
+     * the robust fit from <code>x1</code>
+     * @param x1 starting point of the robust fit
+     */
+    private ModelDescriptor optimise(int stage, double[] x1)
+    {
+        double lambdaVreg = Math.pow(10, options.lambdaVreg);
+        double lambdaZero = Math.pow(10, options.lambdaZero);
+
+        log.info("Optimisation (may take few minutes) for parameters:"
+                 + " lambda_v: {}, lambda_z: {},"
+                 + " q_percent: {}, z_limits: [{}, {}]",
+                 options.lambdaVreg, options.lambdaZero, options.qPercent,
+                 this.zLimitsResult.zmin, this.zLimitsResult.zmax);
+        if (stage == 1) {
+            try (PhaseProfiler.Measurement m =
+                    this.profiler.start(PhaseProfiler.STAGE_1))
+            {
+                x1 = this.fitLeastSquares();
+            }
+            this.writeStageArtifacts("stage1", x1);
+            if (this.checkpointFile != null) {
+                Checkpoint checkpoint = this.createCheckpoint(2);
+                checkpoint.x = x1;
+                this.writeCheckpoint(checkpoint);
+            }
+        }
+
+        log.info("Mse: {}, mean(x1): {}", this.mse, CidreMath.mean(x1));
+        MinFuncResult minFuncResult;
+        try (PhaseProfiler.Measurement m =
+                this.profiler.start(PhaseProfiler.STAGE_2))
+        {
+            minFuncResult = this.fitRobust(x1, lambdaVreg, lambdaZero);
+        }
+        double[] x = minFuncResult.x;
+        double fval = minFuncResult.f;
+        this.writeStageArtifacts("stage2", x);
+
+        log.info("2nd Optimisation result fVal = {}; mean(x) = {}; "
+                 + "exitflag = {}",
+                 fval, CidreMath.mean(x), minFuncResult.exitflag);
+        this.stopped |= ModelGenerator.truncated(minFuncResult);
+        try (PhaseProfiler.Measurement m =
+                this.profiler.start(PhaseProfiler.DESCRIPTOR))
+        {
+            ModelDescriptor descriptor = this.buildDescriptor(x);
+            descriptor.partial = this.stopped;
+            return descriptor;
+        }
+    }
+
+    /**
+     * Runs the optimisation for every combination of the given
+     * <code>lambdaVreg</code> and <code>lambdaZero</code> values (log10
+     * scale, as in {@link Options}) on a single preprocessed stack.
+     * The stack, Q and the least squares fit, which does not depend on the
+     * regularisation weights, are computed once and shared read-only.
+     * One task per <code>lambdaZero</code> value runs concurrently, walking
+     * the <code>lambdaVreg</code> values in ascending order and warm-starting
+     * each setting from the solution of its predecessor.
+     * @param imageStack preprocessed stack, moved into the build and left
+     * empty, see {@link #prepare(List)}
+     * @param lambdaVregs lambdaVreg values to try
+     * @param lambdaZeros lambdaZero values to try
+     * @param threads maximum number of concurrent optimisations
+     * @return one result per setting, ordered by lambdaZero then lambdaVreg
+     */
+    public List<SweepResult> sweep(
+            List<double[] []> imageStack, List<Double> lambdaVregs,
+            List<Double> lambdaZeros, int threads) throws Exception
+    {
+        log.info("Sweeping {} lambdaVreg x {} lambdaZero settings",
+                 lambdaVregs.size(), lambdaZeros.size());
+        this.setDefaultOptions();
+        this.prepare(imageStack);
+        long start = System.nanoTime();
+        final double[] x1;
+        try (PhaseProfiler.Measurement m =
+                this.profiler.start(PhaseProfiler.STAGE_1))
+        {
+            x1 = this.fitLeastSquares();
+        }
+        log.info("Shared least squares fit done in {} ms, mse: {}",
+                 (System.nanoTime() - start) / 1000000, this.mse);
+
+        final List<Double> sortedVregs = new ArrayList<Double>(lambdaVregs);
+        Collections.sort(sortedVregs);
+        PhaseProfiler.Measurement measurement =
+            this.profiler.start(PhaseProfiler.STAGE_2);
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(threads, lambdaZeros.size())));
+        List<Future<List<SweepResult>>> futures =
+            new ArrayList<Future<List<SweepResult>>>();
+        try {
+            for (final Double lambdaZero : lambdaZeros) {
+                futures.add(executor.submit(() -> {
+                    List<SweepResult> row = new ArrayList<SweepResult>();
+                    double[] x0 = x1;
+                    for (Double lambdaVreg : sortedVregs) {
+                        long t0 = System.nanoTime();
+                        MinFuncResult result = this.fitRobust(
+                            x0, Math.pow(10, lambdaVreg),
+                            Math.pow(10, lambdaZero));
+                        SweepResult sweepResult = new SweepResult();
+                        sweepResult.lambdaVreg = lambdaVreg;
+                        sweepResult.lambdaZero = lambdaZero;
+                        sweepResult.energy = result.f;
+                        sweepResult.iterations = result.iterations;
+                        sweepResult.funEvals = result.funEvals;
+                        sweepResult.runtime =
+                            (System.nanoTime() - t0) / 1000000;
+                        sweepResult.warmStarted = x0 != x1;
+                        log.info("Sweep lambdaVreg: {}, lambdaZero: {}, "
+                                 + "energy: {}, iterations: {}, "
+                                 + "funEvals: {}, runtime: {} ms",
+                                 lambdaVreg, lambdaZero, result.f,
+                                 result.iterations, result.funEvals,
+                                 sweepResult.runtime);
+                        row.add(sweepResult);
+                        x0 = result.x;
+                    }
+                    return row;
+                }));
+            }
+            List<SweepResult> results = new ArrayList<SweepResult>();
+            for (Future<List<SweepResult>> future : futures) {
+                results.addAll(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+            measurement.close();
+        }
+    }
+
+    /**
+     * Whether an optimisation ran out of time or was interrupted, leaving
+     * the model partial.
+     */
+    private static boolean truncated(MinFuncResult result) {
+        return result.exitflag == -2 || result.exitflag == -3;
+    }
+
+    void setDefaultOptions() {
+        // set default values for options that are not specified
         if (this.options.qPercent == null) {
-            this.options.qPercent = 0.25; 
+            this.options.qPercent = 0.25;
         }
         if (this.options.lambdaZero == null) {
-            this.options.lambdaZero = 0.5;
+            this.options.lambdaZero = Options.DEFAULT_LAMBDA_ZERO;
         }
         if (this.options.maxLbgfsIterations == null) {
             this.options.maxLbgfsIterations = 500;
         }
+        if (this.options.maxFunEvals == null) {
+            this.options.maxFunEvals = 1000;
+        }
         if (this.options.lambdaVreg == null) {
-            this.options.lambdaVreg = 12.0; //this.getLambdaVfromN(
+            this.options.lambdaVreg = Options.DEFAULT_LAMBDA_VREG;
+            //this.getLambdaVfromN(
                 //this.options.numImagesProvided);
         }
+    }
 
+    /**
+     * Computes the z limits and Q and moves the stack to the pivot space.
+     * The planes are then moved out of the list, which is left empty, to
+     * the {@link PivotedStack} the build reads; in float32 mode that holds
+     * the only copy of the stack, in single precision.
+     */
+    void prepare(List<double[] []> imageStack)
+    {
         //get dimensions of the provided data stack, S
         int depth = imageStack.size();
         int width = this.options.workingSize.width;
@@ -88,16 +461,9 @@ public class ModelGenerator {
             }
         }
         log.info("StackMin: {}", stackMin);
-        double lambdaVreg = Math.pow(10, options.lambdaVreg);
-        double lambdaZero = Math.pow(10, options.lambdaZero);
-        // initial guesses for the correction surfaces
-        double[] v0 = new double[width * height];
-        double[] b0 = new double[width * height];
-        Arrays.fill(v0, 1.0);
-        Arrays.fill(b0, 1.0);
 
         this.zLimitsResult = this.getZLimits(this.options, stackMin);
-        
+
         log.info(
            "Generating model with paramters:\n" +
            "\tlambdaVreg:         {}\n" +
@@ -121,8 +487,13 @@ public class ModelGenerator {
            this.options.numberOfQuantiles);
 
         log.info("Estimating Q");
+        PhaseProfiler.Measurement measurement =
+            this.profiler.start(PhaseProfiler.Q);
         // get an estimate of Q, the underlying intensity distribution
         double[] Q = estimateQ(imageStack);
+        if (this.artifacts != null) {
+            this.artifacts.write(this.artifactPrefix + "Q", Q);
+        }
 
         log.info("Pivot space transforms");
         // Transform Q and S (which contains q) to the pivot space. The pivot
@@ -149,6 +520,146 @@ public class ModelGenerator {
                 }
             }
         }
+        this.Q = Q;
+        this.pivotShiftX = pivotShiftX;
+        this.pivotShiftY = pivotShiftY;
+        measurement.close();
+        if (this.artifacts != null) {
+            this.artifacts.write(
+                this.artifactPrefix + "pivotShiftX", pivotShiftX);
+            this.artifacts.write(
+                this.artifactPrefix + "pivotShiftY", pivotShiftY,
+                width, height);
+        }
+
+        this.stack = PivotedStack.pack(imageStack, this.options.float32);
+        this.initialiseMinFuncOptions();
+    }
+
+    private void initialiseMinFuncOptions()
+    {
+        this.minFuncOptions = new MinFuncOptions();
+        // max iterations for optimization
+        this.minFuncOptions.maxIter = options.maxLbgfsIterations;
+        // max evaluations of objective function
+        this.minFuncOptions.MaxFunEvals = options.maxFunEvals;
+        // wall-clock budget of each stage
+        if (options.stageTimeBudget != null) {
+            this.minFuncOptions.maxTime =
+                Math.round(options.stageTimeBudget * 1000);
+        }
+        // progress tolerance
+        this.minFuncOptions.progTol = 1e-5;
+        // optimality tolerance
+        this.minFuncOptions.optTol = 1e-5;
+        this.minFuncOptions.Corr = 100;
+    }
+
+    /**
+     * 1st optimisation: fitting term only, using LEAST SQUARES. Does not
+     * depend on the regularisation weights.  Also sets the mean standard
+     * error used as the width of the CAUCHY function.
+     * @return x1 = [v1(:); b1(:); zx1; zy1]
+     */
+    private double[] fitLeastSquares()
+    {
+        int width = this.options.workingSize.width;
+        int height = this.options.workingSize.height;
+        double[] x0 = this.options.fastStart ?
+            this.fastEstimate() : this.initialGuess();
+        CdrObjective objective = new CdrObjective(
+            this, this.stack, 0.0, this.pivotShiftX, this.pivotShiftY,
+            Mestimator.LS, this.Q, 0, 0.0, 0.0, null);
+        MinFuncResult minFuncResult =
+            this.createOptimiser(1, 0.0, 0.0).minimise(objective, x0);
+        double[] x  = minFuncResult.x;
+        double fval = minFuncResult.f;
+        log.info("1st Optimisation result: fVal = {}; x = {}; exitflag = {}",
+                 fval, CidreMath.mean(x), minFuncResult.exitflag);
+        this.stopped |= ModelGenerator.truncated(minFuncResult);
+        // unpack
+        double[] v1 = Arrays.copyOfRange(x, 0, width * height);
+        double[] b1 = Arrays.copyOfRange(
+            x, width * height, 2 * width * height);
+
+        // 2nd optimization using REGULARIZED ROBUST fitting
+        // use the mean standard error of the LS fitting
+        // to set the width of the CAUCHY function
+        this.mse = computeStandardError(this.stack, v1, b1, this.Q);
+        return x;
+    }
+
+    /**
+     * Creates a checkpoint of the prepared state at the start of the given
+     * stage; the caller fills in the optimiser state.
+     */
+    private Checkpoint createCheckpoint(int stage)
+    {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.inputKey = this.getCheckpointKey();
+        checkpoint.depth = this.stack.depth;
+        checkpoint.stack = this.stack.values;
+        checkpoint.floatStack = this.stack.floats;
+        checkpoint.minImage = this.checkpointMinImage;
+        checkpoint.bitDepth = this.options.bitDepth;
+        checkpoint.lambdaVreg = this.options.lambdaVreg;
+        checkpoint.lambdaZero = this.options.lambdaZero;
+        checkpoint.Q = this.Q;
+        checkpoint.pivotShiftX = this.pivotShiftX;
+        checkpoint.pivotShiftY = this.pivotShiftY;
+        checkpoint.zmin = this.zLimitsResult.zmin;
+        checkpoint.zmax = this.zLimitsResult.zmax;
+        checkpoint.zx0 = this.zLimitsResult.zx0;
+        checkpoint.zy0 = this.zLimitsResult.zy0;
+        checkpoint.stage = stage;
+        checkpoint.mse = this.mse;
+        return checkpoint;
+    }
+
+    private void writeCheckpoint(Checkpoint checkpoint)
+    {
+        checkpoint.write(this.checkpointFile);
+        this.lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Writes v, b (pivot space) and the per location standard error of the
+     * given solution to the artifact sink, if any.
+     * @param stage name of the optimisation stage
+     * @param x solution [v(:); b(:); zx; zy]
+     */
+    private void writeStageArtifacts(String stage, double[] x)
+    {
+        if (this.artifacts == null) {
+            return;
+        }
+        int width = this.options.workingSize.width;
+        int height = this.options.workingSize.height;
+        double[] v = Arrays.copyOfRange(x, 0, width * height);
+        double[] b = Arrays.copyOfRange(
+            x, width * height, 2 * width * height);
+        String prefix = this.artifactPrefix + stage + "_";
+        this.artifacts.write(prefix + "v", v, width, height);
+        this.artifacts.write(prefix + "b", b, width, height);
+        this.artifacts.write(
+            prefix + "standardError",
+            this.standardErrorMap(this.stack, v, b, this.Q),
+            width, height);
+    }
+
+    /**
+     * Initial values of the variables we want to estimate.
+     * @return x0 = [v0(:); b0(:); zx0; zy0]
+     */
+    double[] initialGuess()
+    {
+        int width = this.options.workingSize.width;
+        int height = this.options.workingSize.height;
+        // initial guesses for the correction surfaces
+        double[] v0 = new double[width * height];
+        double[] b0 = new double[width * height];
+        Arrays.fill(v0, 1.0);
+        Arrays.fill(b0, 1.0);
         // also, account for the pivot shift in b0
         //b0 = b0 + PivotShiftX*v0 - PivotShiftY;
         for (int x = 0; x < width; x++) {
@@ -159,13 +670,8 @@ public class ModelGenerator {
             }
         }
         log.debug("pivotX: {}, pivotY: {}, v0: {}, b0: {}",
-                  pivotShiftX, CidreMath.mean(pivotShiftY),
-                  CidreMath.mean(v0), CidreMath.mean(b0));
-        log.info("Optimisation (may take few minutes) for parameters:"
-                 + " lambda_v: {}, lambda_z: {},"
-                 + " q_percent: {}, z_limits: [{}, {}]",
-                 options.lambdaVreg, options.lambdaZero, options.qPercent,
-                 this.zLimitsResult.zmin, this.zLimitsResult.zmax);
+                  pivotShiftX, Diagnostics.mean(pivotShiftY),
+                  Diagnostics.mean(v0), Diagnostics.mean(b0));
         // vector containing initial values of the variables
         // we want to estimate
         // x0 = [v0(:); b0(:); zx0; zy0];
@@ -179,60 +685,218 @@ public class ModelGenerator {
         }
         x0[pX++] = this.zLimitsResult.zx0;
         x0[pX++] = this.zLimitsResult.zy0;
+        return x0;
+    }
 
-        MinFuncOptions minFuncOptions = new MinFuncOptions();
-        // max iterations for optimization
-        minFuncOptions.maxIter = options.maxLbgfsIterations;
-        // max evaluations of objective function
-        minFuncOptions.MaxFunEvals = 1000;
-        // progress tolerance
-        minFuncOptions.progTol = 1e-5;
-        // optimality tolerance
-        minFuncOptions.optTol = 1e-5;
-        minFuncOptions.Corr = 100;
-        MinFuncResult minFuncResult = this.minFunc(
-            imageStack, x0, minFuncOptions, 0.0,
-            pivotShiftX, pivotShiftY, Mestimator.LS,
-            Q, 0, lambdaVreg, lambdaZero);
-        double[] x  = minFuncResult.x;
-        double fval = minFuncResult.f;
-        log.info("1st Optimisation result: fVal = {}; x = {}",
-                 fval, CidreMath.mean(x));
-        // unpack
-        double[] v1 = Arrays.copyOfRange(x, 0, width * height);
-        double[] b1 = Arrays.copyOfRange(
-            x, width * height, 2 * width * height);
-        double zx1 = x[2 * width * height];
-        double zy1 = x[2 * width * height + 1];
+    /**
+     * A rough model computed without minFunc.  Every location is fitted
+     * against Q by least squares.  With b eliminated, the fitting term is
+     * then quadratic in v, and v is smoothed by solving for the minimum of
+     * its quadratic approximation around a zero residual, as in the
+     * CAUCHY term, plus the spatial regularisation term with conjugate
+     * gradients.  b is refitted to the smoothed v and the zero-light point
+     * is the initial one of the z limits; the zero-light and barrier terms
+     * are otherwise ignored.
+     * @return x = [v(:); b(:); zx; zy]
+     */
+    double[] fastEstimate()
+    {
+        int width = this.options.workingSize.width;
+        int height = this.options.workingSize.height;
+        int n = width * height;
+        int depth = this.stack.depth;
+        double meanQ = CidreMath.mean(this.Q);
+        double S_QQ = 0.0;
+        for (int z = 0; z < depth; z++) {
+            S_QQ += (this.Q[z] - meanQ) * (this.Q[z] - meanQ);
+        }
+        // per location least squares fit
+        double[] meanq = new double[n];
+        double[] sumQq = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int z = 0; z < depth; z++) {
+                double q = this.stack.get(i, z);
+                meanq[i] += q / depth;
+                sumQq[i] += (this.Q[z] - meanQ) * q;
+            }
+        }
+        double[] v_fit = new double[n];
+        for (int i = 0; i < n; i++) {
+            v_fit[i] = sumQq[i] / S_QQ;
+        }
+
+        // (D + lambdaVreg * vreg) v = D v_fit, with D the curvature of the
+        // normalised fitting term wrt v once b is eliminated
+        double D = ModelGenerator.dataSizeFactor(depth) * S_QQ;
+        double lambdaVreg = Math.pow(10, this.options.lambdaVreg);
+        double[][][] h = this.logKernels();
+        double[] v = v_fit.clone();
+        double[] r = this.vregGradient(this.vregResponses(v, h), h);
+        double rr = 0.0;
+        double bb = 0.0;
+        for (int i = 0; i < n; i++) {
+            r[i] *= -lambdaVreg;
+            rr += r[i] * r[i];
+            bb += D * v_fit[i] * D * v_fit[i];
+        }
+        double[] p = r.clone();
+        int k = 0;
+        for (; k < FAST_ITERATIONS && rr > FAST_TOLERANCE * bb; k++) {
+            double[] Ap = this.vregGradient(this.vregResponses(p, h), h);
+            double pAp = 0.0;
+            for (int i = 0; i < n; i++) {
+                Ap[i] = D * p[i] + lambdaVreg * Ap[i];
+                pAp += p[i] * Ap[i];
+            }
+            double alpha = rr / pAp;
+            double rr_new = 0.0;
+            for (int i = 0; i < n; i++) {
+                v[i] += alpha * p[i];
+                r[i] -= alpha * Ap[i];
+                rr_new += r[i] * r[i];
+            }
+            double beta = rr_new / rr;
+            for (int i = 0; i < n; i++) {
+                p[i] = r[i] + beta * p[i];
+            }
+            rr = rr_new;
+        }
+        log.info("Fast model: {} conjugate gradient iterations, relative "
+                 + "residual {}", k, Math.sqrt(rr / bb));
+
+        double[] x = new double[2 * n + 2];
+        for (int i = 0; i < n; i++) {
+            x[i] = v[i];
+            x[n + i] = meanq[i] - v[i] * meanQ;
+        }
+        x[2 * n] = this.zLimitsResult.zx0;
+        x[2 * n + 1] = this.zLimitsResult.zy0;
+        return x;
+    }
 
-        // 2nd optimization using REGULARIZED ROBUST fitting
-        // use the mean standard error of the LS fitting
-        // to set the width of the CAUCHY function
-        double mse = computeStandardError(imageStack, v1, b1, Q);
+    /**
+     * 2nd optimisation: all terms, using REGULARIZED ROBUST fitting.
+     * Only reads the shared state, so several settings may be optimised
+     * concurrently.
+     * @param x1 starting point, not modified
+     * @param lambdaVreg spatial regularisation weight (linear scale)
+     * @param lambdaZero zero-light regularisation weight (linear scale)
+     */
+    private MinFuncResult fitRobust(
+            double[] x1, double lambdaVreg, double lambdaZero)
+    {
+        CdrObjective objective = new CdrObjective(
+            this, this.stack, this.mse, this.pivotShiftX, this.pivotShiftY,
+            Mestimator.CAUCHY, this.Q, 1, lambdaVreg, lambdaZero, null);
+        return this.createOptimiser(2, lambdaVreg, lambdaZero).minimise(
+            objective, x1);
+    }
 
-        // vector containing initial values of the variables
-        // we want to estimate
-        double[] x1 = new double[2 * width * height + 2];
-
-        int pX1 = 0;
-        for (int i = 0; i < v1.length; i++)
-            x1[pX1++] = v1[i];
-        for (int i = 0; i < b1.length; i++)
-            x1[pX1++] = b1[i];
-        x1[pX1++] = zx1;
-        x1[pX1++] = zy1;
-
-        log.info("Mse: {}, mean(x1): {}", mse, CidreMath.mean(x1));
-        minFuncResult = this.minFunc(
-            imageStack, x1, minFuncOptions, mse,
-            pivotShiftX, pivotShiftY, Mestimator.CAUCHY,
-            Q, 1, lambdaVreg, lambdaZero);
-        x = minFuncResult.x;
-        fval = minFuncResult.f;
-
-        log.info("2nd Optimisation result fVal = {}; mean(x) = {}",
-                 fval, CidreMath.mean(x));
+    /**
+     * The optimiser of a stage, on a pyramid of quantile compressions when
+     * {@link Options#quantilePyramid} is set.
+     */
+    private Optimiser createOptimiser(
+            int stage, double lambdaVreg, double lambdaZero)
+    {
+        if (this.options.quantilePyramid) {
+            return new PyramidOptimiser(
+                this, this.minFuncOptions, stage, lambdaVreg, lambdaZero);
+        }
+        return this.createOptimiser(
+            this.minFuncOptions, stage, lambdaVreg, lambdaZero, true);
+    }
+
+    /**
+     * The optimiser of a stage on a single stack, preceded by a minibatch
+     * phase when {@link Options#minibatch} is set.
+     * @param checkpointing whether the stage is checkpointed and resumed
+     */
+    Optimiser createOptimiser(
+            MinFuncOptions minFuncOptions, int stage, double lambdaVreg,
+            double lambdaZero, boolean checkpointing)
+    {
+        if (this.options.minibatch != null && this.options.minibatch > 0) {
+            return new MinibatchOptimiser(
+                this, minFuncOptions, this.options.minibatch, stage,
+                lambdaVreg, lambdaZero, checkpointing);
+        }
+        return this.createSolver(
+            minFuncOptions, stage, lambdaVreg, lambdaZero, checkpointing);
+    }
+
+    /**
+     * The optimiser of a stage selected by {@link Options#optimiser}.
+     * IRLS and VARPRO only apply to the robust fit; the least squares fit
+     * then uses L-BFGS.
+     * @param checkpointing whether the stage is checkpointed and resumed
+     */
+    Optimiser createSolver(
+            MinFuncOptions minFuncOptions, int stage, double lambdaVreg,
+            double lambdaZero, boolean checkpointing)
+    {
+        switch (this.options.optimiser) {
+            case NCG:
+                MinFuncOptions cg = minFuncOptions.copy();
+                cg.cg = true;
+                return new MinFuncOptimiser(
+                    this, cg, stage, lambdaVreg, lambdaZero, checkpointing);
+            case IRLS:
+                if (stage == 2) {
+                    return new IrlsOptimiser(
+                        this, minFuncOptions, stage, lambdaVreg, lambdaZero);
+                }
+                return new MinFuncOptimiser(
+                    this, minFuncOptions, stage, lambdaVreg, lambdaZero,
+                    checkpointing);
+            case VARPRO:
+                if (stage == 2) {
+                    return new ProjectedOptimiser(
+                        this, minFuncOptions, stage, lambdaVreg, lambdaZero);
+                }
+                return new MinFuncOptimiser(
+                    this, minFuncOptions, stage, lambdaVreg, lambdaZero,
+                    checkpointing);
+            default:
+                return new MinFuncOptimiser(
+                    this, minFuncOptions, stage, lambdaVreg, lambdaZero,
+                    checkpointing);
+        }
+    }
 
+    /**
+     * Reports an iteration of the given stage to the listeners.
+     * @return whether all listeners let the optimisation proceed
+     */
+    boolean report(
+            int stage, double lambdaVreg, double lambdaZero, int iteration,
+            double f, double gradientNorm, double t, int funEvals,
+            long startTime)
+    {
+        if (stage == 0 || this.listeners.isEmpty()) {
+            return true;
+        }
+        OptimiserProgress progress = new OptimiserProgress();
+        progress.stage = stage;
+        progress.lambdaVreg = lambdaVreg;
+        progress.lambdaZero = lambdaZero;
+        progress.iteration = iteration;
+        progress.f = f;
+        progress.gradientNorm = gradientNorm;
+        progress.t = t;
+        progress.funEvals = funEvals;
+        progress.elapsed = (System.nanoTime() - startTime) / 1e6;
+        boolean proceed = true;
+        for (OptimiserListener listener : this.listeners) {
+            proceed &= listener.iteration(progress);
+        }
+        return proceed;
+    }
+
+    private ModelDescriptor buildDescriptor(double[] x)
+    {
+        int width = this.options.workingSize.width;
+        int height = this.options.workingSize.height;
         // unpack the optimized v surface, b surface,
         // xc, and yc from the vector x
         double[] v = Arrays.copyOfRange(x, 0, width * height);
@@ -392,34 +1056,33 @@ public class ModelGenerator {
             Q[z] = CidreMath.mean(doubleValues);
         }
         log.info("Q mean value: {}", CidreMath.mean(Q));
-        String fileName =
-            "/Users/emil/Documents/Data/HMS/output/details/Q.tif";
-        BfImageWriter writer = new BfImageWriter(
-                fileName, depth, 1,
-                FormatTools.getPixelTypeString(FormatTools.DOUBLE));
-        try {
-            writer.initialise();
-            writer.write(Q, 0);
-            writer.close();
-        } catch (Exception ex) {
-            log.error("Couldn't save Q", ex);
-        }
         return Q;
     }
 
-    private MinFuncResult minFunc(
-            List<double[] []> imageStack, double[] x0,
-            MinFuncOptions minFuncOptions, double cauchy_w,
-            double pivotShiftX, double[] pivotShiftY, Mestimator method,
-            double[] Q, int TERM, double lambdaVreg, double lambdaZero)
+    /**
+     * minFunc with L-BFGS or, with <code>minFuncOptions.cg</code>,
+     * nonlinear conjugate gradient directions.
+     * @param stage optimisation stage reported to the listeners and
+     * checkpointed, or 0 for neither
+     * @param lambdaVreg reported to the listeners
+     * @param lambdaZero reported to the listeners
+     * @param checkpointing whether the stage is checkpointed and resumed
+     */
+    MinFuncResult minFunc(
+            Objective objective, double[] x0, MinFuncOptions minFuncOptions,
+            int stage, double lambdaVreg, double lambdaZero,
+            boolean checkpointing)
     {
         log.info("Running minimization");
+        long startTime = System.nanoTime();
+        long deadline = minFuncOptions.maxTime > 0 ?
+            startTime + minFuncOptions.maxTime * 1000000L : 0;
         double[] x = null;
         double f = 0.0;
 
-        int maxFunEvals = 1000;
+        int maxFunEvals = minFuncOptions.MaxFunEvals;
         double c1 = 1e-4;
-        double c2 = 0.9;
+        double c2 = minFuncOptions.cg ? 0.2 : 0.9;
         int LS_interp = 2;
         int LS_multi = 0;
 
@@ -436,55 +1099,131 @@ public class ModelGenerator {
         int funEvalMultiplier = 1;
         int numDiffType = 0;
 
-        // Evaluate Initial Point
-        ObjectiveResult objectiveResult = this.cdr_objective(
-            imageStack, x, cauchy_w, pivotShiftX,
-            pivotShiftY, method, Q, TERM, lambdaVreg, lambdaZero);
-        f = objectiveResult.E;
-        double[] g = objectiveResult.G;
-        double[] g_old = new double[g.length];
-
         int computeHessian = 0;
-        int funEvals = 1;
-
-        // Compute optimality of initial point
-        double optCond = Double.MIN_VALUE;
-        for (int j = 0; j < g.length; j++)
-        {
-            double absValue = Math.abs(g[j]);
-            if (optCond < absValue)
-                optCond = absValue;
-        }
-
-        // Exit if initial point is optimal
-        if (optCond <= minFuncOptions.optTol)
-        {
-            exitflag=1;
-            log.info("Optimality Condition below optTol");
-            MinFuncResult minFuncResult = new MinFuncResult();
-            minFuncResult.x = x;
-            minFuncResult.f = f;
-            return minFuncResult;
-        }
+        double optCond;
+        double[] g;
+        double[] g_old;
+        int funEvals;
+        // best iterate so far, returned when stopped early
+        double[] xBest;
+        double fBest;
+        double[][] S;
+        double[][] Y;
+        double[] YS;
+        int lbfgs_start;
+        int lbfgs_end;
+        double Hdiag;
+        int firstIteration = 0;
+
+        Checkpoint resume = this.resumeState;
+        this.resumeState = null;
+        if (checkpointing && resume != null && resume.stage == stage) {
+            // Continue from the state at the start of an iteration
+            log.info("Resuming minimization at iteration {}",
+                     resume.iteration);
+            x = resume.x;
+            f = resume.f;
+            g = resume.g;
+            g_old = resume.gOld;
+            d = resume.d;
+            t = resume.t;
+            funEvals = resume.funEvals;
+            xBest = resume.xBest;
+            fBest = resume.fBest;
+            S = resume.S;
+            Y = resume.Y;
+            YS = resume.YS;
+            lbfgs_start = resume.lbfgsStart;
+            lbfgs_end = resume.lbfgsEnd;
+            Hdiag = resume.Hdiag;
+            firstIteration = resume.iteration;
+        } else {
+            // Evaluate Initial Point
+            ObjectiveResult objectiveResult = objective.evaluate(x);
+            f = objectiveResult.E;
+            g = objectiveResult.G;
+            g_old = new double[g.length];
+            funEvals = 1;
+
+            // Compute optimality of initial point
+            optCond = Double.MIN_VALUE;
+            for (int j = 0; j < g.length; j++)
+            {
+                double absValue = Math.abs(g[j]);
+                if (optCond < absValue)
+                    optCond = absValue;
+            }
 
-        double[][] S = new double[p][minFuncOptions.Corr];
-        double[][] Y = new double[p][minFuncOptions.Corr];
-        double[]  YS = new double[minFuncOptions.Corr];
-        int lbfgs_start = 0;
-        int lbfgs_end = 0;
-        double Hdiag = 1.0;
+            // Exit if initial point is optimal
+            if (optCond <= minFuncOptions.optTol)
+            {
+                exitflag=1;
+                log.info("Optimality Condition below optTol");
+                MinFuncResult minFuncResult = new MinFuncResult();
+                minFuncResult.x = x;
+                minFuncResult.f = f;
+                minFuncResult.funEvals = funEvals;
+                minFuncResult.exitflag = exitflag;
+                return minFuncResult;
+            }
+
+            xBest = x.clone();
+            fBest = f;
+            S = new double[minFuncOptions.Corr][p];
+            Y = new double[minFuncOptions.Corr][p];
+            YS = new double[minFuncOptions.Corr];
+            lbfgs_start = 0;
+            lbfgs_end = 0;
+            Hdiag = 1.0;
+        }
+        int iterations = firstIteration;
+        double[] Hinv = null;
+        LineFunction line = objective.line(x);
+        // objective before the previous step, for the initial CG step
+        double f_previous = Double.NaN;
 
         // Perform up to a maximum of 'maxIter' descent steps:
-        for (int i = 0; i < minFuncOptions.maxIter; i++)
+        for (int i = firstIteration; i < minFuncOptions.maxIter; i++)
         {
+            iterations = i + 1;
+            OptimiserIterationEvent event =
+                Jfr.ENABLED ? new OptimiserIterationEvent() : null;
+            if (event != null) {
+                event.begin();
+            }
+            if (this.options.precondition && !minFuncOptions.cg) {
+                Hinv = objective.inverseHessianDiagonal(x);
+            }
             // LBFGS
             if (i == 0)
             {
                 // Initially use steepest descent direction
                 for (int j = 0; j < g.length; j++) d[j] = -g[j];
+                if (Hinv != null) {
+                    for (int j = 0; j < g.length; j++) d[j] *= Hinv[j];
+                }
                 lbfgs_start = 0;
                 lbfgs_end = -1;
                 Hdiag = 1.0;
+            } else if (minFuncOptions.cg) {
+                // Hestenes-Stiefel update
+                double ggMg_old = 0.0;
+                double gMg_oldd = 0.0;
+                for (int j = 0; j < g.length; j++) {
+                    ggMg_old += g[j] * (g[j] - g_old[j]);
+                    gMg_oldd += (g[j] - g_old[j]) * d[j];
+                }
+                double beta = ggMg_old / gMg_oldd;
+                double gd = 0.0;
+                for (int j = 0; j < g.length; j++) {
+                    d[j] = -g[j] + beta * d[j];
+                    gd += g[j] * d[j];
+                }
+                // Restart if not a direction of sufficient descent
+                if (!(gd <= -minFuncOptions.progTol)) {
+                    log.debug("Restarting CG");
+                    for (int j = 0; j < g.length; j++) d[j] = -g[j];
+                }
             } else {
                 double[] gMg_old = new double[g.length];
                 for (int j = 0; j < g.length; j++) {
@@ -497,9 +1236,9 @@ public class ModelGenerator {
                 log.debug(
                     "lbfgsAdd input: start: {}, end: {}, Hdiag: {}, tPd: {}"
                     + " gMg_old: {}, YS: {}, S: {}, Y: {}",
-                    lbfgs_start, lbfgs_end, Hdiag, CidreMath.mean(tPd),
-                    CidreMath.mean(gMg_old), CidreMath.mean(YS),
-                    CidreMath.mean(S), CidreMath.mean(Y));
+                    lbfgs_start, lbfgs_end, Hdiag, Diagnostics.mean(tPd),
+                    Diagnostics.mean(gMg_old), Diagnostics.mean(YS),
+                    Diagnostics.mean(S), Diagnostics.mean(Y));
                 LbfgsAddResult lbfgsAddResult = this.lbfgsAdd(
                     gMg_old, tPd, S, Y, YS, lbfgs_start, lbfgs_end, Hdiag);
                 S = lbfgsAddResult.S;
@@ -509,15 +1248,27 @@ public class ModelGenerator {
                 lbfgs_end = lbfgsAddResult.lbfgs_end;
                 Hdiag = lbfgsAddResult.Hdiag;
                 boolean skipped = lbfgsAddResult.skipped;
+                if (skipped) {
+                    this.profiler.getMetrics().increment(
+                        MetricsRegistry.LBFGS_SKIPS);
+                } else if (Hinv != null) {
+                    // scale of the diagonal, y's / y'Hy
+                    double yHy = 0.0;
+                    for (int j = 0; j < gMg_old.length; j++) {
+                        yHy += gMg_old[j] * Hinv[j] * gMg_old[j];
+                    }
+                    Hdiag = YS[lbfgs_end] / yHy;
+                }
 
-                d = this.lbfgsProd(g, S, Y, YS, lbfgs_start, lbfgs_end, Hdiag);
+                d = this.lbfgsProd(
+                    g, S, Y, YS, lbfgs_start, lbfgs_end, Hdiag, Hinv);
                 log.debug(
                     "lbfgsAdd output: start: {}, end: {}, Hdiag: {}, tPd: {}"
                     + "gMg_old: {}, YS: {}, d: {}, S: {}, Y: {}",
-                    lbfgs_start, lbfgs_end, Hdiag, CidreMath.mean(tPd),
-                    CidreMath.mean(gMg_old), CidreMath.mean(YS),
-                    CidreMath.mean(d),
-                    CidreMath.mean(S), CidreMath.mean(Y));
+                    lbfgs_start, lbfgs_end, Hdiag, Diagnostics.mean(tPd),
+                    Diagnostics.mean(gMg_old), Diagnostics.mean(YS),
+                    Diagnostics.mean(d),
+                    Diagnostics.mean(S), Diagnostics.mean(Y));
             }
             for (int j = 0; j < g.length; j++) {
                 g_old[j] = g[j];
@@ -539,12 +1290,18 @@ public class ModelGenerator {
             }
 
             // Select Initial Guess
-            if (i == 0) {
+            if (i == 0 && Hinv == null) {
                 double sumAbsG = 0.0;
                 for (int j = 0; j < g.length; j++) {
                     sumAbsG += Math.abs(g[j]);
                 }
                 t = Math.min(1.0, 1.0/sumAbsG);
+            } else if (minFuncOptions.cg) {
+                // Quadratic initialization based on the previous step
+                t = Math.min(1.0, 2 * (f - f_previous) / gtd);
+                if (!(t > 0)) {
+                    t = 1.0;
+                }
             } else {
                 //if (LS_init == 0)
                 // Newton step
@@ -563,24 +1320,34 @@ public class ModelGenerator {
             computeHessian = 0;
             // Line Search
             f_old = f;
+            f_previous = f;
             log.debug(
                 "Input t: {}, d: {}, g: {}, g_old: {}",
-                t, CidreMath.mean(d), CidreMath.mean(g), CidreMath.mean(g_old)
+                t, Diagnostics.mean(d), Diagnostics.mean(g),
+                Diagnostics.mean(g_old)
             );
+            line.setDirection(d);
             WolfeLineSearchResult wolfeLineSearchResult = this.WolfeLineSearch(
-                imageStack, x, t, d, f, g, gtd, c1, c2, LS_interp,
-                LS_multi, 25, minFuncOptions.progTol, 1,
-                cauchy_w, pivotShiftX, pivotShiftY, method,
-                Q, TERM, lambdaVreg, lambdaZero);
+                line, x, t, d, f, g, gtd, c1, c2, LS_interp,
+                LS_multi, 25, minFuncOptions.progTol, 1);
             t = wolfeLineSearchResult.t;
             f = wolfeLineSearchResult.f_new;
             g = wolfeLineSearchResult.g_new;
             int LSfunEvals = wolfeLineSearchResult.funEvals;
+            this.profiler.getMetrics().increment(
+                MetricsRegistry.LINE_SEARCH_TRIALS, LSfunEvals);
+            this.profiler.getMetrics().increment(
+                MetricsRegistry.OPTIMISER_ITERATIONS);
 
-            log.debug("Result t: {}, d: {}", t, CidreMath.mean(d));
+            log.debug("Result t: {}, d: {}", t, Diagnostics.mean(d));
             funEvals = funEvals + LSfunEvals;
             for (int j = 0; j < x.length; j++)
                 x[j] += t * d[j];
+            line.advance(t);
+            if (f < fBest) {
+                fBest = f;
+                System.arraycopy(x, 0, xBest, 0, x.length);
+            }
 
             // Compute Optimality Condition
             optCond = Double.MIN_VALUE;
@@ -590,6 +1357,64 @@ public class ModelGenerator {
                 if (optCond < absValG)
                     optCond = absValG;
             }
+            if (event != null) {
+                event.stage = stage;
+                event.iteration = i;
+                event.f = f;
+                event.gradientNorm = optCond;
+                event.t = t;
+                event.funEvals = funEvals;
+                event.commit();
+            }
+            if (!this.report(stage, lambdaVreg, lambdaZero, i, f, optCond, t,
+                             funEvals, startTime))
+            {
+                exitflag = -1;
+                log.info("Stopped by optimiser listener");
+                break;
+            }
+            boolean interrupted = Thread.currentThread().isInterrupted();
+            if (checkpointing && stage != 0 && this.checkpointFile != null
+                && (interrupted
+                    || System.nanoTime() - this.lastCheckpoint
+                       >= this.checkpointInterval))
+            {
+                // state at the start of the next iteration
+                Checkpoint checkpoint = this.createCheckpoint(stage);
+                checkpoint.iteration = i + 1;
+                checkpoint.funEvals = funEvals;
+                checkpoint.f = f;
+                checkpoint.fBest = fBest;
+                checkpoint.t = t;
+                checkpoint.Hdiag = Hdiag;
+                checkpoint.lbfgsStart = lbfgs_start;
+                checkpoint.lbfgsEnd = lbfgs_end;
+                checkpoint.x = x;
+                checkpoint.xBest = xBest;
+                checkpoint.g = g;
+                checkpoint.gOld = g_old;
+                checkpoint.d = d;
+                checkpoint.S = S;
+                checkpoint.Y = Y;
+                checkpoint.YS = YS;
+                this.writeCheckpoint(checkpoint);
+                if (interrupted) {
+                    // the build goes on with a truncated solution, keep this
+                    // checkpoint to resume from
+                    this.checkpointFile = null;
+                }
+            }
+            if (interrupted) {
+                exitflag = -3;
+                log.info("Interrupted");
+                break;
+            }
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                exitflag = -2;
+                log.info("Reached time budget of {} ms",
+                         minFuncOptions.maxTime);
+                break;
+            }
 
             // Check Optimality Condition
             if (optCond <= minFuncOptions.optTol)
@@ -635,37 +1460,54 @@ public class ModelGenerator {
                 log.info("Reached Maximum Number of Iterations");
                 break;
             }
-            log.debug("{}, f = {}; x = {}", i, f, CidreMath.mean(x));
+            log.debug("{}, f = {}; x = {}", i, f, Diagnostics.mean(x));
         }
 
         MinFuncResult minFuncResult = new MinFuncResult();
-        minFuncResult.x = x;
-        minFuncResult.f = f;
+        if (exitflag < 0 && fBest < f) {
+            minFuncResult.x = xBest;
+            minFuncResult.f = fBest;
+        } else {
+            minFuncResult.x = x;
+            minFuncResult.f = f;
+        }
+        minFuncResult.iterations = iterations;
+        minFuncResult.funEvals = funEvals;
+        minFuncResult.exitflag = exitflag;
         return minFuncResult;
     }
 
-    private ObjectiveResult cdr_objective(
-            List<double[] []> imageStack, double[] x, double cauchy_w,
+    ObjectiveResult cdr_objective(
+            PivotedStack stack, double[] x, double cauchy_w,
             double pivotShiftX, double[] pivotShiftY, Mestimator method,
             double[] Q, int TERM, double LAMBDA_VREG, double LAMBDA_ZERO)
     {
+        return this.cdr_objective(
+            stack, x, cauchy_w, pivotShiftX, pivotShiftY, method, Q,
+            TERM, LAMBDA_VREG, LAMBDA_ZERO, null);
+    }
+
+    /**
+     * @param weights weighted least squares majoriser replacing the
+     * fitting term, or <code>null</code>
+     */
+    ObjectiveResult cdr_objective(
+            PivotedStack stack, double[] x, double cauchy_w,
+            double pivotShiftX, double[] pivotShiftY, Mestimator method,
+            double[] Q, int TERM, double LAMBDA_VREG, double LAMBDA_ZERO,
+            Majoriser weights)
+    {
+        this.profiler.getMetrics().increment(
+            MetricsRegistry.OBJECTIVE_EVALUATIONS);
         log.debug(
             "Cdr_objective input: x: {}, cauchy: {}, pivotX: {},"
             + "pivotY: {}, method: {}, Q: {}, TERM: {}, lambda v: {},"
             + " lambda_z: {}, z_max: {}, z_min: {}",
-            CidreMath.mean(x), cauchy_w, pivotShiftX,
-            CidreMath.mean(pivotShiftY), method, CidreMath.mean(Q), TERM,
+            Diagnostics.mean(x), cauchy_w, pivotShiftX,
+            Diagnostics.mean(pivotShiftY), method, Diagnostics.mean(Q), TERM,
             LAMBDA_VREG, LAMBDA_ZERO, this.zLimitsResult.zmax,
             this.zLimitsResult.zmin);
-        double E = 0.0;
-        double[] G = null;
-
-        // some basic definitions
-        // the standard number of quantiles used for empirical parameter setting
-        int N_stan = 200;
-        // the barrier term coefficient
-        double LAMBDA_BARR = 1e6;
-        int depth = imageStack.size();
+        int depth = stack.depth;
         int width = this.options.workingSize.width;
         int height = this.options.workingSize.height;
 
@@ -673,19 +1515,6 @@ public class ModelGenerator {
         double[] v_vec = Arrays.copyOfRange(x, 0, width * height);
         double[] b_vec = Arrays.copyOfRange(
             x, width * height, 2 * width * height);
-        double zx = x[2 * width * height];
-        double zy = x[2 * width * height + 1];
-
-        // move the zero-light point to the pivot space (zx,zy) -> (px,py)
-        // a scalar
-        double px = zx - pivotShiftX;
-        double[] py = new double[width * height];
-        int pPy = 0;
-        for (int xc = 0; xc < width; xc++) {
-            for (int y = 0; y < height; y++) {
-                py[pPy++] = zy - pivotShiftY[xc * height + y];
-            }
-        }
 
         // fitting energy
         // We compute the energy of the fitting term given v,b,zx,zy.
@@ -697,215 +1526,255 @@ public class ModelGenerator {
         double[] deriv_v_fit = new double[width * height];
         // derivative of fit term wrt b
         double[] deriv_b_fit = new double[width * height];
+        this.fitTerm(
+            stack, v_vec, b_vec, method, cauchy_w, Q, weights,
+            energy_fit, deriv_v_fit, deriv_b_fit);
+        return this.assembleObjective(
+            x, depth, pivotShiftX, pivotShiftY, TERM, LAMBDA_VREG,
+            LAMBDA_ZERO, energy_fit, deriv_v_fit, deriv_b_fit);
+    }
 
-        double v = 0;
-        double b = 0;
-        double E_fit = 0;
-        double[] G_V_fit = new double[width * height];
-        double[] G_B_fit = new double[width * height];
-
-        double[] mestimator_response = new double[depth];
-        double[] d_est_dv = new double[depth];
-        double[] d_est_db = new double[depth];
-
-        int I = 0;
-        for (int xc = 0; xc < width; xc++) {
-            for (int y = 0; y < height; y++) {
-                // get the quantile fit for this location and vectorize it
-                double[] q = new double[depth];
-                for (int z = 0; z < depth; z++) {
-                    q[z] = imageStack.get(z)[xc][y];
-                }
-
-                v = v_vec[xc * height + y];
-                b = b_vec[xc * height + y];
-                switch (method) {
-                    case LS:
-                        for (int z = 0; z < depth; z++) {
-                            double val = Q[z] * v + b - q[z];
-                            mestimator_response[z] = val * val;
-                            d_est_dv[z] = Q[z] * val;
-                            d_est_db[z] = val;
-                        }
-                        break;
-                    case CAUCHY:
-                        for (int z = 0; z < depth; z++) {
-                            double val = Q[z] * v + b - q[z];
-                            mestimator_response[z] =
-                                cauchy_w * cauchy_w
-                                * Math.log(
-                                    1 + (val*val) / (cauchy_w * cauchy_w)
-                                ) / 2.0;
-                            d_est_dv[z] =
-                                (Q[z]*val) / (1.0 + (val*val)
-                                / (cauchy_w * cauchy_w));
-                            d_est_db[z] =
-                                val / (1.0 + (val*val)
-                                / (cauchy_w * cauchy_w));
-                        }
-                        break;
-                }
-                for (int z = 0; z < depth; z++) {
-                    energy_fit[I] += mestimator_response[z];
-                    deriv_v_fit[I] += d_est_dv[z];
-                    deriv_b_fit[I] += d_est_db[z];
-                }
-                I++;
-            }
-        }
-        log.debug("mres: {}, energy_fit: {}, deriv_v_fit: {}, deriv_b_fit: {}",
-                 CidreMath.mean(mestimator_response),
-                 CidreMath.mean(energy_fit), CidreMath.mean(deriv_v_fit),
-                 CidreMath.mean(deriv_b_fit));
+    /**
+     * Completes {@link #cdr_objective} from the per location energy and
+     * derivatives of the fitting term, which are overwritten.
+     */
+    ObjectiveResult assembleObjective(
+            double[] x, int depth, double pivotShiftX, double[] pivotShiftY,
+            int TERM, double LAMBDA_VREG, double LAMBDA_ZERO,
+            double[] energy_fit, double[] deriv_v_fit, double[] deriv_b_fit)
+    {
+        double[] v_vec = Arrays.copyOfRange(x, 0, energy_fit.length);
+        log.debug("energy_fit: {}, deriv_v_fit: {}, deriv_b_fit: {}",
+                 Diagnostics.mean(energy_fit), Diagnostics.mean(deriv_v_fit),
+                 Diagnostics.mean(deriv_b_fit));
 
         // normalize the contribution from fitting energy term by the number
-        // of data points in imageStack
+        // of data points in the stack
         // (so our balancing of the energy terms is invariant)
-        double data_size_factor = (double) N_stan / (double) depth;
-        I = 0;
-        for (int xc = 0; xc < width; xc++) { 
-            for (int y = 0; y < height; y++) {
-                E_fit += energy_fit[I];
-                // fit term derivative wrt v
-                G_V_fit[I] = deriv_v_fit[I] * data_size_factor;
-                // fit term derivative wrt b
-                G_B_fit[I] = deriv_b_fit[I] * data_size_factor;
-                I++;
-            }
-        }
-        E_fit *= data_size_factor;      // fit term energy;
-        log.debug("Size F: {}, Lambda_v: {}, Lambda_z: {}, Lambda_barr: {}",
-                  data_size_factor, LAMBDA_VREG, LAMBDA_ZERO, LAMBDA_BARR);
+        double[] G_V_fit = deriv_v_fit;
+        double[] G_B_fit = deriv_b_fit;
+        double E_fit = this.normaliseFitTerm(
+            depth, energy_fit, G_V_fit, G_B_fit);
+        log.debug("Lambda_v: {}, Lambda_z: {}", LAMBDA_VREG, LAMBDA_ZERO);
         log.debug("E_fit: {}, G_V: {}, G_B: {}", E_fit,
-                  CidreMath.mean(G_V_fit), CidreMath.mean(G_B_fit));
+                  Diagnostics.mean(G_V_fit), Diagnostics.mean(G_B_fit));
 
         // spatial regularization of v
         // We compute the energy of the regularization term given v,b,zx,zy.
         // We also compute its gradient wrt the random variables.
+        double[][][] h = this.logKernels();
+        // apply the scale-invariant LoG filter to v for all scales in SIGMAS
+        double[][] v_LoG = this.vregResponses(v_vec, h);
+        // energy is quadratic LoG response
+        double[] energy_vreg = new double[h.length];
+        for (int i = 0; i < h.length; i++) {
+            for (int c = 0; c < v_LoG[i].length; c++) {
+                energy_vreg[i] += v_LoG[i][c] * v_LoG[i][c];
+            }
+        }
+        // vreg term energy
+        double E_vreg = 0;
+        for (int i = 0; i < h.length; i++) {
+            E_vreg += energy_vreg[i];
+        }
+        // vreg term gradient wrt v; its gradient wrt b is zero
+        double[] G_V_vreg = this.vregGradient(v_LoG, h);
+
+        return this.combineTerms(
+            x, pivotShiftX, pivotShiftY, TERM, LAMBDA_VREG, LAMBDA_ZERO,
+            E_fit, G_V_fit, G_B_fit, E_vreg, G_V_vreg);
+    }
+
+    /**
+     * Per location energy and derivatives wrt v and b of the fitting term
+     * of {@link #cdr_objective}.  The residuals of a float32 stack are
+     * evaluated in single precision, their sums in double.
+     */
+    void fitTerm(
+            PivotedStack stack, double[] v_vec, double[] b_vec,
+            Mestimator method, double cauchy_w, double[] Q,
+            Majoriser weights, double[] energy_fit, double[] deriv_v_fit,
+            double[] deriv_b_fit)
+    {
+        if (weights != null) {
+            weights.fitTerm(v_vec, b_vec, energy_fit, deriv_v_fit,
+                            deriv_b_fit);
+            return;
+        }
+        Kernels kernels = Kernels.get();
+        int depth = stack.depth;
+        double w2 = cauchy_w * cauchy_w;
+        float[] Qf = null;
+        if (stack.floats != null) {
+            Qf = new float[depth];
+            for (int z = 0; z < depth; z++) {
+                Qf[z] = (float) Q[z];
+            }
+        }
+        double[] sums = new double[3];
+        for (int i = 0; i < v_vec.length; i++) {
+            double v = v_vec[i];
+            double b = b_vec[i];
+            switch (method) {
+                case LS:
+                    if (Qf != null) {
+                        kernels.leastSquares(
+                            stack.floats, i * depth, Qf, (float) v,
+                            (float) b, sums);
+                    } else {
+                        kernels.leastSquares(
+                            stack.values, i * depth, Q, v, b, sums);
+                    }
+                    break;
+                case CAUCHY:
+                    if (Qf != null) {
+                        kernels.cauchy(
+                            stack.floats, i * depth, Qf, (float) v,
+                            (float) b, (float) w2, sums);
+                    } else {
+                        kernels.cauchy(
+                            stack.values, i * depth, Q, v, b, w2, sums);
+                    }
+                    break;
+            }
+            energy_fit[i] = sums[0];
+            deriv_v_fit[i] = sums[1];
+            deriv_b_fit[i] = sums[2];
+        }
+    }
 
+    /**
+     * Scales the fitting term by the standard number of quantiles over the
+     * number of data points, in place for the derivatives.
+     * @return the fitting term energy
+     */
+    double normaliseFitTerm(
+            int depth, double[] energy_fit, double[] deriv_v_fit,
+            double[] deriv_b_fit)
+    {
+        double data_size_factor = ModelGenerator.dataSizeFactor(depth);
+        double E_fit = 0;
+        for (int I = 0; I < energy_fit.length; I++) {
+            E_fit += energy_fit[I];
+            deriv_v_fit[I] *= data_size_factor;
+            deriv_b_fit[I] *= data_size_factor;
+        }
+        return E_fit * data_size_factor;
+    }
+
+    /**
+     * Scale of the fitting term of a stack of the given depth, the standard
+     * number of quantiles over the depth.
+     */
+    static double dataSizeFactor(int depth)
+    {
+        return (double) N_STANDARD / depth;
+    }
+
+    /**
+     * Scale-invariant LoG filters of the spatial regularisation term.
+     */
+    double[][][] logKernels()
+    {
+        int width = this.options.workingSize.width;
+        int height = this.options.workingSize.height;
         // determine the widths we will use for the LoG filter
         int max_exp = (int) Math.max(
             1.0, Math.log(Math.floor(Math.max(width,  height) / 50.0))
             / Math.log(2.0));
 
-        double[] sigmas = new double[max_exp + 2];
-        for (int i = -1; i <= max_exp; i++)
-            sigmas[i + 1] = Math.pow(2, i);
-
-        // accumulates the vreg energy
-        double[] energy_vreg = new double[sigmas.length];
-        // derivative of vreg term wrt v
-        double[] deriv_v_vreg = new double[width * height];
-        // derivative of vreg term wrt b
-        double[] deriv_b_vreg = new double[width * height];
+        double[][][] h = new double[max_exp + 2][][];
+        for (int i = -1; i <= max_exp; i++) {
+            h[i + 1] = ModelGenerator.scaleInvariantLoG(Math.pow(2, i));
+        }
+        return h;
+    }
 
-        // apply the scale-invariant LoG filter to v for all scales in SIGMAS
-        double[][][] h = new double[sigmas.length][][];
-        for (int i = 0; i < sigmas.length; i++)
-        {
-            // define the kernel size, make certain dimension is odd
-            int hsize = 6 * (int) Math.ceil(sigmas[i]); 
-            if (hsize % 2 == 0)
-                hsize++;
-            double std2 = sigmas[i] * sigmas[i];
-
-            // h{n} = sigmas(n)^2 * fspecial('log', hsize, sigmas(n))
-            h[i] = new double[hsize][hsize];
-            double[][] h1 = new double[hsize][hsize];
-            double sumh = 0.0;
-            for (int c = 0; c < hsize; c++) {
-                for (int r = 0; r < hsize; r++) {
-                    double arg = -1.0 * (
-                        (c - hsize / 2) * (c - hsize / 2)
-                        + (r - hsize / 2) * (r - hsize / 2)) / (2.0 * std2);
-                    h[i][c][r] = Math.exp(arg);
-                    sumh += h[i][c][r];
-                }
-            }           
-            // calculate Laplacian
-            double sumh1 = 0.0;
-            for (int c = 0; c < hsize; c++) {
-                for (int r = 0; r < hsize; r++) {
-                    h[i][c][r] /= sumh;
-                    h1[c][r] = h[i][c][r] * (
-                        (c - hsize / 2) * (c-hsize / 2)
-                        + (r - hsize /2 ) * (r-hsize / 2) - 2 * std2)
-                        / (std2 * std2);
-                    sumh1 += h1[c][r]; 
-                }
-            }
-            for (int c = 0; c < hsize; c++) {
-                for (int r = 0; r < hsize; r++) {
-                    h[i][c][r] = (
-                        h1[c][r] - sumh1 / (hsize * hsize))
-                        * (sigmas[i] * sigmas[i]);
-                    // h{n} = sigmas(n)^2 * fspecial('log', hsize, sigmas(n));
-                }
-            }
+    /**
+     * LoG responses of v at all scales, normalised by the number of scales.
+     */
+    double[][] vregResponses(double[] v_vec, double[][][] h)
+    {
+        int width = this.options.workingSize.width;
+        int height = this.options.workingSize.height;
+        double[][] v_LoG = new double[h.length][];
+        for (int i = 0; i < h.length; i++) {
             // apply a LoG filter to v_img to penalize disagreements
             // between neighbors
-            double[] v_LoG = this.imfilter_symmetric(
-                v_vec, width, height, h[i]);
-            for (int c = 0; c < v_LoG.length; c++) {
+            v_LoG[i] = this.imfilter_symmetric(v_vec, width, height, h[i]);
+            for (int c = 0; c < v_LoG[i].length; c++) {
                 // normalize by the # of sigmas used
-                v_LoG[c] /= sigmas.length;
-            }
-            // energy is quadratic LoG response
-            energy_vreg[i] = 0;
-            for (int c = 0; c < v_LoG.length; c++) {
-                energy_vreg[i] += v_LoG[c]*v_LoG[c];
+                v_LoG[i][c] /= h.length;
             }
-            for (int c = 0; c < v_LoG.length; c++) {
-                v_LoG[c] *= 2;
+        }
+        return v_LoG;
+    }
+
+    /**
+     * Gradient wrt v of the spatial regularisation energy, the sum of the
+     * squared responses.
+     */
+    double[] vregGradient(double[][] v_LoG, double[][][] h)
+    {
+        int width = this.options.workingSize.width;
+        int height = this.options.workingSize.height;
+        double[] deriv_v_vreg = new double[width * height];
+        double[] twice = new double[width * height];
+        for (int i = 0; i < h.length; i++) {
+            for (int c = 0; c < twice.length; c++) {
+                twice[c] = 2 * v_LoG[i][c];
             }
             double[] v_LoG2 = this.imfilter_symmetric(
-                v_LoG, width, height, h[i]);
+                twice, width, height, h[i]);
             for (int c = 0; c < v_LoG2.length; c++) {
                 deriv_v_vreg[c] += v_LoG2[c];
             }
         }
-        // vreg term energy
-        double E_vreg = 0;
-        for (int i = 0; i < sigmas.length; i++) {
-            E_vreg += energy_vreg[i];
-        }
-        // vreg term gradient wrt v
-        double[] G_V_vreg = deriv_v_vreg;
-        // vreg term gradient wrt b
-        double[] G_B_vreg = deriv_b_vreg;
+        return deriv_v_vreg;
+    }
+
+    /**
+     * Adds the zero-light and barrier terms of {@link #cdr_objective} to
+     * the fitting and spatial regularisation terms.
+     * @param G_V_fit fitting term gradient wrt v, overwritten
+     * @param G_B_fit fitting term gradient wrt b, overwritten
+     */
+    ObjectiveResult combineTerms(
+            double[] x, double pivotShiftX, double[] pivotShiftY, int TERM,
+            double LAMBDA_VREG, double LAMBDA_ZERO, double E_fit,
+            double[] G_V_fit, double[] G_B_fit, double E_vreg,
+            double[] G_V_vreg)
+    {
+        double E = 0.0;
+        double[] G = null;
+        // the barrier term coefficient
+        double LAMBDA_BARR = 1e6;
+        int n = G_V_fit.length;
+        double zx = x[2 * n];
+        double zy = x[2 * n + 1];
+
+        // move the zero-light point to the pivot space (zx,zy) -> (px,py)
+        // a scalar
+        double px = zx - pivotShiftX;
 
         // The ZERO-LIGHT term
         // We compute the energy of the zero-light term given v,b,zx,zy.
         // We also compute its gradient wrt the random variables.
-        double[] residual = new double[width * height];
-        for (int i = 0; i < residual.length; i++) {
-            residual[i] = v_vec[i] * px + b_vec[i] - py[i];
-        }
-        double[] deriv_v_zero = new double[width * height];
-        double[] deriv_b_zero = new double[width * height];
+        double[] deriv_v_zero = new double[n];
+        double[] deriv_b_zero = new double[n];
         double deriv_zx_zero = 0.0;
         double deriv_zy_zero = 0.0;
-        for (int i = 0; i < width * height; i++) {
-            double val = b_vec[i] + v_vec[i] * px - py[i];
+        // zero light term energy
+        double E_zero = 0;
+        for (int i = 0; i < n; i++) {
+            double val = x[n + i] + x[i] * px - (zy - pivotShiftY[i]);
             deriv_v_zero[i] = 2 * px * val;
             deriv_b_zero[i] = 2 * val;
-            deriv_zx_zero += 2 * v_vec[i] * val;
+            deriv_zx_zero += 2 * x[i] * val;
             deriv_zy_zero += - 2 * val;
+            E_zero += val * val;
         }
 
-        double E_zero = 0;  // zero light term energy
-        for (int i = 0; i < residual.length; i++)
-            E_zero += residual[i] * residual[i];
-
-        // zero light term gradient wrt v
-        double[] G_V_zero = deriv_v_zero;
-        // zero light term gradient wrt b
-        double[] G_B_zero = deriv_b_zero;
-        // zero light term gradient wrt zx
-        double G_ZX_zero = deriv_zx_zero;
-        // zero light term gradient wrt zy
-        double G_ZY_zero = deriv_zy_zero;
-
         // The BARRIER term
         // We compute the energy of the barrier term given v,b,zx,zy. We also
         // compute its gradient wrt the random variables.
@@ -961,33 +1830,28 @@ public class ModelGenerator {
                 G_ZY = 0;
                 break;
             case 1:
-                for (int i = 0; i < G_V_fit.length; i++) {
+                for (int i = 0; i < n; i++) {
                     G_V_fit[i] = G_V_fit[i] + LAMBDA_VREG * G_V_vreg[i]
-                                 + LAMBDA_ZERO * G_V_zero[i];
-                    G_B_fit[i] = G_B_fit[i] + LAMBDA_VREG * G_B_vreg[i]
-                                 + LAMBDA_ZERO * G_B_zero[i];
+                                 + LAMBDA_ZERO * deriv_v_zero[i];
+                    G_B_fit[i] = G_B_fit[i] + LAMBDA_ZERO * deriv_b_zero[i];
                 }
                 G_V = G_V_fit;
                 G_B = G_B_fit;
-                G_ZX = LAMBDA_ZERO * G_ZX_zero + LAMBDA_BARR * G_ZX_barr;
-                G_ZY = LAMBDA_ZERO * G_ZY_zero + LAMBDA_BARR * G_ZY_barr;
+                G_ZX = LAMBDA_ZERO * deriv_zx_zero + LAMBDA_BARR * G_ZX_barr;
+                G_ZY = LAMBDA_ZERO * deriv_zy_zero + LAMBDA_BARR * G_ZY_barr;
                 break;
         }
 
         // vectorize the gradient
         G = new double[x.length];
-
-        int pG = 0;
-        for (int i = 0; i < G_V.length; i++)
-            G[pG++] = G_V[i];
-        for (int i = 0; i < G_B.length; i++)
-            G[pG++] = G_B[i];
-        G[pG++] = G_ZX;
-        G[pG++] = G_ZY;
+        System.arraycopy(G_V, 0, G, 0, n);
+        System.arraycopy(G_B, 0, G, n, n);
+        G[2 * n] = G_ZX;
+        G[2 * n + 1] = G_ZY;
 
         log.debug("cdr_objective done Term str = {}; "
                   + "zx,zy = ({}, {}); E = {}; G = {}\n",
-                  term_str, zx, zy, E, CidreMath.mean(G));
+                  term_str, zx, zy, E, Diagnostics.mean(G));
 
         ObjectiveResult result = new ObjectiveResult();
         result.E = E;
@@ -995,7 +1859,129 @@ public class ModelGenerator {
         return result;
     }
 
-    private double[] imfilter_symmetric(
+    /**
+     * Inverse of a diagonal approximation of the Jacobian of the gradient
+     * of {@link #cdr_objective} at x, the initial inverse Hessian of the
+     * preconditioned L-BFGS: the fitting term from the moments of Q (exact
+     * for LS, an upper bound for CAUCHY), the central taps of the LoG
+     * regulariser, and the zero-light and barrier terms.
+     */
+    double[] inverseHessianDiagonal(
+            double[] x, double pivotShiftX, double[] Q, int TERM,
+            double lambdaVreg, double lambdaZero, double[][][] h)
+    {
+        int n = (x.length - 2) / 2;
+        double data_size_factor = ModelGenerator.dataSizeFactor(Q.length);
+        double sumQ2 = 0.0;
+        for (int z = 0; z < Q.length; z++) {
+            sumQ2 += Q[z] * Q[z];
+        }
+        double H_V = data_size_factor * sumQ2;
+        double H_B = data_size_factor * Q.length;
+        double H_ZX = 1.0;
+        double H_ZY = 1.0;
+        double px = x[2 * n] - pivotShiftX;
+        if (TERM == 1) {
+            // the regulariser filters v twice with each LoG
+            double vreg = 0.0;
+            for (double[][] k : h) {
+                for (double[] row : k) {
+                    for (double tap : row) {
+                        vreg += tap * tap;
+                    }
+                }
+            }
+            H_V += lambdaVreg * 2 * vreg / h.length;
+            H_B += lambdaZero * 2;
+            double sumV2 = 0.0;
+            for (int i = 0; i < n; i++) {
+                sumV2 += x[i] * x[i];
+            }
+            H_ZX = lambdaZero * 2 * sumV2
+                 + this.barrierCurvature(x[2 * n]);
+            H_ZY = lambdaZero * 2 * n
+                 + this.barrierCurvature(x[2 * n + 1]);
+        }
+        double[] Hinv = new double[x.length];
+        for (int i = 0; i < n; i++) {
+            double H = H_V;
+            if (TERM == 1) {
+                H += lambdaZero * 2 * px * px;
+            }
+            Hinv[i] = 1.0 / H;
+            Hinv[n + i] = 1.0 / H_B;
+        }
+        Hinv[2 * n] = 1.0 / H_ZX;
+        Hinv[2 * n + 1] = 1.0 / H_ZY;
+        return Hinv;
+    }
+
+    /**
+     * Second derivative of the weighted barrier term of
+     * {@link #cdr_objective}.
+     */
+    private double barrierCurvature(double z)
+    {
+        // as in combineTerms()
+        double LAMBDA_BARR = 1e6;
+        double Q_RATE = 0.001;
+        double xl2 = this.zLimitsResult.zmin + Q_RATE;
+        double xh1 = this.zLimitsResult.zmax - Q_RATE;
+        if (z > xl2 && z < xh1) {
+            return 0.0;
+        }
+        return LAMBDA_BARR * 2 / (Q_RATE * Q_RATE);
+    }
+
+    /**
+     * Scale-invariant LoG kernel,
+     * h = sigma^2 * fspecial('log', hsize, sigma)
+     */
+    static double[][] scaleInvariantLoG(double sigma)
+    {
+        // define the kernel size, make certain dimension is odd
+        int hsize = 6 * (int) Math.ceil(sigma); 
+        if (hsize % 2 == 0)
+            hsize++;
+        double std2 = sigma * sigma;
+
+        // h{n} = sigmas(n)^2 * fspecial('log', hsize, sigmas(n))
+        double[][] h = new double[hsize][hsize];
+        double[][] h1 = new double[hsize][hsize];
+        double sumh = 0.0;
+        for (int c = 0; c < hsize; c++) {
+            for (int r = 0; r < hsize; r++) {
+                double arg = -1.0 * (
+                    (c - hsize / 2) * (c - hsize / 2)
+                    + (r - hsize / 2) * (r - hsize / 2)) / (2.0 * std2);
+                h[c][r] = Math.exp(arg);
+                sumh += h[c][r];
+            }
+        }           
+        // calculate Laplacian
+        double sumh1 = 0.0;
+        for (int c = 0; c < hsize; c++) {
+            for (int r = 0; r < hsize; r++) {
+                h[c][r] /= sumh;
+                h1[c][r] = h[c][r] * (
+                    (c - hsize / 2) * (c-hsize / 2)
+                    + (r - hsize /2 ) * (r-hsize / 2) - 2 * std2)
+                    / (std2 * std2);
+                sumh1 += h1[c][r]; 
+            }
+        }
+        for (int c = 0; c < hsize; c++) {
+            for (int r = 0; r < hsize; r++) {
+                h[c][r] = (
+                    h1[c][r] - sumh1 / (hsize * hsize))
+                    * (sigma * sigma);
+                // h{n} = sigmas(n)^2 * fspecial('log', hsize, sigmas(n));
+            }
+        }
+        return h;
+    }
+
+    double[] imfilter_symmetric(
         double[] pixels, int width, int height, double[][] k)
     {
         int kc = k.length / 2;
@@ -1084,15 +2070,14 @@ public class ModelGenerator {
         return result;
     }
 
-    private LbfgsAddResult lbfgsAdd(
+    LbfgsAddResult lbfgsAdd(
             double[] y, double[] s, double[][] S, double[][] Y,
             double[] YS, int lbfgs_start, int lbfgs_end, double Hdiag)
     {
-        double ys = 0.0;
-        for (int j = 0; j < y.length; j++)
-            ys += y[j] * s[j];
+        Kernels kernels = Kernels.get();
+        double ys = kernels.dot(y, s);
         boolean skipped = false;
-        int corrections = S[0].length;
+        int corrections = S.length;
         if (ys > 1e-10d)
         {
             if (lbfgs_end < corrections - 1)
@@ -1109,17 +2094,12 @@ public class ModelGenerator {
                 lbfgs_start = Math.min(1, corrections);
                 lbfgs_end = 0;
             }
-            for (int j = 0; j < s.length; j++)
-            {
-                S[j][lbfgs_end] = s[j];
-                Y[j][lbfgs_end] = y[j];
-            }
+            // one row per correction
+            System.arraycopy(s, 0, S[lbfgs_end], 0, s.length);
+            System.arraycopy(y, 0, Y[lbfgs_end], 0, y.length);
             YS[lbfgs_end] = ys;
             // Update scale of initial Hessian approximation
-            double yy = 0.0;
-            for (int j = 0; j < y.length; j++) {
-                yy += y[j] * y[j];
-            }
+            double yy = kernels.dot(y, y);
             Hdiag = ys/yy;
         } else {
             skipped = true;
@@ -1135,17 +2115,21 @@ public class ModelGenerator {
         return lbfgsAddResult;
     }
 
-    private double[] lbfgsProd(
+    /**
+     * @param Hinv diagonal of the initial inverse Hessian, scaled by
+     * <code>Hdiag</code>, or <code>null</code> for the identity
+     */
+    double[] lbfgsProd(
             double[] g, double[][] S, double[][] Y, double[] YS,
-            int lbfgs_start, int lbfgs_end, double Hdiag)
+            int lbfgs_start, int lbfgs_end, double Hdiag, double[] Hinv)
     {
         // BFGS Search Direction
         // This function returns the (L-BFGS) approximate inverse Hessian,
         // multiplied by the negative gradient
 
-        // Set up indexing
-        int nVars = S.length;
-        int maxCorrections = S[0].length;
+        // Set up indexing; S and Y hold one correction per row
+        Kernels kernels = Kernels.get();
+        int maxCorrections = S.length;
         int nCor;
         int[] ind;
         if (lbfgs_start == 0)
@@ -1169,60 +2153,50 @@ public class ModelGenerator {
         double[] d = new double[g.length];
         for (int j = 0; j < g.length; j++)
             d[j] = - g[j];
-        log.debug("lbfgsProd1: d: {}", CidreMath.mean(d));
+        log.debug("lbfgsProd1: d: {}", Diagnostics.mean(d));
         for (int j = 0; j < ind.length; j++)
         {
             int i = ind[ind.length-j-1];
-            double sumSD = 0.0;
-            double avgS = 0.0;
-            for (int k = 0; k < S.length; k++) {
-                sumSD += (S[k][i] * d[k]) / YS[i];
-                avgS += S[k][i];
-            }
-            avgS = avgS / (double) S.length;
-            al[i] = sumSD;
-            log.debug("    {} al: {}, d: {}, YS: {}, S: {}",
-                    i, al[i], CidreMath.mean(d), YS[i], avgS);
-            for (int k = 0; k < d.length; k++) {
-                d[k] -= al[i] * Y[k][i];
+            al[i] = kernels.dot(S[i], d) / YS[i];
+            if (log.isDebugEnabled()) {
+                log.debug("    {} al: {}, d: {}, YS: {}, S: {}",
+                        i, al[i], CidreMath.mean(d), YS[i],
+                        CidreMath.mean(S[i]));
             }
+            kernels.axpy(-al[i], Y[i], d);
         }
 
         // Multiply by Initial Hessian
-        for (int j = 0; j < d.length; j++) {
-            d[j] = Hdiag * d[j];
-        }
-        for (int i = 0; i < ind.length; i++)
-        {
-            double sumYd = 0.0;
-            for (int j = 0; j < Y.length; j++) {
-                sumYd += Y[j][ind[i]] * d[j];
+        if (Hinv == null) {
+            for (int j = 0; j < d.length; j++) {
+                d[j] = Hdiag * d[j];
             }
-            be[ind[i]] = sumYd / YS[ind[i]];
+        } else {
             for (int j = 0; j < d.length; j++) {
-                d[j] += S[j][ind[i]] * (al[ind[i]] - be[ind[i]]);
+                d[j] = Hdiag * Hinv[j] * d[j];
             }
         }
+        for (int i = 0; i < ind.length; i++)
+        {
+            be[ind[i]] = kernels.dot(Y[ind[i]], d) / YS[ind[i]];
+            kernels.axpy(al[ind[i]] - be[ind[i]], S[ind[i]], d);
+        }
         log.debug("lbfgsProdf: d: {}, al: {}/{}, be: {}/{}",
-                CidreMath.mean(d), CidreMath.mean(al),
-                al.length, CidreMath.mean(be), be.length);
+                Diagnostics.mean(d), Diagnostics.mean(al),
+                al.length, Diagnostics.mean(be), be.length);
         return d;
     }
 
-    private WolfeLineSearchResult WolfeLineSearch(
-            List<double[] []> imageStack, double[] x, double t, double[] d,
+    /**
+     * @param line the objective along d, with the direction set
+     */
+    WolfeLineSearchResult WolfeLineSearch(
+            LineFunction line, double[] x, double t, double[] d,
             double f, double[] g, double gtd, double c1, double c2,
             int LS_interp, int LS_multi, int maxLS, double progTol,
-            int saveHessianComp, double cauchy_w, double pivotShiftX,
-            double[] pivotShiftY, Mestimator method, double[] Q, int TERM,
-            double LAMBDA_VREG, double LAMBDA_ZERO)
+            int saveHessianComp)
     {
-        double[] x2 = new double[x.length];
-        for (int j = 0; j < x.length; j++)
-            x2[j] = x[j] + t * d[j];
-        ObjectiveResult cdrObjectiveResult = this.cdr_objective(
-            imageStack, x2, cauchy_w, pivotShiftX,
-            pivotShiftY, method, Q, TERM, LAMBDA_VREG, LAMBDA_ZERO);
+        ObjectiveResult cdrObjectiveResult = line.evaluate(t);
         double f_new = cdrObjectiveResult.E;
         double[] g_new = cdrObjectiveResult.G;
         int funEvals = 1;
@@ -1312,13 +2286,7 @@ public class ModelGenerator {
             }
             gtd_prev = gtd_new;
 
-            x2 = new double[x.length];
-            for (int j = 0; j < x.length; j++) {
-                x2[j] = x[j] + t * d[j];
-            }
-            cdrObjectiveResult = cdr_objective(
-                imageStack, x2, cauchy_w, pivotShiftX,
-                pivotShiftY, method, Q, TERM, LAMBDA_VREG, LAMBDA_ZERO);
+            cdrObjectiveResult = line.evaluate(t);
             f_new = cdrObjectiveResult.E;
             g_new = cdrObjectiveResult.G;
             funEvals++;
@@ -1427,13 +2395,7 @@ public class ModelGenerator {
             }
 
             // Evaluate new point
-            x2 = new double[x.length];
-            for (int j = 0; j < x.length; j++) {
-                x2[j] = x[j] + t * d[j];
-            }
-            cdrObjectiveResult = cdr_objective(
-                imageStack, x2, cauchy_w, pivotShiftX,
-                pivotShiftY, method, Q, TERM, LAMBDA_VREG, LAMBDA_ZERO);
+            cdrObjectiveResult = line.evaluate(t);
             f_new = cdrObjectiveResult.E;
             g_new = cdrObjectiveResult.G;
             funEvals++;
@@ -1555,11 +2517,20 @@ public class ModelGenerator {
         }
     }
 
-    private double computeStandardError(
-            List<double[] []> imageStack, double[] v, double[] b, double[] Q)
+    double computeStandardError(
+            PivotedStack stack, double[] v, double[] b, double[] Q)
     {
         // computes the mean standard error of the regression
-        int Z = imageStack.size();
+        return CidreMath.mean(this.standardErrorMap(stack, v, b, Q));
+    }
+
+    /**
+     * Standard error of the regression at each location, column-major.
+     */
+    private double[] standardErrorMap(
+            PivotedStack stack, double[] v, double[] b, double[] Q)
+    {
+        int Z = stack.depth;
         int width = this.options.workingSize.width;
         int height = this.options.workingSize.height;
 
@@ -1576,8 +2547,8 @@ public class ModelGenerator {
                 double vi = v[c * height + r];
                 double bi = b[c * height + r];
 
+                stack.location(c * height + r, q);
                 for (int z = 0; z < Z; z++) {
-                    q[z] = imageStack.get(z)[c][r];
                     fitvals[z] = bi + Q[z] * vi;
                     residuals[z] = q[z] - fitvals[z];
                 }
@@ -1588,7 +2559,7 @@ public class ModelGenerator {
                 se[c * height + r] = Math.sqrt(sum_residuals2 / (Z-2));
             }
         }
-        return CidreMath.mean(se);
+        return se;
     }
 
     private double[] imresize_bilinear(
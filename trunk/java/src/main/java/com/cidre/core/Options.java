@@ -26,9 +26,25 @@ public class Options
         DIRECT
     };
 
+    /** optimisers of the model, see {@link #optimiser} */
+    public enum Method {
+        LBFGS,
+        NCG,
+        IRLS,
+        VARPRO
+    };
+
+    /** lambdaVreg (log10 scale) used when {@link #lambdaVreg} is unset */
+    public static final double DEFAULT_LAMBDA_VREG = 12.0;
+    /** lambdaZero (log10 scale) used when {@link #lambdaZero} is unset */
+    public static final double DEFAULT_LAMBDA_ZERO = 0.5;
+
     public Double lambdaVreg = null;
     public Double lambdaZero = null;
     public Integer maxLbgfsIterations = null;
+    public Integer maxFunEvals = null;
+    /** wall-clock budget of each optimisation stage in seconds */
+    public Double stageTimeBudget = null;
     public Double qPercent = null;
     public Double[] zLimits = new Double[2];
     public Dimension imageSize;
@@ -42,5 +58,40 @@ public class Options
     public int targetNumPixels = 9400;
     public Dimension workingSize;
     public int numberOfQuantiles = 200;
+    public boolean leanMetadata = false;
+    public String memoDirectory = null;
+    public String cacheDirectory = null;
+    /** hold the stack of the optimisation in single precision only */
+    public boolean float32 = false;
+    /** precondition L-BFGS with a diagonal Hessian estimate */
+    public boolean precondition = false;
+    /**
+     * L-BFGS, nonlinear conjugate gradient or, for the robust fit,
+     * iteratively reweighted least squares or L-BFGS with b eliminated
+     */
+    public Method optimiser = Method.LBFGS;
+    /**
+     * quantile planes per batch of a minibatch phase at the start of each
+     * optimisation stage, <code>null</code> for none
+     */
+    public Integer minibatch = null;
+    /**
+     * optimise each stage on coarser quantile compressions of the stack
+     * first
+     */
+    public boolean quantilePyramid = false;
+    /** build a rough model without optimisation */
+    public boolean fastModel = false;
+    /** start the optimisation from the rough model of fastModel */
+    public boolean fastStart = false;
+    /**
+     * planes read to build the model, chosen at random, 0 for as many as
+     * the entropy of the stack requires or <code>null</code> for all
+     */
+    public Integer planeSample = null;
+    /** draw the plane sample evenly from every series */
+    public boolean stratifiedSample = false;
+    /** seed of the plane sample */
+    public long sampleSeed = 0;
 
 }
\ No newline at end of file
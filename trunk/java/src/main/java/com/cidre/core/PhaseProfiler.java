@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cidre.jfr.Jfr;
+import com.cidre.jfr.PhaseEvent;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Records wall time and heap high-water mark of the phases of a CIDRE run.
+ * The heap peak of a phase is the largest heap usage seen before any
+ * garbage collection that ended while it ran, and at its start and end.
+ * The JVM wide memory pool peaks are left alone, so concurrent jobs and
+ * nested phases do not disturb each other's peaks; the usage is that of
+ * the whole process, so with concurrent jobs it covers everything running
+ * at that time.  A phase that is
+ * entered several times (e.g. once per channel) accumulates its wall time
+ * and keeps the largest peak.  Every phase is also timed in a
+ * {@link MetricsRegistry}, including the bytes allocated by the thread that
+ * runs it.
+ */
+public class PhaseProfiler {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(PhaseProfiler.class);
+
+    public static final String INIT = "init";
+    public static final String LOAD = "load";
+    public static final String ENTROPY = "entropy";
+    public static final String SORT_RESIZE = "sortResize";
+    public static final String Q = "q";
+    public static final String STAGE_1 = "stage1";
+    public static final String STAGE_2 = "stage2";
+    public static final String DESCRIPTOR = "descriptor";
+    public static final String SAVE = "save";
+    public static final String APPLY = "apply";
+
+    /**
+     * Accumulated measurements of a single phase.
+     */
+    public static class Phase {
+        public String name;
+        /** wall time in nanoseconds */
+        public long wallTime;
+        /** heap high-water mark in bytes */
+        public long peakHeap;
+        public int count;
+    }
+
+    /** names of the heap memory pools */
+    private static final Set<String> HEAP_POOLS = new HashSet<String>();
+
+    /** running measurements, updated on every garbage collection */
+    private static final Set<Measurement> RUNNING =
+        ConcurrentHashMap.newKeySet();
+
+    static {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP) {
+                HEAP_POOLS.add(pool.getName());
+            }
+        }
+        for (GarbageCollectorMXBean collector :
+                ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(
+                    PhaseProfiler::onGarbageCollection, null, null);
+            }
+        }
+    }
+
+    /**
+     * A running phase, recorded when closed.
+     */
+    public class Measurement implements AutoCloseable {
+
+        private final String name;
+
+        private final long start;
+
+        private final MetricsRegistry.Context context;
+
+        private final PhaseEvent event;
+
+        private final AtomicLong peakHeap = new AtomicLong();
+
+        private Measurement(String name) {
+            this.name = name;
+            this.context = PhaseProfiler.this.metrics.time(
+                MetricsRegistry.PHASE_PREFIX + name);
+            this.event = Jfr.ENABLED ? new PhaseEvent() : null;
+            if (this.event != null) {
+                this.event.begin();
+            }
+            this.observe(PhaseProfiler.getUsedHeap());
+            RUNNING.add(this);
+            this.start = System.nanoTime();
+        }
+
+        private void observe(long used) {
+            this.peakHeap.accumulateAndGet(used, Math::max);
+        }
+
+        @Override
+        public void close() {
+            RUNNING.remove(this);
+            this.observe(PhaseProfiler.getUsedHeap());
+            this.context.close();
+            if (this.event != null) {
+                this.event.input = PhaseProfiler.this.source;
+                this.event.phase = this.name;
+                this.event.commit();
+            }
+            PhaseProfiler.this.record(
+                this.name, System.nanoTime() - this.start,
+                this.peakHeap.get());
+        }
+    }
+
+    private final Map<String, Phase> phases =
+        new LinkedHashMap<String, Phase>();
+
+    private final MetricsRegistry metrics;
+
+    private volatile String source;
+
+    public PhaseProfiler() {
+        this(new MetricsRegistry());
+    }
+
+    public PhaseProfiler(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @param source input the phases belong to, reported in JFR events
+     */
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Starts a phase.  Use with try-with-resources.
+     */
+    public Measurement start(String name) {
+        return new Measurement(name);
+    }
+
+    private synchronized void record(String name, long wallTime, long peak) {
+        Phase phase = this.phases.get(name);
+        if (phase == null) {
+            phase = new Phase();
+            phase.name = name;
+            this.phases.put(name, phase);
+        }
+        phase.wallTime += wallTime;
+        phase.peakHeap = Math.max(phase.peakHeap, peak);
+        phase.count++;
+        log.debug("Phase {} took {} ms, peak heap {} MB",
+                  name, wallTime / 1000000, peak >> 20);
+    }
+
+    private static long getUsedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+            .getUsed();
+    }
+
+    private static void onGarbageCollection(
+            Notification notification, Object handback)
+    {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                .equals(notification.getType()))
+        {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from(
+                (CompositeData) notification.getUserData());
+        long used = 0;
+        for (Map.Entry<String, MemoryUsage> pool :
+                info.getGcInfo().getMemoryUsageBeforeGc().entrySet())
+        {
+            if (HEAP_POOLS.contains(pool.getKey())) {
+                used += pool.getValue().getUsed();
+            }
+        }
+        for (Measurement measurement : RUNNING) {
+            measurement.observe(used);
+        }
+    }
+
+    /**
+     * @return the recorded phases in the order they were first entered
+     */
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<Phase>(this.phases.values());
+    }
+
+    public void logSummary() {
+        StringBuilder summary = new StringBuilder("Phase timings:");
+        for (Phase phase : this.getPhases()) {
+            summary.append(String.format(
+                "%n\t%-12s %10d ms %8d MB peak heap",
+                phase.name, phase.wallTime / 1000000, phase.peakHeap >> 20));
+        }
+        log.info(summary.toString());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.util.List;
+
+/**
+ * The preprocessed stack of a model build in pivot space, location-major:
+ * the quantiles of every location are contiguous, as read by the fitting
+ * term.  Locations are numbered column-major like the surfaces of the
+ * model.  The values are held either in double precision or, in float32
+ * mode, in single precision only.
+ */
+final class PivotedStack {
+
+    final int width;
+    final int height;
+    final int depth;
+    /** the values of a double precision stack, <code>null</code> otherwise */
+    final double[] values;
+    /** the values of a float32 stack, <code>null</code> otherwise */
+    final float[] floats;
+
+    PivotedStack(
+            int width, int height, int depth, double[] values,
+            float[] floats)
+    {
+        if ((values == null) == (floats == null)) {
+            throw new IllegalArgumentException(
+                "Exactly one of double and float values is required");
+        }
+        int length = values != null ? values.length : floats.length;
+        if (length != width * height * depth) {
+            throw new IllegalArgumentException(
+                "Stack of " + length + " values is not " + width + "x"
+                + height + "x" + depth);
+        }
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.values = values;
+        this.floats = floats;
+    }
+
+    /**
+     * Moves the planes of a stack into a packed one.  Every plane is
+     * removed from the list once copied, so that the planes are released
+     * as the stack is packed; the list is left empty.
+     * @param planes <code>depth</code> planes of <code>width</code> columns
+     * @param float32 whether to keep the values in single precision
+     */
+    static PivotedStack pack(List<double[][]> planes, boolean float32)
+    {
+        int depth = planes.size();
+        int width = planes.get(0).length;
+        int height = planes.get(0)[0].length;
+        int length = width * height * depth;
+        double[] values = float32 ? null : new double[length];
+        float[] floats = float32 ? new float[length] : null;
+        for (int z = 0; z < depth; z++) {
+            double[][] plane = planes.set(z, null);
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    int index = (x * height + y) * depth + z;
+                    if (float32) {
+                        floats[index] = (float) plane[x][y];
+                    } else {
+                        values[index] = plane[x][y];
+                    }
+                }
+            }
+        }
+        planes.clear();
+        return new PivotedStack(width, height, depth, values, floats);
+    }
+
+    /**
+     * @return the number of locations
+     */
+    int size()
+    {
+        return this.width * this.height;
+    }
+
+    /**
+     * @return quantile <code>z</code> of location <code>i</code>
+     */
+    double get(int i, int z)
+    {
+        int index = i * this.depth + z;
+        return this.values != null ? this.values[index] : this.floats[index];
+    }
+
+    /**
+     * Copies the quantiles of location <code>i</code> to <code>q</code>.
+     */
+    void location(int i, double[] q)
+    {
+        int offset = i * this.depth;
+        if (this.values != null) {
+            System.arraycopy(this.values, offset, q, 0, this.depth);
+        } else {
+            for (int z = 0; z < this.depth; z++) {
+                q[z] = this.floats[offset + z];
+            }
+        }
+    }
+
+    /**
+     * @return the stack of the given quantiles, in the same precision
+     */
+    PivotedStack subset(int[] slices)
+    {
+        int n = this.size();
+        int depth = slices.length;
+        double[] values = this.values != null ? new double[n * depth] : null;
+        float[] floats = this.floats != null ? new float[n * depth] : null;
+        for (int i = 0; i < n; i++) {
+            int from = i * this.depth;
+            int to = i * depth;
+            for (int k = 0; k < depth; k++) {
+                if (values != null) {
+                    values[to + k] = this.values[from + slices[k]];
+                } else {
+                    floats[to + k] = this.floats[from + slices[k]];
+                }
+            }
+        }
+        return new PivotedStack(
+            this.width, this.height, depth, values, floats);
+    }
+
+    /**
+     * @return the stack compressed to <code>size</code> quantiles, every
+     * one the mean of a run of adjacent quantiles, in the same precision
+     */
+    PivotedStack coarsen(int size)
+    {
+        int n = this.size();
+        double[] values = this.values != null ? new double[n * size] : null;
+        float[] floats = this.floats != null ? new float[n * size] : null;
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < size; k++) {
+                int from = (int) ((long) k * this.depth / size);
+                int to = (int) ((long) (k + 1) * this.depth / size);
+                double sum = 0.0;
+                for (int z = from; z < to; z++) {
+                    sum += this.get(i, z);
+                }
+                if (values != null) {
+                    values[i * size + k] = sum / (to - from);
+                } else {
+                    floats[i * size + k] = (float) (sum / (to - from));
+                }
+            }
+        }
+        return new PivotedStack(this.width, this.height, size, values, floats);
+    }
+}
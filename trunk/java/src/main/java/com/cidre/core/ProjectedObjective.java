@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.cidre.algorithms.Kernels;
+import com.cidre.algorithms.LineFunction;
+import com.cidre.algorithms.Objective;
+import com.cidre.algorithms.ObjectiveResult;
+
+/**
+ * Variable projection of a CAUCHY {@link CdrObjective}: a function of
+ * y = [v; zx; zy] only, with b minimising the objective for the given
+ * y at every location.  The fitting and zero-light terms are the only
+ * ones involving b, and each b only appears in its own location, so
+ * b is solved location by location with a few safeguarded Newton
+ * steps, starting from the solution at the last accepted iterate, so
+ * that the value at y does not depend on the trial steps evaluated
+ * before.  As the gradient wrt b vanishes at the solution, the
+ * gradient wrt y is that of the full objective.
+ */
+class ProjectedObjective implements Objective {
+
+    // Newton steps of every b and their tolerance relative to cauchy_w
+    private static final int B_ITERATIONS = 25;
+    private static final double B_TOLERANCE = 1e-4;
+
+    private final ModelGenerator generator;
+    private final CdrObjective objective;
+    private final int n;
+    // the solution b at the last accepted iterate, every solve starts
+    // from it
+    private final double[] b;
+
+    /**
+     * @param x full variables, b is the first estimate of the solution
+     */
+    ProjectedObjective(
+            ModelGenerator generator, CdrObjective objective, double[] x)
+    {
+        this.generator = generator;
+        this.objective = objective;
+        this.n = (x.length - 2) / 2;
+        this.b = Arrays.copyOfRange(x, this.n, 2 * this.n);
+    }
+
+    /**
+     * @return y = [v; zx; zy] of the full variables x
+     */
+    double[] reduce(double[] x)
+    {
+        double[] y = new double[this.n + 2];
+        System.arraycopy(x, 0, y, 0, this.n);
+        y[this.n] = x[2 * this.n];
+        y[this.n + 1] = x[2 * this.n + 1];
+        return y;
+    }
+
+    /**
+     * Accepts y as the iterate.
+     * @return the full variables of y with the solution b
+     */
+    double[] expand(double[] y)
+    {
+        double[] b = new double[this.n];
+        this.evaluate(y, b);
+        this.accept(b);
+        return this.full(y, b);
+    }
+
+    private double[] full(double[] y, double[] b)
+    {
+        double[] x = new double[2 * this.n + 2];
+        System.arraycopy(y, 0, x, 0, this.n);
+        System.arraycopy(b, 0, x, this.n, this.n);
+        x[2 * this.n] = y[this.n];
+        x[2 * this.n + 1] = y[this.n + 1];
+        return x;
+    }
+
+    /**
+     * Starts the solves of b from the given solution.
+     */
+    private void accept(double[] b)
+    {
+        System.arraycopy(b, 0, this.b, 0, this.n);
+    }
+
+    @Override
+    public ObjectiveResult evaluate(double[] y)
+    {
+        return this.evaluate(y, new double[this.n]);
+    }
+
+    /**
+     * @param b set to the solution for y
+     */
+    private ObjectiveResult evaluate(double[] y, double[] b)
+    {
+        CdrObjective o = this.objective;
+        this.generator.profiler.getMetrics().increment(
+            MetricsRegistry.OBJECTIVE_EVALUATIONS);
+        double[] energy_fit = new double[this.n];
+        double[] deriv_v_fit = new double[this.n];
+        double[] deriv_b_fit = new double[this.n];
+        this.solve(y, b, energy_fit, deriv_v_fit, deriv_b_fit);
+        ObjectiveResult result = this.generator.assembleObjective(
+            this.full(y, b), o.Q.length, o.pivotShiftX, o.pivotShiftY,
+            o.TERM, o.lambdaVreg, o.lambdaZero, energy_fit,
+            deriv_v_fit, deriv_b_fit);
+        result.G = this.reduce(result.G);
+        return result;
+    }
+
+    /**
+     * Every trial step is evaluated from the accepted iterate's b; the
+     * solution at the step taken becomes the new one.
+     */
+    @Override
+    public LineFunction line(double[] y)
+    {
+        final double[] origin = y.clone();
+        return new LineFunction() {
+
+            private double[] d;
+            // solutions of the trial steps along d
+            private final Map<Double, double[]> solutions =
+                new HashMap<Double, double[]>();
+
+            @Override
+            public void setDirection(double[] d) {
+                this.d = d;
+                this.solutions.clear();
+            }
+
+            @Override
+            public ObjectiveResult evaluate(double t) {
+                double[] b = new double[n];
+                ObjectiveResult result =
+                    ProjectedObjective.this.evaluate(this.at(t), b);
+                this.solutions.put(t, b);
+                return result;
+            }
+
+            @Override
+            public void advance(double t) {
+                double[] b = this.solutions.get(t);
+                if (b == null) {
+                    b = new double[n];
+                    ProjectedObjective.this.evaluate(this.at(t), b);
+                }
+                for (int j = 0; j < origin.length; j++) {
+                    origin[j] += t * this.d[j];
+                }
+                accept(b);
+                this.solutions.clear();
+            }
+
+            private double[] at(double t) {
+                double[] y2 = new double[origin.length];
+                for (int j = 0; j < y2.length; j++) {
+                    y2[j] = origin[j] + t * this.d[j];
+                }
+                return y2;
+            }
+        };
+    }
+
+    /**
+     * Solves b for y from the accepted solution and computes the
+     * fitting term at the solution.
+     * @param b_sol set to the solution
+     */
+    private void solve(
+            double[] y, double[] b_sol, double[] energy_fit,
+            double[] deriv_v_fit, double[] deriv_b_fit)
+    {
+        CdrObjective o = this.objective;
+        Kernels kernels = Kernels.get();
+        double[] Q = o.Q;
+        int depth = Q.length;
+        double data_size_factor = ModelGenerator.dataSizeFactor(depth);
+        double lambdaZero = o.TERM == 1 ? o.lambdaZero : 0.0;
+        double px = y[this.n] - o.pivotShiftX;
+        double zy = y[this.n + 1];
+        double w2 = o.cauchy_w * o.cauchy_w;
+        double tolerance = B_TOLERANCE * o.cauchy_w;
+        double[] q = new double[depth];
+        double[] sums = new double[3];
+        for (int i = 0; i < this.n; i++) {
+            o.stack.location(i, q);
+            double v = y[i];
+            // the zero-light term is lambdaZero * (b - c)^2
+            double c = zy - o.pivotShiftY[i] - v * px;
+            double b = this.b[i];
+            for (int k = 0; k < B_ITERATIONS; k++) {
+                double sumR = 0.0;
+                double sumW = 0.0;
+                double sumH = 0.0;
+                for (int z = 0; z < depth; z++) {
+                    double r = Q[z] * v + b - q[z];
+                    double weight = 1.0 / (1.0 + (r * r) / w2);
+                    sumR += weight * r;
+                    sumW += weight;
+                    sumH += weight * weight * (1.0 - (r * r) / w2);
+                }
+                // Newton step where convex, else the step to the
+                // minimum of the weighted least squares majoriser
+                double curvature =
+                    data_size_factor * sumH + 2 * lambdaZero;
+                if (!(curvature > 0)) {
+                    curvature =
+                        data_size_factor * sumW + 2 * lambdaZero;
+                }
+                double step = (data_size_factor * sumR
+                               + 2 * lambdaZero * (b - c))
+                            / curvature;
+                b -= step;
+                if (Math.abs(step) <= tolerance) {
+                    break;
+                }
+            }
+            b_sol[i] = b;
+            kernels.cauchy(q, 0, Q, v, b, w2, sums);
+            energy_fit[i] = sums[0];
+            deriv_v_fit[i] = sums[1];
+            deriv_b_fit[i] = sums[2];
+        }
+    }
+
+    /**
+     * The diagonal of the full objective with the curvature along b
+     * removed: every entry is reduced to its Schur complement with
+     * the b entries it is coupled to.
+     */
+    @Override
+    public double[] inverseHessianDiagonal(double[] y)
+    {
+        CdrObjective o = this.objective;
+        double[] Hinv = o.inverseHessianDiagonal(this.full(y, this.b));
+        double data_size_factor =
+            ModelGenerator.dataSizeFactor(o.Q.length);
+        double sumQ = 0.0;
+        for (int z = 0; z < o.Q.length; z++) {
+            sumQ += o.Q[z];
+        }
+        double lambdaZero = o.TERM == 1 ? o.lambdaZero : 0.0;
+        double H_VB = data_size_factor * sumQ
+                    + lambdaZero * 2 * (y[this.n] - o.pivotShiftX);
+        double H_ZX = 1.0 / Hinv[2 * this.n];
+        double H_ZY = 1.0 / Hinv[2 * this.n + 1];
+        for (int i = 0; i < this.n; i++) {
+            double H_V = 1.0 / Hinv[i];
+            double H_B = 1.0 / Hinv[this.n + i];
+            Hinv[i] = 1.0 / (H_V - H_VB * H_VB / H_B);
+            double H_ZXB = lambdaZero * 2 * y[i];
+            H_ZX -= H_ZXB * H_ZXB / H_B;
+            H_ZY -= lambdaZero * lambdaZero * 4 / H_B;
+        }
+        Hinv[2 * this.n] = 1.0 / H_ZX;
+        Hinv[2 * this.n + 1] = 1.0 / H_ZY;
+        return this.reduce(Hinv);
+    }
+}
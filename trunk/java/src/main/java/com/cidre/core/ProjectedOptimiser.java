@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cidre.algorithms.MinFuncOptions;
+import com.cidre.algorithms.MinFuncResult;
+import com.cidre.algorithms.Objective;
+import com.cidre.algorithms.Optimiser;
+import com.cidre.core.ModelGenerator.Mestimator;
+
+/**
+ * L-BFGS on the {@link ProjectedObjective} of a {@link CdrObjective},
+ * over v, zx and zy only.  The iterations are reported to the listeners
+ * but not checkpointed, as the optimiser state is not that of the full
+ * problem.
+ */
+class ProjectedOptimiser implements Optimiser {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(ProjectedOptimiser.class);
+
+    private final ModelGenerator generator;
+    private final MinFuncOptions minFuncOptions;
+    private final int stage;
+    private final double lambdaVreg;
+    private final double lambdaZero;
+
+    ProjectedOptimiser(
+            ModelGenerator generator, MinFuncOptions minFuncOptions,
+            int stage, double lambdaVreg, double lambdaZero)
+    {
+        this.generator = generator;
+        this.minFuncOptions = minFuncOptions;
+        this.stage = stage;
+        this.lambdaVreg = lambdaVreg;
+        this.lambdaZero = lambdaZero;
+    }
+
+    @Override
+    public MinFuncResult minimise(Objective objective, double[] x0)
+    {
+        if (!(objective instanceof CdrObjective)
+            || ((CdrObjective) objective).method != Mestimator.CAUCHY
+            || ((CdrObjective) objective).weights != null)
+        {
+            throw new IllegalArgumentException(
+                "Variable projection requires a CAUCHY objective");
+        }
+        log.info("Running minimization over v, zx and zy");
+        ProjectedObjective projected = new ProjectedObjective(
+            this.generator, (CdrObjective) objective, x0);
+        MinFuncResult minFuncResult = this.generator.minFunc(
+            projected, projected.reduce(x0), this.minFuncOptions,
+            this.stage, this.lambdaVreg, this.lambdaZero, false);
+        minFuncResult.x = projected.expand(minFuncResult.x);
+        return minFuncResult;
+    }
+}
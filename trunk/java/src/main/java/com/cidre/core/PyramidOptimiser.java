@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cidre.algorithms.MinFuncOptions;
+import com.cidre.algorithms.MinFuncResult;
+import com.cidre.algorithms.MultiscaleObjective;
+import com.cidre.algorithms.Objective;
+import com.cidre.algorithms.Optimiser;
+import com.cidre.io.Checkpoint;
+
+/**
+ * Coarse-to-fine optimisation of a {@link MultiscaleObjective} over the
+ * quantiles: the stage is first optimised on the stack compressed to
+ * {@link #BASE} quantiles, then to twice as many and so on, each level
+ * starting from the solution of the previous one, and finally on the
+ * whole stack.  The early iterations, where the solution moves most,
+ * thus read a fraction of the stack.  Every level is reported to the
+ * listeners as it runs; only the whole stack is checkpointed, and
+ * resuming within the stage goes straight to it.
+ */
+class PyramidOptimiser implements Optimiser {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(PyramidOptimiser.class);
+
+    // quantiles of the coarsest level
+    private static final int BASE = 25;
+
+    private final ModelGenerator generator;
+    private final MinFuncOptions minFuncOptions;
+    private final int stage;
+    private final double lambdaVreg;
+    private final double lambdaZero;
+
+    PyramidOptimiser(
+            ModelGenerator generator, MinFuncOptions minFuncOptions,
+            int stage, double lambdaVreg, double lambdaZero)
+    {
+        this.generator = generator;
+        this.minFuncOptions = minFuncOptions;
+        this.stage = stage;
+        this.lambdaVreg = lambdaVreg;
+        this.lambdaZero = lambdaZero;
+    }
+
+    @Override
+    public MinFuncResult minimise(Objective objective, double[] x0)
+    {
+        MinFuncOptions options = this.minFuncOptions;
+        long startTime = System.nanoTime();
+        double[] x = x0;
+        int funEvals = 0;
+        Checkpoint resume = this.generator.resumeState;
+        if (objective instanceof MultiscaleObjective
+            && (resume == null || resume.stage != this.stage))
+        {
+            MultiscaleObjective multiscale =
+                (MultiscaleObjective) objective;
+            for (int size = BASE; size < multiscale.size(); size *= 2) {
+                log.info("Optimising on {} quantiles", size);
+                MinFuncOptions level = this.remaining(
+                    options, startTime, funEvals);
+                MinFuncResult result = this.generator.createOptimiser(
+                    level, this.stage, this.lambdaVreg, this.lambdaZero,
+                    false).minimise(multiscale.coarsen(size), x);
+                x = result.x;
+                funEvals += result.funEvals;
+                if (result.exitflag < 0) {
+                    // stopped, interrupted or out of time
+                    result.funEvals = funEvals;
+                    return result;
+                }
+            }
+        }
+        MinFuncResult minFuncResult = this.generator.createOptimiser(
+            this.remaining(options, startTime, funEvals), this.stage,
+            this.lambdaVreg, this.lambdaZero, true).minimise(
+                objective, x);
+        minFuncResult.funEvals += funEvals;
+        return minFuncResult;
+    }
+
+    /**
+     * The options with the budgets left after the previous levels.
+     */
+    private MinFuncOptions remaining(
+            MinFuncOptions options, long startTime, int funEvals)
+    {
+        MinFuncOptions level = options.copy();
+        if (options.maxTime > 0) {
+            long elapsed = (System.nanoTime() - startTime) / 1000000;
+            level.maxTime = Math.max(1, options.maxTime - elapsed);
+        }
+        level.MaxFunEvals = Math.max(1, options.MaxFunEvals - funEvals);
+        return level;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import loci.formats.FormatTools;
+
+/**
+ * Writes diagnostic intermediates of a model build (Q, pivot shifts,
+ * surfaces after each stage, residual maps, ...) as double precision TIFFs
+ * to a directory.  Writes happen on a background thread; the data is copied
+ * when submitted, so callers may modify their arrays right away.  At most a
+ * few artifacts are queued, after which the submitting thread writes
+ * itself.  Failures are logged and never affect the model build.
+ * <p>
+ * Code producing artifacts should hold a <code>null</code> sink when
+ * diagnostics are disabled, so no data is copied and no I/O happens.
+ */
+public class ArtifactSink implements Closeable {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(ArtifactSink.class);
+
+    private final File directory;
+
+    private final ThreadPoolExecutor executor;
+
+    public ArtifactSink(String directory) {
+        this.directory = new File(directory);
+        this.executor = new ThreadPoolExecutor(
+            1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(4),
+            runnable -> {
+                Thread thread = new Thread(runnable, "cidre-artifacts");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Writes a plane stored column-major (<code>x * height + y</code>), as
+     * in {@link com.cidre.core.ModelDescriptor}.
+     */
+    public void write(String name, double[] values, int width, int height) {
+        final double[] copy = values.clone();
+        final File file = new File(this.directory, name + ".tif");
+        this.executor.execute(() -> {
+            try {
+                if (!this.directory.isDirectory()) {
+                    this.directory.mkdirs();
+                }
+                if (file.exists()) {
+                    file.delete();
+                }
+                BfImageWriter writer = new BfImageWriter(
+                    file.getPath(), width, height,
+                    FormatTools.getPixelTypeString(FormatTools.DOUBLE));
+                writer.initialise();
+                writer.write(copy, 0);
+                writer.close();
+                log.debug("Wrote artifact {}", file);
+            } catch (Exception e) {
+                log.error("Could not write artifact {}", file, e);
+            }
+        });
+    }
+
+    /**
+     * Writes a vector as a single row plane.
+     */
+    public void write(String name, double[] values) {
+        this.write(name, values, values.length, 1);
+    }
+
+    public void write(String name, double value) {
+        this.write(name, new double[] {value}, 1, 1);
+    }
+
+    /**
+     * Waits for all pending writes to finish.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(10, TimeUnit.MINUTES)) {
+                log.error("Timed out writing artifacts to {}",
+                          this.directory);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -20,10 +20,12 @@
 package com.cidre.io;
 
 import java.awt.Dimension;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -31,7 +33,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cidre.algorithms.CidreMath;
+import com.cidre.algorithms.Diagnostics;
+import com.cidre.algorithms.Kernels;
+import com.cidre.core.MetricsRegistry;
 import com.cidre.core.Options;
+import com.cidre.core.PhaseProfiler;
+import com.cidre.jfr.Jfr;
+import com.cidre.jfr.PlaneDecodeEvent;
 import com.cidre.preprocessing.CidrePreprocess;
 
 import loci.common.services.DependencyException;
@@ -39,8 +47,11 @@ import loci.common.services.ServiceException;
 import loci.common.services.ServiceFactory;
 import loci.common.DataTools;
 import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
+import loci.formats.Memoizer;
 import loci.formats.in.DefaultMetadataOptions;
+import loci.formats.in.MetadataLevel;
 import loci.formats.in.MetadataOptions;
 import loci.formats.services.OMEXMLService;
 
@@ -49,6 +60,9 @@ public class BfImageLoader extends ImageLoader {
     private static final Logger log =
             LoggerFactory.getLogger(BfImageLoader.class);
 
+    /** planes read to estimate the entropy of an entropy sized sample */
+    private static final int PILOT_SAMPLE = 200;
+
     // passed in
     private List<Integer> series = new ArrayList<Integer>();
     private List<Integer> zSections = new ArrayList<Integer>();
@@ -68,7 +82,13 @@ public class BfImageLoader extends ImageLoader {
     private int sizeZ;
     private int pixelType;
 
-    private List<ImageReader> readers;
+    private static OMEXMLService omeXmlService;
+
+    private List<IFormatReader> readers;
+
+    private BfImageSession session;
+
+    private boolean ownsSession;
 
     public BfImageLoader(
             Options options, String source,
@@ -79,7 +99,7 @@ public class BfImageLoader extends ImageLoader {
         this.series = new ArrayList<Integer>(series);
         this.timepoints = new ArrayList<Integer>(timepoints);
         this.zSections = new ArrayList<Integer>(zSections);
-        this.readers = new ArrayList<ImageReader>();
+        this.readers = new ArrayList<IFormatReader>();
     }
 
     public BfImageLoader(
@@ -91,28 +111,40 @@ public class BfImageLoader extends ImageLoader {
         this.series = new ArrayList<Integer>(series);
         this.timepoints = Arrays.asList(timepoint);
         this.zSections = Arrays.asList(zSection);
-        this.readers = new ArrayList<ImageReader>();
+        this.readers = new ArrayList<IFormatReader>();
     }
 
     public BfImageLoader(Options options, String source) {
         super(options, source);
-        this.readers = new ArrayList<ImageReader>();
+        this.readers = new ArrayList<IFormatReader>();
+    }
+
+    /**
+     * Creates a loader reading from the readers of an existing session.
+     * The session is left open when the loader is closed.
+     */
+    public BfImageLoader(Options options, BfImageSession session) {
+        super(options, null);
+        this.readers = new ArrayList<IFormatReader>();
+        this.session = session;
     }
 
     @Override
     public boolean initialise() throws Exception {
-        this.getFileList(this.source);
+        if (this.session == null) {
+            this.getFileList(this.source);
+            this.session = new BfImageSession(
+                this.options.fileNames, this.options.leanMetadata,
+                this.options.memoDirectory);
+            this.ownsSession = true;
+        } else {
+            this.options.fileNames.clear();
+            this.options.fileNames.addAll(this.session.getFileNames());
+        }
+        this.session.open();
         this.populateDimensions(); //  Call it first!!!!!!
         this.readers.clear();
-        for (String fileName : this.options.fileNames) {
-            ImageReader reader = new ImageReader();
-            BfImageLoader.initializeReader(reader);
-            reader.setId(fileName);
-            if (!this.checkReaderDimensions(reader)) {
-                return false;
-            }
-            this.readers.add(reader);
-        }
+        this.readers.addAll(this.session.getReaders());
         // store the number of source images into the options structure
         int numberOfS =
             this.series.isEmpty() ? this.sizeS : this.series.size();
@@ -121,12 +153,19 @@ public class BfImageLoader extends ImageLoader {
         int numberOfZ =
             this.zSections.isEmpty() ? this.sizeZ : this.zSections.size();
         this.options.numImagesProvided = numberOfS * numberOfT * numberOfZ;
-        log.info("Using {} images to build the model",
-                 this.options.numImagesProvided);
         if (this.options.numImagesProvided <= 0) {
             log.error("Empty dimension found. Nothing to read.");
             return false;
         }
+        if (this.options.planeSample != null
+                && this.options.planeSample > 0)
+        {
+            this.options.numImagesProvided = Math.min(
+                this.options.planeSample,
+                this.options.numImagesProvided * this.readers.size());
+        }
+        log.info("Using {} images to build the model",
+                 this.options.numImagesProvided);
         this.options.imageSize = new Dimension(this.sizeX, this.sizeY);
         this.options.workingSize = determineWorkingSize(
             this.options.imageSize, this.options.targetNumPixels);
@@ -134,6 +173,10 @@ public class BfImageLoader extends ImageLoader {
         return true;
     }
 
+    public boolean isInitialised() {
+        return this.initialised;
+    }
+
     @Override
     public boolean loadImages(int channel) throws Exception {
         log.info("Loading planes from channel {}", channel);
@@ -141,11 +184,52 @@ public class BfImageLoader extends ImageLoader {
             this.initialise();
         }
         this.checkRequestedDimensions();
-        this.readPlanes(channel);
+        StackCache cache = null;
+        String key = null;
+        if (this.options.cacheDirectory != null) {
+            cache = new StackCache(this.options.cacheDirectory);
+            key = this.getStackKey(channel);
+            StackCache.Entry entry = cache.load(key);
+            if (entry != null) {
+                this.S = entry.stack;
+                this.maxI = entry.maxI;
+                this.options.bitDepth = entry.bitDepth;
+                this.minImage = entry.minImage;
+                return true;
+            }
+        }
+        try (PhaseProfiler.Measurement m =
+                this.profiler.start(PhaseProfiler.LOAD))
+        {
+            this.readPlanes(channel);
+        }
         this.preprocessData();
+        if (cache != null) {
+            StackCache.Entry entry = new StackCache.Entry();
+            entry.stack = this.S;
+            entry.maxI = this.maxI;
+            entry.bitDepth = this.options.bitDepth;
+            entry.minImage = this.minImage;
+            cache.store(key, entry);
+        }
         return true;
     }
 
+    /**
+     * Identity of the preprocessed stack of a channel: the input files, the
+     * plane selection and the preprocessing options; see
+     * {@link StackCache#getKey}.
+     */
+    public String getStackKey(int channel) throws Exception {
+        if (!this.initialised) {
+            this.initialise();
+        }
+        this.checkRequestedDimensions();
+        return StackCache.getKey(
+            this.options.fileNames, channel, this.series, this.zSections,
+            this.timepoints, this.requestedBitDepth, this.options);
+    }
+
     private void populateDimensions() throws Exception {
         if (!this.series.isEmpty()) {
             this.maxS = Collections.max(this.series);
@@ -162,9 +246,7 @@ public class BfImageLoader extends ImageLoader {
         } else {
             this.maxZ = -1;
         }
-        ImageReader reader = new ImageReader();
-        BfImageLoader.initializeReader(reader);
-        reader.setId(this.options.fileNames.get(0));
+        IFormatReader reader = this.session.getReaders().get(0);
         if (!this.series.isEmpty()) {
             reader.setSeries(this.series.get(0));
         } else {
@@ -197,20 +279,66 @@ public class BfImageLoader extends ImageLoader {
         }
     }
 
-    public static void initializeReader(ImageReader reader)
+    /**
+     * Returns the OME-XML service shared by all readers.
+     */
+    public static synchronized OMEXMLService getOMEXMLService()
+            throws DependencyException
+    {
+        if (omeXmlService == null) {
+            ServiceFactory factory = new ServiceFactory();
+            omeXmlService = factory.getInstance(OMEXMLService.class);
+        }
+        return omeXmlService;
+    }
+
+    public static void initializeReader(IFormatReader reader)
+            throws DependencyException, ServiceException
+    {
+        BfImageLoader.initializeReader(reader, false);
+    }
+
+    /**
+     * Configures the metadata handling of a reader.
+     * @param reader reader to configure, before its id is set
+     * @param lean skip original metadata population and OME-XML validation
+     * and only parse the minimum metadata needed to read pixels
+     */
+    public static void initializeReader(IFormatReader reader, boolean lean)
             throws DependencyException, ServiceException
     {
-        reader.setOriginalMetadataPopulated(true);
-        ServiceFactory factory = new ServiceFactory();
-        OMEXMLService service = factory.getInstance(OMEXMLService.class);
+        reader.setOriginalMetadataPopulated(!lean);
         reader.setMetadataStore(
-            service.createOMEXMLMetadata(null, null));
-        MetadataOptions options = new DefaultMetadataOptions();
-        options.setValidate(true);
+            BfImageLoader.getOMEXMLService().createOMEXMLMetadata(null, null));
+        MetadataOptions options = lean ?
+            new DefaultMetadataOptions(MetadataLevel.MINIMUM) :
+            new DefaultMetadataOptions();
+        options.setValidate(!lean);
         reader.setMetadataOptions(options);
     }
 
-    private boolean checkDimensions(ImageReader reader)
+    /**
+     * Creates an initialised reader.
+     * @param lean see {@link #initializeReader(IFormatReader, boolean)}
+     * @param memoDirectory if not <code>null</code> the reader is wrapped in
+     * a {@link Memoizer} caching the parsed reader state in this directory,
+     * making re-opening the same file nearly free
+     */
+    public static IFormatReader createReader(
+            boolean lean, String memoDirectory)
+        throws DependencyException, ServiceException
+    {
+        IFormatReader reader = new ImageReader();
+        BfImageLoader.initializeReader(reader, lean);
+        if (memoDirectory != null) {
+            File directory = new File(memoDirectory);
+            directory.mkdirs();
+            reader = new Memoizer(reader, 0, directory);
+        }
+        return reader;
+    }
+
+    private boolean checkDimensions(IFormatReader reader)
     {
         boolean noError = true;
         if (maxS >= reader.getSeriesCount()) {
@@ -228,42 +356,6 @@ public class BfImageLoader extends ImageLoader {
         return noError;
     }
 
-    private boolean checkReaderDimensions(ImageReader reader) {
-        boolean noError = true;
-        if (this.sizeS != reader.getSeriesCount()) {
-            log.error("Series count differes for {}", reader.getCurrentFile());
-            noError = false;
-        }
-        if (this.sizeC != reader.getSizeC()) {
-            log.error("Channel count differs for {}", reader.getCurrentFile());
-            noError = false;
-        }
-        if (this.sizeT != reader.getSizeT()) {
-            log.error(
-                "Timepoints count differs for {}", reader.getCurrentFile());
-            noError = false;
-        }
-        if (this.sizeZ != reader.getSizeZ()) {
-            log.error(
-                "Z section count differs for {}", reader.getCurrentFile());
-            noError = false;
-        }
-        if (this.sizeX != reader.getSizeX()) {
-            log.error(
-                "Width differs for {}", reader.getCurrentFile());
-            noError = false;
-        }
-        if (this.sizeY != reader.getSizeY()) {
-            log.error(
-                "Height differs for {}", reader.getCurrentFile());
-            noError = false;
-        }
-        if (this.pixelType != reader.getPixelType()) {
-            log.error("Pixel type differs for {}", reader.getCurrentFile());
-        }
-        return noError;
-    }
-
     public static double[][] toDoubleArray(
             byte[] b, int bpp, boolean fp, boolean little, boolean unsigned,
             int width, int height)
@@ -286,10 +378,14 @@ public class BfImageLoader extends ImageLoader {
             if (!unsigned)
                 minValue = (double) (Short.MIN_VALUE);
             log.debug("Converting to double array with min={}", minValue);
+            // decode a row at a time, then transpose
+            Kernels kernels = Kernels.get();
+            double[] row = new double[width];
             for (int y = 0; y < height; y++) {
+                kernels.uint16ToDoubles(
+                    b, y * 2 * width, little, -minValue, row);
                 for(int x = 0; x < width; x++) {
-                    doubles[x][y] = (double) (DataTools.bytesToInt(
-                        b, x * 2 + y * 2 * width, 2, little) - minValue);
+                    doubles[x][y] = row[x];
                 }
             }
             return doubles;
@@ -424,80 +520,162 @@ public class BfImageLoader extends ImageLoader {
         }
         this.S.clear();
         this.maxI = 0.0;
-        for (ImageReader reader : this.readers)
-        {
-            log.info("Reading planes from {}", reader.getCurrentFile());
-            this.loadPlanes(reader, channel);
+        this.minImage = null;
+        log.info("Image dimensions. S: {}, T: {}, Z: {}",
+                 this.series.size(), this.timepoints.size(),
+                 this.zSections.size());
+        int total = this.readers.size() * this.series.size() *
+            this.zSections.size() * this.timepoints.size();
+        if (this.options.planeSample == null) {
+            this.loadPlanes(IntStream.range(0, total).toArray(), channel);
+            return;
+        }
+
+        // the sample is a prefix of a seeded order of all planes, so an
+        // entropy sized sample extends its pilot sample
+        int[] order = BfImageLoader.samplingOrder(
+            total, this.zSections.size() * this.timepoints.size(),
+            this.options.stratifiedSample, this.options.sampleSeed);
+        int sampled = Math.min(
+            this.options.planeSample > 0 ?
+                this.options.planeSample : PILOT_SAMPLE, total);
+        this.loadPlanes(
+            BfImageLoader.sortedRange(order, 0, sampled), channel);
+        if (this.options.planeSample <= 0 && sampled < total) {
+            this.setBitDepth();
+            double entropy = CidrePreprocess.getEntropy(this.options, this.S);
+            int required = (int) Math.min(
+                total, Math.ceil(ImageLoader.requiredNumImages(entropy)));
+            log.info(
+                "Pilot sample of {} planes has entropy={}, {} planes " +
+                "required", sampled, entropy, required);
+            if (required > sampled) {
+                this.loadPlanes(
+                    BfImageLoader.sortedRange(order, sampled, required),
+                    channel);
+                sampled = required;
+            }
         }
+        this.options.numImagesProvided = sampled;
+        // the rank of a quantile estimated from n samples has a standard
+        // error of at most 0.5 / sqrt(n)
+        log.info(
+            "Sampled {} of {} planes ({} sampling, seed {}), quantile " +
+            "rank standard error <= {}", sampled, total,
+            this.options.stratifiedSample ? "stratified" : "uniform",
+            this.options.sampleSeed, 0.5 / Math.sqrt(sampled));
     }
 
-    private void loadPlanes(ImageReader reader, int channel) throws Exception
+    /**
+     * Returns a seeded order of the plane indices of all readers, either
+     * uniformly shuffled or taking turns between the series of the readers
+     * so that every prefix is stratified by series.
+     * @param total number of planes of all series
+     * @param planesPerSeries number of consecutive planes of a series
+     */
+    static int[] samplingOrder(
+            int total, int planesPerSeries, boolean stratify, long seed)
     {
-        boolean fp = false;
-        boolean unsigned = false;
-        if (reader.getPixelType() == loci.formats.FormatTools.FLOAT ||
-            reader.getPixelType() == loci.formats.FormatTools.DOUBLE)
-        {
-            fp = true;
+        Random random = new Random(seed);
+        int[] order = IntStream.range(0, total).toArray();
+        if (!stratify) {
+            BfImageLoader.shuffle(order, 0, total, random);
+            return order;
+        }
+        int numberOfSeries = total / planesPerSeries;
+        for (int k = 0; k < numberOfSeries; k++) {
+            BfImageLoader.shuffle(
+                order, k * planesPerSeries, (k + 1) * planesPerSeries,
+                random);
+        }
+        int[] strata = IntStream.range(0, numberOfSeries).toArray();
+        int[] stratified = new int[total];
+        int i = 0;
+        for (int j = 0; j < planesPerSeries; j++) {
+            // visit the series in a new order every turn, so the planes
+            // left over by a sample are spread evenly between the series
+            BfImageLoader.shuffle(strata, 0, numberOfSeries, random);
+            for (int k : strata) {
+                stratified[i++] = order[k * planesPerSeries + j];
+            }
         }
-        if (reader.getPixelType() == loci.formats.FormatTools.UINT8 ||
-            reader.getPixelType() == loci.formats.FormatTools.UINT16 ||
-            reader.getPixelType() == loci.formats.FormatTools.UINT32)
-        {
-            unsigned = true;
+        return stratified;
+    }
+
+    private static void shuffle(int[] values, int from, int to, Random random)
+    {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + random.nextInt(i - from + 1);
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
         }
+    }
 
-        double min, max;
-        double[][] minImage = new double[this.sizeX][this.sizeY];
-        int planeCounter = 0;
-        log.info("Image dimensions. S: {}, T: {}, Z: {}",
-                 this.series.size(), this.timepoints.size(),
-                 this.zSections.size());
-        log.info(
-            "Loading {} planes",
-            this.series.size() * this.timepoints.size() *
-            this.zSections.size());
-        for (int s : this.series) {
-            reader.setSeries(s);
-            for (int z : this.zSections) {
-                for (int t : this.timepoints) {
-                   byte[] plane = reader.openBytes(
-                       reader.getIndex(z, channel, t));
-                   double[][] planeDouble = BfImageLoader.toDoubleArray(
-                       plane, (int) (0.125 * reader.getBitsPerPixel()),
-                       fp, reader.isLittleEndian(), unsigned,
-                       this.sizeX, this.sizeY);
-                   if (planeDouble == null) {
-                       throw new Exception("We got no pixels.");
-                   }
-
-                   double[][] planeRescaled = CidrePreprocess.imresize(
-                       planeDouble, this.sizeX, this.sizeY,
-                       this.options.workingSize.width,
-                       this.options.workingSize.height);
-                   max = this.findMax(planeRescaled);
-                   min = this.findMin(planeRescaled);
-                   this.maxI = Math.max(this.maxI, max);
-                   log.debug("Series {}, Min/Max: [{}, {}]", s, min, max);
-                   this.S.add(planeRescaled);
-                   if (planeCounter == 0) {
-                       minImage = planeDouble.clone();
-                   } else {
-                       minImage = CidreMath.min(planeDouble, minImage);
-                   }
-                   planeCounter++;
-                }
+    static int[] sortedRange(int[] values, int from, int to) {
+        int[] range = Arrays.copyOfRange(values, from, to);
+        Arrays.sort(range);
+        return range;
+    }
+
+    /**
+     * Loads planes by index into the stack, the index running over the
+     * readers, series, z-sections and timepoints in that order.
+     */
+    private void loadPlanes(int[] planes, int channel) throws Exception
+    {
+        int planesPerSeries =
+            this.zSections.size() * this.timepoints.size();
+        int planesPerReader = this.series.size() * planesPerSeries;
+        log.info("Loading {} planes", planes.length);
+        IFormatReader reader = null;
+        int currentSeries = -1;
+        for (int plane : planes) {
+            IFormatReader next = this.readers.get(plane / planesPerReader);
+            int s = this.series.get(
+                (plane % planesPerReader) / planesPerSeries);
+            int z = this.zSections.get(
+                (plane % planesPerSeries) / this.timepoints.size());
+            int t = this.timepoints.get(plane % this.timepoints.size());
+            if (next != reader) {
+                reader = next;
+                currentSeries = -1;
+                log.info("Reading planes from {}", reader.getCurrentFile());
+            }
+            if (s != currentSeries) {
+                reader.setSeries(s);
+                currentSeries = s;
             }
+            this.loadPlane(reader, channel, s, z, t);
         }
-        max = CidreMath.max(minImage);
-        min = CidreMath.min(minImage);
         log.debug(
             "Min Image stats: mean: {}, max: {}, min: {}",
-            CidreMath.mean(minImage), max, min);
-        this.minImage = minImage.clone();
+            Diagnostics.mean(this.minImage), Diagnostics.max(this.minImage),
+            Diagnostics.min(this.minImage));
+    }
+
+    private void loadPlane(
+            IFormatReader reader, int channel, int s, int z, int t)
+        throws Exception
+    {
+        double[][] planeDouble = this.decodePlane(reader, s, channel, t, z);
+        double[][] planeRescaled = CidrePreprocess.imresize(
+            planeDouble, this.sizeX, this.sizeY,
+            this.options.workingSize.width,
+            this.options.workingSize.height);
+        double max = this.findMax(planeRescaled);
+        this.maxI = Math.max(this.maxI, max);
+        log.debug("Series {}, Min/Max: [{}, {}]",
+                  s, Diagnostics.min(planeRescaled), max);
+        this.S.add(planeRescaled);
+        if (this.minImage == null) {
+            this.minImage = planeDouble.clone();
+        } else {
+            this.minImage = CidreMath.min(planeDouble, this.minImage);
+        }
     }
 
-    private ImageReader getReaderByPlane(Integer planeIndex) {
+    private IFormatReader getReaderByPlane(Integer planeIndex) {
         return this.readers.get(0);
     }
 
@@ -588,39 +766,30 @@ public class BfImageLoader extends ImageLoader {
         int timepoint = 0;
         int zPlane = 0;
         int series = 0;
-        ImageReader reader = this.getReaderByPlane(planeIndex);
+        IFormatReader reader = this.getReaderByPlane(planeIndex);
         reader.setSeries(series);
-        boolean fp = false;
-        boolean unsigned = false;
-        if (reader.getPixelType() == loci.formats.FormatTools.FLOAT ||
-            reader.getPixelType() == loci.formats.FormatTools.DOUBLE)
-        {
-            fp = true;
-        }
-        if (reader.getPixelType() == loci.formats.FormatTools.UINT8 ||
-            reader.getPixelType() == loci.formats.FormatTools.UINT16 ||
-            reader.getPixelType() == loci.formats.FormatTools.UINT32)
-        {
-            unsigned = true;
-        }
-        byte[] plane = reader.openBytes(
-            reader.getIndex(zPlane, channel, timepoint));
-        double[][] planeDouble = BfImageLoader.toDoubleArray(
-                plane, (int) (0.125 * reader.getBitsPerPixel()),
-                fp, reader.isLittleEndian(), unsigned,
-                this.sizeX, this.sizeY);
-        if (planeDouble == null) {
-            throw new Exception("We got no pixels.");
-        }
-        return planeDouble;
+        return this.decodePlane(reader, series, channel, timepoint, zPlane);
     }
 
     @Override
     public double[][] loadPlane(
         int series, int channel, int timepoint, int zPlane) throws Exception
     {
-        ImageReader reader = this.readers.get(0);
+        IFormatReader reader = this.readers.get(0);
         reader.setSeries(series);
+        return this.decodePlane(reader, series, channel, timepoint, zPlane);
+    }
+
+    /**
+     * Reads and decodes a plane of the current series of a reader,
+     * counting it in the decoder metrics and, when recording, emitting a
+     * plane decode event.
+     */
+    private double[][] decodePlane(
+            IFormatReader reader, int series, int channel, int timepoint,
+            int zPlane)
+        throws Exception
+    {
         boolean fp = false;
         boolean unsigned = false;
         if (reader.getPixelType() == FormatTools.FLOAT ||
@@ -634,12 +803,32 @@ public class BfImageLoader extends ImageLoader {
         {
             unsigned = true;
         }
-        byte[] plane = reader.openBytes(
-            reader.getIndex(zPlane, channel, timepoint));
-        double[][] planeDouble = BfImageLoader.toDoubleArray(
+        MetricsRegistry metrics = this.profiler.getMetrics();
+        int index = reader.getIndex(zPlane, channel, timepoint);
+        byte[] plane;
+        double[][] planeDouble;
+        PlaneDecodeEvent event = Jfr.ENABLED ? new PlaneDecodeEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        try (MetricsRegistry.Context c =
+                metrics.time(MetricsRegistry.DECODE))
+        {
+            plane = reader.openBytes(index);
+            planeDouble = BfImageLoader.toDoubleArray(
                 plane, (int) (0.125 * reader.getBitsPerPixel()),
                 fp, reader.isLittleEndian(), unsigned,
                 this.sizeX, this.sizeY);
+        }
+        metrics.increment(MetricsRegistry.PLANES_DECODED);
+        metrics.increment(MetricsRegistry.BYTES_DECODED, plane.length);
+        if (event != null) {
+            event.file = reader.getCurrentFile();
+            event.series = series;
+            event.plane = index;
+            event.bytes = plane.length;
+            event.commit();
+        }
         if (planeDouble == null) {
             throw new Exception("We got no pixels.");
         }
@@ -663,4 +852,26 @@ public class BfImageLoader extends ImageLoader {
     public int getSizeC() {
         return this.sizeC;
     }
+
+    public int getPixelType() {
+        return this.pixelType;
+    }
+
+    public BfImageSession getSession() {
+        return this.session;
+    }
+
+    /**
+     * Releases the readers. The underlying session is closed only if it was
+     * created by this loader.
+     */
+    public void close() throws Exception {
+        if (this.session != null && this.ownsSession) {
+            this.session.close();
+            this.session = null;
+            this.ownsSession = false;
+        }
+        this.readers.clear();
+        this.initialised = false;
+    }
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.cidre.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import loci.formats.IFormatReader;
+
+/**
+ * Owns the initialised Bio-Formats readers of a set of input files and their
+ * dimensions for the lifetime of a CIDRE run, so that model building, saving
+ * and applying share the readers and every file is opened and its metadata
+ * parsed only once.
+ */
+public class BfImageSession {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(BfImageSession.class);
+
+    private final List<String> fileNames;
+
+    private final List<IFormatReader> readers =
+        new ArrayList<IFormatReader>();
+
+    private final boolean leanMetadata;
+
+    private final String memoDirectory;
+
+    private boolean open = false;
+
+    // derived from the first reader
+    private int sizeX;
+    private int sizeY;
+    private int sizeS;
+    private int sizeC;
+    private int sizeT;
+    private int sizeZ;
+    private int pixelType;
+
+    /**
+     * @param source file path, optionally with `*` wildcards in the name
+     */
+    public BfImageSession(String source) {
+        this(ImageLoader.findFiles(source), false, null);
+    }
+
+    /**
+     * @param source file path, optionally with `*` wildcards in the name
+     * @param leanMetadata skip original metadata and OME-XML validation
+     * @param memoDirectory directory for Bio-Formats memo files or
+     * <code>null</code> to disable memoization
+     */
+    public BfImageSession(
+            String source, boolean leanMetadata, String memoDirectory)
+    {
+        this(ImageLoader.findFiles(source), leanMetadata, memoDirectory);
+    }
+
+    public BfImageSession(
+            List<String> fileNames, boolean leanMetadata, String memoDirectory)
+    {
+        this.fileNames = new ArrayList<String>(fileNames);
+        this.leanMetadata = leanMetadata;
+        this.memoDirectory = memoDirectory;
+    }
+
+    /**
+     * Opens a reader for every file, unless the session is already open.
+     * Dimensions are taken from the first series of the first file and all
+     * other files are checked against them.
+     * @throws Exception if no files were found, a file could not be read
+     * or the dimensions differ between the files
+     */
+    public synchronized void open() throws Exception {
+        if (this.open) {
+            return;
+        }
+        if (this.fileNames.isEmpty()) {
+            throw new Exception("No input files found.");
+        }
+        try {
+            for (String fileName : this.fileNames) {
+                log.info("Opening {}", fileName);
+                IFormatReader reader = BfImageLoader.createReader(
+                    this.leanMetadata, this.memoDirectory);
+                reader.setId(fileName);
+                this.readers.add(reader);
+                if (this.readers.size() == 1) {
+                    this.populateDimensions(reader);
+                } else if (!this.checkReaderDimensions(reader)) {
+                    throw new Exception(
+                        "Dimensions of " + fileName + " differ.");
+                }
+            }
+        } catch (Exception e) {
+            this.close();
+            throw e;
+        }
+        this.open = true;
+    }
+
+    public synchronized boolean isOpen() {
+        return this.open;
+    }
+
+    /**
+     * Closes all readers. The session may be re-opened afterwards.
+     */
+    public synchronized void close() throws Exception {
+        for (IFormatReader reader : this.readers) {
+            reader.close();
+        }
+        this.readers.clear();
+        this.open = false;
+    }
+
+    private void populateDimensions(IFormatReader reader) {
+        reader.setSeries(0);
+        this.sizeS = reader.getSeriesCount();
+        this.sizeC = reader.getSizeC();
+        this.sizeT = reader.getSizeT();
+        this.sizeZ = reader.getSizeZ();
+        this.sizeX = reader.getSizeX();
+        this.sizeY = reader.getSizeY();
+        this.pixelType = reader.getPixelType();
+    }
+
+    private boolean checkReaderDimensions(IFormatReader reader) {
+        boolean noError = true;
+        if (this.sizeS != reader.getSeriesCount()) {
+            log.error("Series count differes for {}", reader.getCurrentFile());
+            noError = false;
+        }
+        if (this.sizeC != reader.getSizeC()) {
+            log.error("Channel count differs for {}", reader.getCurrentFile());
+            noError = false;
+        }
+        if (this.sizeT != reader.getSizeT()) {
+            log.error(
+                "Timepoints count differs for {}", reader.getCurrentFile());
+            noError = false;
+        }
+        if (this.sizeZ != reader.getSizeZ()) {
+            log.error(
+                "Z section count differs for {}", reader.getCurrentFile());
+            noError = false;
+        }
+        if (this.sizeX != reader.getSizeX()) {
+            log.error(
+                "Width differs for {}", reader.getCurrentFile());
+            noError = false;
+        }
+        if (this.sizeY != reader.getSizeY()) {
+            log.error(
+                "Height differs for {}", reader.getCurrentFile());
+            noError = false;
+        }
+        if (this.pixelType != reader.getPixelType()) {
+            log.error("Pixel type differs for {}", reader.getCurrentFile());
+        }
+        return noError;
+    }
+
+    public List<String> getFileNames() {
+        return Collections.unmodifiableList(this.fileNames);
+    }
+
+    public List<IFormatReader> getReaders() {
+        return Collections.unmodifiableList(this.readers);
+    }
+
+    public int getSizeX() {
+        return this.sizeX;
+    }
+
+    public int getSizeY() {
+        return this.sizeY;
+    }
+
+    public int getSizeS() {
+        return this.sizeS;
+    }
+
+    public int getSizeC() {
+        return this.sizeC;
+    }
+
+    public int getSizeT() {
+        return this.sizeT;
+    }
+
+    public int getSizeZ() {
+        return this.sizeZ;
+    }
+
+    public int getPixelType() {
+        return this.pixelType;
+    }
+}
@@ -27,13 +27,11 @@ import org.slf4j.LoggerFactory;
 
 import com.cidre.core.ModelDescriptor;
 
-import loci.common.services.ServiceFactory;
 import loci.formats.ImageReader;
 import loci.formats.in.DefaultMetadataOptions;
 import loci.formats.in.MetadataOptions;
 import loci.formats.meta.MetadataRetrieve;
 import loci.formats.meta.MetadataStore;
-import loci.formats.services.OMEXMLService;
 
 public class BfModelLoader {
 
@@ -48,22 +46,33 @@ public class BfModelLoader {
 
     private boolean unsigned;
 
+    private boolean leanMetadata;
+
     String fileName;
 
     public BfModelLoader(String fileName) {
+        this(fileName, false);
+    }
+
+    /**
+     * @param fileName model file
+     * @param leanMetadata skip original metadata and OME-XML validation
+     */
+    public BfModelLoader(String fileName, boolean leanMetadata) {
         this.fileName = fileName;
+        this.leanMetadata = leanMetadata;
         this.reader = new ImageReader();
     }
 
     private void initializeReader() throws Exception
     {
-        this.reader.setOriginalMetadataPopulated(true);
-        ServiceFactory factory = new ServiceFactory();
-        OMEXMLService service = factory.getInstance(OMEXMLService.class);
-       this. reader.setMetadataStore(
-            service.createOMEXMLMetadata(null, null));
+        this.reader.setOriginalMetadataPopulated(!this.leanMetadata);
+        // image names identify the model surfaces, so keep the full
+        // OME-XML metadata level even in lean mode
+        this.reader.setMetadataStore(BfImageLoader.getOMEXMLService()
+            .createOMEXMLMetadata(null, null));
         MetadataOptions options = new DefaultMetadataOptions();
-        options.setValidate(true);
+        options.setValidate(!this.leanMetadata);
         this.reader.setMetadataOptions(options);
         this.reader.setId(this.fileName);
 
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * State of an interrupted model build of a single channel: the preprocessed
+ * stack in pivot space, Q, the pivot shifts, the stage and the optimiser
+ * state at the start of its next iteration, including the L-BFGS history.
+ * Optimiser fields are <code>null</code> when the stage has not started.
+ */
+public class Checkpoint {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(Checkpoint.class);
+
+    private static final int MAGIC = 0x43445243;  // "CDRC"
+
+    private static final int VERSION = 4;
+
+    /**
+     * identity of the build: the input, the preprocessing and the options
+     * of the optimisation
+     */
+    public String inputKey;
+    /**
+     * the stack, location-major with <code>depth</code> quantiles per
+     * location: <code>stack</code> in double precision or
+     * <code>floatStack</code> in float32 mode, the other <code>null</code>
+     */
+    public int depth;
+    public double[] stack;
+    public float[] floatStack;
+    public double[][] minImage;
+    public int bitDepth;
+    public double lambdaVreg;
+    public double lambdaZero;
+    public double[] Q;
+    public double pivotShiftX;
+    public double[] pivotShiftY;
+    public double zmin;
+    public double zmax;
+    public double zx0;
+    public double zy0;
+
+    /** 1: least squares, 2: regularised robust fitting */
+    public int stage;
+    public double mse;
+
+    public int iteration;
+    public int funEvals;
+    public double f;
+    public double fBest;
+    public double t;
+    public double Hdiag;
+    public int lbfgsStart;
+    public int lbfgsEnd;
+    public double[] x;
+    public double[] xBest;
+    public double[] g;
+    public double[] gOld;
+    public double[] d;
+    /** L-BFGS history, one correction per row */
+    public double[][] S;
+    public double[][] Y;
+    public double[] YS;
+
+    /**
+     * Loads a checkpoint.
+     * @return the checkpoint or <code>null</code> if there is no valid
+     * checkpoint in the file
+     */
+    public static Checkpoint read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring incompatible checkpoint {}", file);
+                return null;
+            }
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.inputKey = in.readUTF();
+            checkpoint.depth = in.readInt();
+            checkpoint.stack = Checkpoint.readArray(in);
+            checkpoint.floatStack = Checkpoint.readFloats(in);
+            checkpoint.minImage = Checkpoint.readMatrix(in);
+            checkpoint.bitDepth = in.readInt();
+            checkpoint.lambdaVreg = in.readDouble();
+            checkpoint.lambdaZero = in.readDouble();
+            checkpoint.Q = Checkpoint.readArray(in);
+            checkpoint.pivotShiftX = in.readDouble();
+            checkpoint.pivotShiftY = Checkpoint.readArray(in);
+            checkpoint.zmin = in.readDouble();
+            checkpoint.zmax = in.readDouble();
+            checkpoint.zx0 = in.readDouble();
+            checkpoint.zy0 = in.readDouble();
+            checkpoint.stage = in.readInt();
+            checkpoint.mse = in.readDouble();
+            checkpoint.iteration = in.readInt();
+            checkpoint.funEvals = in.readInt();
+            checkpoint.f = in.readDouble();
+            checkpoint.fBest = in.readDouble();
+            checkpoint.t = in.readDouble();
+            checkpoint.Hdiag = in.readDouble();
+            checkpoint.lbfgsStart = in.readInt();
+            checkpoint.lbfgsEnd = in.readInt();
+            checkpoint.x = Checkpoint.readArray(in);
+            checkpoint.xBest = Checkpoint.readArray(in);
+            checkpoint.g = Checkpoint.readArray(in);
+            checkpoint.gOld = Checkpoint.readArray(in);
+            checkpoint.d = Checkpoint.readArray(in);
+            checkpoint.S = Checkpoint.readMatrix(in);
+            checkpoint.Y = Checkpoint.readMatrix(in);
+            checkpoint.YS = Checkpoint.readArray(in);
+            log.info("Loaded checkpoint of stage {}, iteration {} from {}",
+                     checkpoint.stage, checkpoint.iteration, file);
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read checkpoint {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the checkpoint.  The file is written under a temporary name and
+     * renamed, so a build killed while checkpointing keeps the previous one.
+     */
+    public void write(File file) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            log.warn("Could not create checkpoint directory {}", directory);
+            return;
+        }
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                        new FileOutputStream(temporary))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(this.inputKey);
+                out.writeInt(this.depth);
+                Checkpoint.writeArray(out, this.stack);
+                Checkpoint.writeFloats(out, this.floatStack);
+                Checkpoint.writeMatrix(out, this.minImage);
+                out.writeInt(this.bitDepth);
+                out.writeDouble(this.lambdaVreg);
+                out.writeDouble(this.lambdaZero);
+                Checkpoint.writeArray(out, this.Q);
+                out.writeDouble(this.pivotShiftX);
+                Checkpoint.writeArray(out, this.pivotShiftY);
+                out.writeDouble(this.zmin);
+                out.writeDouble(this.zmax);
+                out.writeDouble(this.zx0);
+                out.writeDouble(this.zy0);
+                out.writeInt(this.stage);
+                out.writeDouble(this.mse);
+                out.writeInt(this.iteration);
+                out.writeInt(this.funEvals);
+                out.writeDouble(this.f);
+                out.writeDouble(this.fBest);
+                out.writeDouble(this.t);
+                out.writeDouble(this.Hdiag);
+                out.writeInt(this.lbfgsStart);
+                out.writeInt(this.lbfgsEnd);
+                Checkpoint.writeArray(out, this.x);
+                Checkpoint.writeArray(out, this.xBest);
+                Checkpoint.writeArray(out, this.g);
+                Checkpoint.writeArray(out, this.gOld);
+                Checkpoint.writeArray(out, this.d);
+                Checkpoint.writeMatrix(out, this.S);
+                Checkpoint.writeMatrix(out, this.Y);
+                Checkpoint.writeArray(out, this.YS);
+            }
+            if (file.exists()) {
+                file.delete();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Could not rename " + temporary);
+            }
+            log.info("Stored checkpoint of stage {}, iteration {} in {}",
+                     this.stage, this.iteration, file);
+        } catch (IOException e) {
+            log.warn("Could not write checkpoint {}", file, e);
+            temporary.delete();
+        }
+    }
+
+    private static double[] readArray(DataInputStream in)
+            throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[8 * length];
+        in.readFully(bytes);
+        double[] array = new double[length];
+        ByteBuffer.wrap(bytes).asDoubleBuffer().get(array);
+        return array;
+    }
+
+    private static void writeArray(DataOutputStream out, double[] array)
+            throws IOException
+    {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        ByteBuffer buffer = ByteBuffer.allocate(8 * array.length);
+        buffer.asDoubleBuffer().put(array);
+        out.write(buffer.array());
+    }
+
+    private static float[] readFloats(DataInputStream in)
+            throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[4 * length];
+        in.readFully(bytes);
+        float[] array = new float[length];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(array);
+        return array;
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] array)
+            throws IOException
+    {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        ByteBuffer buffer = ByteBuffer.allocate(4 * array.length);
+        buffer.asFloatBuffer().put(array);
+        out.write(buffer.array());
+    }
+
+    private static double[][] readMatrix(DataInputStream in)
+            throws IOException
+    {
+        int rows = in.readInt();
+        if (rows < 0) {
+            return null;
+        }
+        double[][] matrix = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            matrix[i] = Checkpoint.readArray(in);
+        }
+        return matrix;
+    }
+
+    private static void writeMatrix(DataOutputStream out, double[][] matrix)
+            throws IOException
+    {
+        if (matrix == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(matrix.length);
+        for (double[] row : matrix) {
+            Checkpoint.writeArray(out, row);
+        }
+    }
+}
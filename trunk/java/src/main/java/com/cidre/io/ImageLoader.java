@@ -32,6 +32,7 @@ import org.slf4j.LoggerFactory;
 
 import com.cidre.algorithms.CidreMath;
 import com.cidre.core.Options;
+import com.cidre.core.PhaseProfiler;
 import com.cidre.preprocessing.CidrePreprocess;
 
 public abstract class ImageLoader {
@@ -48,8 +49,13 @@ public abstract class ImageLoader {
 
     protected double[][] minImage;
 
+    /** bit depth set in the options before loading, if any */
+    protected final Integer requestedBitDepth;
+
     protected boolean initialised;
 
+    protected PhaseProfiler profiler = new PhaseProfiler();
+
     private static final Logger log =
         LoggerFactory.getLogger(ImageLoader.class);
 
@@ -57,6 +63,7 @@ public abstract class ImageLoader {
         this.maxI = 0.0;
         this.S = new ArrayList<double[][]>();
         this.options = options;
+        this.requestedBitDepth = options.bitDepth;
         this.source = source;
         this.initialised = false;
     }
@@ -84,8 +91,24 @@ public abstract class ImageLoader {
         return this.options;
     }
 
+    public void setProfiler(PhaseProfiler profiler) {
+        this.profiler = profiler;
+    }
+
     protected boolean getFileList(String source) {
+        List<String> fileNames = ImageLoader.findFiles(source);
+        this.options.fileNames.addAll(fileNames);
+        return !fileNames.isEmpty();
+    }
+
+    /**
+     * Resolves a file path or file path mask into the list of matching files.
+     * @param source file path, optionally with `*` wildcards in the name
+     * @return matching file paths, empty if none were found
+     */
+    public static List<String> findFiles(String source) {
         log.info("Searching for files");
+        List<String> fileNames = new ArrayList<String>();
         if (source != null && !source.equals("")) {
             // break source into a path, filter, and extension
             File file = new File(source);
@@ -95,26 +118,22 @@ public abstract class ImageLoader {
             log.debug("Searching for files in {}", folder.toString());
             File[] listOfFiles = folder.listFiles(
                 new ImageNameFilter(fileName));
-            log.info("Found {} files", listOfFiles.length);
             if (listOfFiles != null) {
-                log.debug("{}", listOfFiles.toString());
+                log.info("Found {} files", listOfFiles.length);
                 for (int i = 0; i < listOfFiles.length; i++) {
-                    this.options.fileNames.add(
-                        path + listOfFiles[i].getName());
+                    fileNames.add(path + listOfFiles[i].getName());
                 }
             }
-            if (this.options.fileNames.size() <= 0) {
+            if (fileNames.size() <= 0) {
                 log.error("No image file found.");
-                return false;
             }
-            return true;
         } else {
             log.error("Source not set");
-            return false;
         }
+        return fileNames;
     }
 
-    protected class ImageNameFilter implements FilenameFilter {
+    protected static class ImageNameFilter implements FilenameFilter {
         private Pattern pattern;
 
         public ImageNameFilter(String expression) {
@@ -135,7 +154,8 @@ public abstract class ImageLoader {
 
     // determines a working image size based on the original image size and
     // the desired number of pixels in the working image, N_desired
-    protected Dimension determineWorkingSize(Dimension imageSize, int Ndesired)
+    protected static Dimension determineWorkingSize(
+            Dimension imageSize, int Ndesired)
     {
         int widthOriginal = imageSize.width;
         int heightOriginal = imageSize.height;
@@ -180,10 +200,14 @@ public abstract class ImageLoader {
         // store the bit depth of the images in options,
         // needed for entropy measurement
         this.setBitDepth();
-        // compute the stack's entropy
-        double entropy = CidrePreprocess.getEntropy(this.options, this.S);
-        // resample the stack if the entropy is too high
-        this.scaleSpaceResampling(entropy);
+        try (PhaseProfiler.Measurement m =
+                this.profiler.start(PhaseProfiler.ENTROPY))
+        {
+            // compute the stack's entropy
+            double entropy = CidrePreprocess.getEntropy(this.options, this.S);
+            // resample the stack if the entropy is too high
+            this.scaleSpaceResampling(entropy);
+        }
 
         // sort the intensity values at every location in the image stack
         // at every pixel location (r,c), we sort all the recorded
@@ -193,24 +217,28 @@ public abstract class ImageLoader {
         // order in the 3rd dimension.
         
         log.info("Sorting intensity by pixel location and resizing...");
-        //S = sort(S,3);
-        double[] doubleValues = new double[S.size()];
-        for (int x = 0; x < this.options.workingSize.width; x++) {
-            for (int y = 0; y < this.options.workingSize.height; y++) {
-                for (int z = 0; z < S.size(); z++) 
-                    doubleValues[z] = S.get(z)[x][y];
-                Arrays.sort(doubleValues);
-                for (int z = 0; z < S.size(); z++) 
-                    S.get(z)[x][y] = doubleValues[z];
+        try (PhaseProfiler.Measurement m =
+                this.profiler.start(PhaseProfiler.SORT_RESIZE))
+        {
+            //S = sort(S,3);
+            double[] doubleValues = new double[S.size()];
+            for (int x = 0; x < this.options.workingSize.width; x++) {
+                for (int y = 0; y < this.options.workingSize.height; y++) {
+                    for (int z = 0; z < S.size(); z++)
+                        doubleValues[z] = S.get(z)[x][y];
+                    Arrays.sort(doubleValues);
+                    for (int z = 0; z < S.size(); z++)
+                        S.get(z)[x][y] = doubleValues[z];
+                }
             }
-        }
 
-        // compress the stack: reduce the effective number
-        // of images for efficiency
-        this.resizeStack(options);
+            // compress the stack: reduce the effective number
+            // of images for efficiency
+            this.resizeStack(options);
+        }
     }
 
-    private void setBitDepth() {
+    protected void setBitDepth() {
         // Sets options.bitDepth describing the provided images as 8-bit,
         // 12-bit, or  16-bit. If options.bitDepth is provided, it is used.
         // Otherwise the bit depth is estimated from the max observed
@@ -219,6 +247,12 @@ public abstract class ImageLoader {
         final int xy_2_12 = 4096;
         final int xy_2_16 = 65536;
 
+        if (this.requestedBitDepth != null) {
+            this.options.bitDepth = this.requestedBitDepth;
+            log.info("{}-bit depth images (requested)",
+                     Math.round(Math.log(options.bitDepth) / Math.log(2)));
+            return;
+        }
         if (maxI > xy_2_12)
              this.options.bitDepth = xy_2_16;
         else if (maxI > xy_2_8)
@@ -230,6 +264,17 @@ public abstract class ImageLoader {
              Math.round(Math.log(options.bitDepth) / Math.log(2)), maxI);
     }
 
+    /**
+     * Empirical estimate of the number of images necessary to build a model
+     * at the given stack entropy.
+     */
+    protected static double requiredNumImages(double entropy) {
+        double a  = 7.838e+06;  // parameters of a fitted exponential function
+        double b  = -1.948;     // parameters of a fitted exponential function
+        double c  = 20;         // parameters of a fitted exponential function
+        return a * Math.exp(b * entropy) + c;
+    }
+
     private void scaleSpaceResampling(double entropy)
     {
         log.info("Scaling space resampling");
@@ -245,13 +290,8 @@ public abstract class ImageLoader {
         double l0 = 1;          // max lambda_vreg
         double l1 = 0;          // stable lambda_vreg
         double N  = this.S.size();   // number of images in the stack
-        double a  = 7.838e+06;  // parameters of a fitted exponential function
-        double b  = -1.948;     // parameters of a fitted exponential function
-        double c  = 20;         // parameters of a fitted exponential function
 
-        // emprical estimate of the number of images necessary at the reported
-        // entropy level
-        double N_required = a * Math.exp(b * entropy) + c;
+        double N_required = ImageLoader.requiredNumImages(entropy);
 
         // alpha is a linear function from 1 (N=0) to 0 (N=N_required) and 0 
         // (N > N_required). It informs us how strong the scale space
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.cidre.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cidre.core.Options;
+
+/**
+ * On-disk cache of preprocessed (sorted, resampled and compressed) image
+ * stacks.  Entries are keyed by the identity of the input files (path, size
+ * and modification time), the channel, the plane selection and the
+ * preprocessing options, so a repeated model build of the same data can
+ * skip straight to the optimisation.
+ */
+public class StackCache {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(StackCache.class);
+
+    private static final int MAGIC = 0x43445253;  // "CDRS"
+
+    private static final int VERSION = 2;
+
+    private final File directory;
+
+    /**
+     * A cached preprocessed stack of a single channel.
+     */
+    public static class Entry {
+        public List<double[][]> stack;
+        public double maxI;
+        public int bitDepth;
+        public double[][] minImage;
+    }
+
+    public StackCache(String directory) {
+        this.directory = new File(directory);
+    }
+
+    /**
+     * Builds the cache key of a preprocessed stack.
+     */
+    public static String getKey(
+            List<String> fileNames, int channel, List<Integer> series,
+            List<Integer> zSections, List<Integer> timepoints,
+            Integer bitDepth, Options options) throws Exception
+    {
+        StringBuilder identity = new StringBuilder();
+        identity.append("version=").append(VERSION).append('\n');
+        for (String fileName : fileNames) {
+            File file = new File(fileName);
+            identity.append(file.getCanonicalPath()).append('|')
+                    .append(file.length()).append('|')
+                    .append(file.lastModified()).append('\n');
+        }
+        identity.append("channel=").append(channel).append('\n');
+        identity.append("series=").append(series).append('\n');
+        identity.append("z=").append(zSections).append('\n');
+        identity.append("t=").append(timepoints).append('\n');
+        identity.append("bitDepth=").append(bitDepth).append('\n');
+        identity.append("targetNumPixels=")
+                .append(options.targetNumPixels).append('\n');
+        identity.append("workingSize=")
+                .append(options.workingSize.width).append('x')
+                .append(options.workingSize.height).append('\n');
+        identity.append("numberOfQuantiles=")
+                .append(options.numberOfQuantiles).append('\n');
+        if (options.planeSample != null) {
+            identity.append("planeSample=")
+                    .append(options.planeSample).append('|')
+                    .append(options.stratifiedSample).append('|')
+                    .append(options.sampleSeed).append('\n');
+        }
+        return StackCache.digest(identity.toString());
+    }
+
+    /**
+     * @return the hex SHA-256 digest of an identity string
+     */
+    public static String digest(String identity) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(
+                identity.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform implements SHA-256
+            throw new IllegalStateException(e);
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : hash) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    private File getFile(String key) {
+        return new File(this.directory, key + ".stack");
+    }
+
+    /**
+     * Loads a cached entry.
+     * @return the entry or <code>null</code> if there is no valid entry
+     * for the key
+     */
+    public Entry load(String key) {
+        File file = this.getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring incompatible cache file {}", file);
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.maxI = in.readDouble();
+            entry.bitDepth = in.readInt();
+            int depth = in.readInt();
+            int width = in.readInt();
+            int height = in.readInt();
+            entry.stack = new ArrayList<double[][]>(depth);
+            for (int z = 0; z < depth; z++) {
+                entry.stack.add(StackCache.readPlane(in, width, height));
+            }
+            int minWidth = in.readInt();
+            int minHeight = in.readInt();
+            entry.minImage = StackCache.readPlane(in, minWidth, minHeight);
+            log.info("Loaded preprocessed stack of {} planes from {}",
+                     depth, file);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            // truncated or corrupt entries, e.g. with garbage dimensions,
+            // are misses and are dropped so they are rebuilt
+            log.warn("Discarding unreadable cache file {}", file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores an entry.  The file is written under a temporary name and
+     * renamed, so concurrent or interrupted runs never see partial entries.
+     */
+    public void store(String key, Entry entry) {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            log.warn("Could not create cache directory {}", this.directory);
+            return;
+        }
+        File file = this.getFile(key);
+        File temporary = new File(
+            this.directory, key + "." + Thread.currentThread().getId()
+            + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                        new FileOutputStream(temporary))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeDouble(entry.maxI);
+                out.writeInt(entry.bitDepth);
+                double[][] first = entry.stack.get(0);
+                out.writeInt(entry.stack.size());
+                out.writeInt(first.length);
+                out.writeInt(first[0].length);
+                for (double[][] plane : entry.stack) {
+                    StackCache.writePlane(out, plane);
+                }
+                out.writeInt(entry.minImage.length);
+                out.writeInt(entry.minImage[0].length);
+                StackCache.writePlane(out, entry.minImage);
+            }
+            if (file.exists()) {
+                file.delete();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Could not rename " + temporary);
+            }
+            log.info("Stored preprocessed stack in {}", file);
+        } catch (IOException e) {
+            log.warn("Could not write cache file {}", file, e);
+            temporary.delete();
+        }
+    }
+
+    private static double[][] readPlane(
+            DataInputStream in, int width, int height) throws IOException
+    {
+        double[][] plane = new double[width][height];
+        byte[] bytes = new byte[8 * height];
+        for (int x = 0; x < width; x++) {
+            in.readFully(bytes);
+            ByteBuffer.wrap(bytes).asDoubleBuffer().get(plane[x]);
+        }
+        return plane;
+    }
+
+    private static void writePlane(DataOutputStream out, double[][] plane)
+            throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * plane[0].length);
+        for (int x = 0; x < plane.length; x++) {
+            buffer.clear();
+            buffer.asDoubleBuffer().put(plane[x]);
+            out.write(buffer.array());
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.io;
+
+import java.awt.Dimension;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cidre.algorithms.CidreMath;
+import com.cidre.core.ModelDescriptor;
+import com.cidre.core.Options;
+
+import loci.formats.FormatTools;
+import loci.formats.MetadataTools;
+import loci.formats.meta.IMetadata;
+import loci.formats.out.OMETiffWriter;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.annotation.Arg;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+
+/**
+ * Synthesises multi-series, multi-channel OME-TIFF stacks with a known
+ * illumination model, so that throughput and model recovery can be measured
+ * without private microscope data.
+ * <p>
+ * Each plane is <code>I = v * q + z + noise</code>, where <code>v</code> is
+ * a vignetting surface, <code>z</code> the zero-light surface and
+ * <code>q</code> the true scene: a per image background level plus sparse
+ * bright gaussian objects.  Noise is approximately Poisson (shot noise) plus
+ * gaussian read noise.  The ground truth <code>v</code> and <code>z</code>
+ * are written as a model file readable by {@link BfModelLoader}.
+ */
+public class SyntheticDataset {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(SyntheticDataset.class);
+
+    @Arg
+    public int width = 512;
+
+    @Arg
+    public int height = 512;
+
+    /** number of series, i.e. images per channel */
+    @Arg
+    public int numberOfImages = 100;
+
+    @Arg
+    public int sizeC = 1;
+
+    /** 8 or 16 */
+    @Arg
+    public int bitDepth = 16;
+
+    /** relative drop of <code>v</code> from the centre to the corners */
+    @Arg
+    public double vignetting = 0.5;
+
+    /** mean of <code>z</code> as a fraction of the maximum value */
+    @Arg
+    public double zeroLight = 0.05;
+
+    /** standard deviation of the read noise in grey levels */
+    @Arg
+    public double readNoise = 2.0;
+
+    /** photo-electrons per grey level, 0 disables shot noise */
+    @Arg
+    public double gain = 1.0;
+
+    /** mean number of bright objects per image */
+    @Arg
+    public double objectsPerImage = 20;
+
+    @Arg
+    public long seed = 1;
+
+    @Arg
+    private String output;
+
+    @Arg
+    private String modelOutput;
+
+    /**
+     * Ground truth model of a channel.  The small surfaces are computed at
+     * the working size used when building a model with default options.
+     */
+    public ModelDescriptor getGroundTruth(int channel) {
+        Dimension imageSize = new Dimension(this.width, this.height);
+        Dimension workingSize = ImageLoader.determineWorkingSize(
+            imageSize, new Options().targetNumPixels);
+        ModelDescriptor descriptor = new ModelDescriptor();
+        descriptor.imageSize = imageSize;
+        descriptor.imageSize_small = workingSize;
+        descriptor.v = this.surface(channel, imageSize, true);
+        descriptor.z = this.surface(channel, imageSize, false);
+        descriptor.v_small = this.surface(channel, workingSize, true);
+        descriptor.z_small = this.surface(channel, workingSize, false);
+        descriptor.minImage = descriptor.z.clone();
+        return descriptor;
+    }
+
+    /**
+     * Evaluates <code>v</code> (a radial fall-off around a channel specific
+     * centre) or <code>z</code> (a gentle ramp) on a grid of the given size,
+     * column-major as in {@link ModelDescriptor}.
+     */
+    private double[] surface(int channel, Dimension size, boolean v) {
+        Random random = new Random(this.seed * 31 + channel);
+        double cx = 0.5 + 0.2 * (random.nextDouble() - 0.5);
+        double cy = 0.5 + 0.2 * (random.nextDouble() - 0.5);
+        double slope = 0.4 * (random.nextDouble() - 0.5);
+        double maxValue = Math.pow(2, this.bitDepth) - 1;
+        double[] surface = new double[size.width * size.height];
+        for (int x = 0; x < size.width; x++) {
+            for (int y = 0; y < size.height; y++) {
+                // normalised coordinates of the pixel centre
+                double u = (x + 0.5) / size.width;
+                double w = (y + 0.5) / size.height;
+                if (v) {
+                    double r2 = ((u - cx) * (u - cx) + (w - cy) * (w - cy))
+                              / 0.5;
+                    surface[x * size.height + y] =
+                        1.0 - this.vignetting * Math.min(1.0, r2);
+                } else {
+                    surface[x * size.height + y] = this.zeroLight * maxValue
+                        * (1.0 + slope * (u - 0.5) + slope * (w - 0.5));
+                }
+            }
+        }
+        return surface;
+    }
+
+    /**
+     * Writes the synthetic stack and, if <code>modelFileName</code> is not
+     * <code>null</code>, the ground truth model.
+     */
+    public void generate(String fileName, String modelFileName)
+            throws Exception
+    {
+        if (this.bitDepth != 8 && this.bitDepth != 16) {
+            throw new Exception("Bit depth must be 8 or 16.");
+        }
+        log.info("Synthesising {} images [{}, {}] x {} channels, "
+                 + "bit depth {} to {}",
+                 this.numberOfImages, this.width, this.height, this.sizeC,
+                 this.bitDepth, fileName);
+        int pixelType =
+            this.bitDepth == 8 ? FormatTools.UINT8 : FormatTools.UINT16;
+        IMetadata metadata =
+            BfImageLoader.getOMEXMLService().createOMEXMLMetadata();
+        for (int series = 0; series < this.numberOfImages; series++) {
+            MetadataTools.populateMetadata(
+                metadata, series, "Image_" + series, false, "XYZCT",
+                FormatTools.getPixelTypeString(pixelType),
+                this.width, this.height, 1, this.sizeC, 1, 1);
+        }
+        List<ModelDescriptor> truth = new ArrayList<ModelDescriptor>();
+        for (int channel = 0; channel < this.sizeC; channel++) {
+            truth.add(this.getGroundTruth(channel));
+        }
+        Random random = new Random(this.seed);
+        OMETiffWriter writer = new OMETiffWriter();
+        try {
+            writer.setMetadataRetrieve(metadata);
+            writer.setId(fileName);
+            for (int series = 0; series < this.numberOfImages; series++) {
+                writer.setSeries(series);
+                for (int channel = 0; channel < this.sizeC; channel++) {
+                    writer.saveBytes(channel, this.toBytes(
+                        this.synthesisePlane(truth.get(channel), random)));
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        if (modelFileName != null) {
+            log.info("Saving ground truth model to {}", modelFileName);
+            new BfModelWriter(modelFileName, truth).saveModel();
+        }
+    }
+
+    private double[][] synthesisePlane(
+            ModelDescriptor truth, Random random)
+    {
+        double maxValue = Math.pow(2, this.bitDepth) - 1;
+        double[][] q = new double[this.width][this.height];
+        // log-normally distributed background level, 1% to 30% of the range
+        double background = Math.min(0.3, 0.05 * Math.exp(
+            0.8 * random.nextGaussian())) * maxValue;
+        for (int x = 0; x < this.width; x++) {
+            for (int y = 0; y < this.height; y++) {
+                q[x][y] = background;
+            }
+        }
+        int numberOfObjects = SyntheticDataset.poisson(
+            this.objectsPerImage, random);
+        for (int i = 0; i < numberOfObjects; i++) {
+            double ox = random.nextDouble() * this.width;
+            double oy = random.nextDouble() * this.height;
+            double sigma = 2.0 + 6.0 * random.nextDouble();
+            double amplitude = (0.1 + 0.4 * random.nextDouble()) * maxValue;
+            int extent = (int) Math.ceil(3 * sigma);
+            int x0 = Math.max(0, (int) ox - extent);
+            int x1 = Math.min(this.width - 1, (int) ox + extent);
+            int y0 = Math.max(0, (int) oy - extent);
+            int y1 = Math.min(this.height - 1, (int) oy + extent);
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    double d2 = (x - ox) * (x - ox) + (y - oy) * (y - oy);
+                    q[x][y] += amplitude * Math.exp(-d2 / (2 * sigma * sigma));
+                }
+            }
+        }
+        for (int x = 0; x < this.width; x++) {
+            for (int y = 0; y < this.height; y++) {
+                int index = x * this.height + y;
+                double signal = truth.v[index] * q[x][y];
+                double noise = this.readNoise * random.nextGaussian();
+                if (this.gain > 0) {
+                    // gaussian approximation of the shot noise
+                    noise += Math.sqrt(signal / this.gain)
+                           * random.nextGaussian();
+                }
+                q[x][y] = Math.max(0, Math.min(maxValue, Math.round(
+                    signal + truth.z[index] + noise)));
+            }
+        }
+        return q;
+    }
+
+    private byte[] toBytes(double[][] plane) {
+        int bytesPerPixel = this.bitDepth / 8;
+        ByteBuffer buffer = ByteBuffer.allocate(
+            bytesPerPixel * this.width * this.height);
+        for (int y = 0; y < this.height; y++) {
+            for (int x = 0; x < this.width; x++) {
+                if (bytesPerPixel == 1) {
+                    buffer.put((byte) plane[x][y]);
+                } else {
+                    buffer.putShort((short) plane[x][y]);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    private static int poisson(double mean, Random random) {
+        // Knuth's method, fine for the small means used here
+        double limit = Math.exp(-mean);
+        double p = random.nextDouble();
+        int k = 0;
+        while (p > limit) {
+            p *= random.nextDouble();
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Model recovery error of an estimated model against the ground truth:
+     * the root mean square difference of <code>v</code>, after normalising
+     * both surfaces to a mean of 1 (<code>v</code> is only determined up to
+     * scale), and of <code>z</code>, relative to the mean ground truth
+     * <code>z</code>.
+     * @return <code>{vError, zError}</code>
+     */
+    public static double[] recoveryError(
+            ModelDescriptor truth, ModelDescriptor estimate)
+    {
+        double meanTruthV = CidreMath.mean(truth.v);
+        double meanEstimateV = CidreMath.mean(estimate.v);
+        double meanTruthZ = CidreMath.mean(truth.z);
+        double sumV = 0.0;
+        double sumZ = 0.0;
+        for (int i = 0; i < truth.v.length; i++) {
+            double dv = truth.v[i] / meanTruthV
+                      - estimate.v[i] / meanEstimateV;
+            double dz = truth.z[i] - estimate.z[i];
+            sumV += dv * dv;
+            sumZ += dz * dz;
+        }
+        return new double[] {
+            Math.sqrt(sumV / truth.v.length),
+            Math.sqrt(sumZ / truth.z.length) / meanTruthZ
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser =
+            ArgumentParsers.newArgumentParser("cidre-synthetic");
+        parser.description(
+            "Generates a synthetic OME-TIFF dataset with a known "
+            + "illumination model");
+        parser.addArgument("--output").required(true)
+              .help("Output OME-TIFF file");
+        parser.addArgument("--modelOutput")
+              .help("Output file for the ground truth model");
+        parser.addArgument("--width").type(Integer.class).setDefault(512);
+        parser.addArgument("--height").type(Integer.class).setDefault(512);
+        parser.addArgument("--numberOfImages").type(Integer.class)
+              .setDefault(100).help("Number of series");
+        parser.addArgument("--sizeC").type(Integer.class).setDefault(1);
+        parser.addArgument("--bitDepth").type(Integer.class)
+              .choices(8, 16).setDefault(16);
+        parser.addArgument("--vignetting").type(Double.class)
+              .setDefault(0.5)
+              .help("Relative drop of v from the centre to the corners");
+        parser.addArgument("--zeroLight").type(Double.class)
+              .setDefault(0.05)
+              .help("Mean of z as a fraction of the maximum value");
+        parser.addArgument("--readNoise").type(Double.class)
+              .setDefault(2.0)
+              .help("Standard deviation of the read noise in grey levels");
+        parser.addArgument("--gain").type(Double.class).setDefault(1.0)
+              .help("Photo-electrons per grey level, 0 disables shot noise");
+        parser.addArgument("--objectsPerImage").type(Double.class)
+              .setDefault(20.0)
+              .help("Mean number of bright objects per image");
+        parser.addArgument("--seed").type(Long.class).setDefault(1L);
+
+        SyntheticDataset dataset = new SyntheticDataset();
+        try {
+            parser.parseArgs(args, dataset);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+        dataset.generate(dataset.output, dataset.modelOutput);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.jfr;
+
+/**
+ * Availability of Java Flight Recorder.  The event classes of this package
+ * extend <code>jdk.jfr.Event</code>, which is missing from older Java 8
+ * runtimes, so they must only be instantiated when {@link #ENABLED} is
+ * <code>true</code>:
+ * <pre>
+ * PlaneDecodeEvent event = Jfr.ENABLED ? new PlaneDecodeEvent() : null;
+ * </pre>
+ */
+public final class Jfr {
+
+    public static final boolean ENABLED = Jfr.isAvailable();
+
+    private Jfr() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
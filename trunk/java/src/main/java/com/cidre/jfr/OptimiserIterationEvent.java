@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.cidre.OptimiserIteration")
+@Label("Optimiser Iteration")
+@Category({"CIDRE", "Optimiser"})
+@Description("A single L-BFGS iteration of the model optimisation")
+public class OptimiserIterationEvent extends Event {
+
+    @Label("Stage")
+    @Description("1 for the least squares fit, 2 for the robust fit")
+    public int stage;
+
+    @Label("Iteration")
+    public int iteration;
+
+    @Label("Energy")
+    public double f;
+
+    @Label("Gradient Norm")
+    @Description("Infinity norm of the gradient")
+    public double gradientNorm;
+
+    @Label("Step Length")
+    public double t;
+
+    @Label("Function Evaluations")
+    @Description("Objective evaluations so far in this stage")
+    public int funEvals;
+}
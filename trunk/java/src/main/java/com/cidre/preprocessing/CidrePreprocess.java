@@ -56,9 +56,11 @@ public class CidrePreprocess {
                         reported = true;
                         continue;
                     } else if (value < 0 || value >= options.bitDepth - 1) {
-                        log.debug("Pixel Out of range: Plane: {},"
-                                + "pixel: [{}, {}], Value: {}",
-                                z, x, y, Math.round(value));
+                        if (log.isDebugEnabled()) {
+                            log.debug("Pixel Out of range: Plane: {},"
+                                    + "pixel: [{}, {}], Value: {}",
+                                    z, x, y, Math.round(value));
+                        }
                         continue;
                     }
                     //log.info("Hist value: {}", (int) Math.round(value));
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+package com.cidre;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MainTest {
+
+    @Test
+    public void testParseMemorySize() throws Exception {
+        Assert.assertEquals(Main.parseMemorySize("4096"), 4096L << 20);
+        Assert.assertEquals(Main.parseMemorySize("512K"), 512L << 10);
+        Assert.assertEquals(Main.parseMemorySize("512m"), 512L << 20);
+        Assert.assertEquals(Main.parseMemorySize(" 8G "), 8L << 30);
+        Assert.assertEquals(Main.parseMemorySize("4gb"), 4L << 30);
+        Assert.assertEquals(Main.parseMemorySize("1.5G"), 3L << 29);
+        Assert.assertEquals(Main.parseMemorySize("2T"), 2L << 40);
+        Assert.assertEquals(Main.parseMemorySize("4096B"), 4096L);
+    }
+
+    @Test
+    public void testParseMemorySizeRejectsInvalid() throws Exception {
+        for (String value : new String[] {
+                "", " ", "G", "4x", "4 gigs", "4GiB", "-4G", "4..5M", "4BG"})
+        {
+            try {
+                Main.parseMemorySize(value);
+                Assert.fail("Accepted " + value);
+            } catch (Exception e) {
+                Assert.assertTrue(e.getMessage().contains("Invalid"), value);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.algorithms;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class DiagnosticsTest {
+
+    private static final Pattern DEBUG_CALL =
+        Pattern.compile("log\\.(debug|trace)\\(");
+
+    private static final Pattern GUARD =
+        Pattern.compile("if \\(log\\.is(Debug|Trace)Enabled\\(\\)\\)");
+
+    @Test
+    public void testStatisticsAreLazy() {
+        double[] a = new double[] {1, 2, 3};
+        Object mean = Diagnostics.mean(a);
+        a[2] = 6;
+        Assert.assertEquals(mean.toString(), "3.0");
+    }
+
+    /**
+     * Returns the end of the call whose opening parenthesis precedes
+     * <code>start</code>, skipping string and character literals.
+     */
+    private static int endOfCall(String source, int start) {
+        int depth = 1;
+        for (int i = start; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '"' || c == '\'') {
+                for (i++; source.charAt(i) != c; i++) {
+                    if (source.charAt(i) == '\\') {
+                        i++;
+                    }
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Unbalanced call at " + start);
+    }
+
+    @Test
+    public void testNoEagerStatisticsInDebugLogging() throws IOException {
+        // statistics passed to unguarded debug or trace calls are computed
+        // on every call, whatever the log level; use Diagnostics instead
+        Path root = Paths.get("src", "main", "java");
+        List<Path> sources;
+        try (Stream<Path> paths = Files.walk(root)) {
+            sources = paths.filter(p -> p.toString().endsWith(".java"))
+                .collect(Collectors.toList());
+        }
+        Assert.assertFalse(sources.isEmpty(), "No sources in " + root);
+        List<String> eager = new ArrayList<String>();
+        for (Path path : sources) {
+            String source = new String(
+                Files.readAllBytes(path), StandardCharsets.UTF_8);
+            Matcher matcher = DEBUG_CALL.matcher(source);
+            while (matcher.find()) {
+                String call = source.substring(
+                    matcher.start(), endOfCall(source, matcher.end()));
+                String before = source.substring(
+                    Math.max(0, matcher.start() - 200), matcher.start());
+                if (call.contains("CidreMath.")
+                        && !GUARD.matcher(before).find())
+                {
+                    int line = source.substring(0, matcher.start())
+                        .split("\n", -1).length;
+                    eager.add(path + ":" + line);
+                }
+            }
+        }
+        Assert.assertEquals(eager, new ArrayList<String>());
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.algorithms;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+/**
+ * Every kernel against a plain loop of its documented formula, over
+ * lengths that are not multiples of any vector width and with offsets.
+ * The sums of the fitting terms are compared relative to the sum of the
+ * magnitudes of their terms, as the kernels may add them in any order.
+ */
+public class KernelsTest {
+
+    private static final int[] LENGTHS = {0, 1, 5, 8, 13, 37, 200};
+    private static final int OFFSET = 3;
+
+    // relative to the magnitude of the terms of a sum
+    private static final double DOUBLE_TOLERANCE = 1e-12;
+    // the residuals of the float kernels are rounded to 24 bits
+    private static final double FLOAT_TOLERANCE = 1e-6;
+
+    private static double[] random(Random random, int n, double scale) {
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = scale * random.nextDouble();
+        }
+        return values;
+    }
+
+    private static float[] floats(double[] values) {
+        float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+
+    private static double[] doubles(float[] values) {
+        double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = values[i];
+        }
+        return doubles;
+    }
+
+    /**
+     * @return the fitting term sums of the kernels, computed in double
+     * precision, and the magnitudes they are compared relative to
+     */
+    private static double[][] fitTerm(
+            double[] q, int offset, double[] Q, double v, double b,
+            Double w2)
+    {
+        double[] sums = new double[3];
+        double[] scales = new double[3];
+        for (int z = 0; z < Q.length; z++) {
+            double r = Q[z] * v + b - q[offset + z];
+            double s = w2 == null ? 1.0 : 1.0 + r * r / w2;
+            sums[0] += w2 == null ? r * r : w2 * Math.log(s) / 2.0;
+            sums[1] += Q[z] * r / s;
+            sums[2] += r / s;
+            double bound = Math.abs(Q[z] * v) + Math.abs(b)
+                         + Math.abs(q[offset + z]);
+            scales[0] += bound * bound;
+            scales[1] += Math.abs(Q[z]) * bound;
+            scales[2] += bound;
+        }
+        return new double[][] {sums, scales};
+    }
+
+    private static void assertSums(
+            double[] actual, double[][] expected, double tolerance,
+            String message)
+    {
+        for (int k = 0; k < 3; k++) {
+            Assert.assertEquals(
+                actual[k], expected[0][k],
+                tolerance * Math.max(1.0, expected[1][k]),
+                message + " sum " + k);
+        }
+    }
+
+    private static void assertMatchesReference(Kernels kernels) {
+        Random random = new Random(1);
+        for (int n : LENGTHS) {
+            String message = kernels.getName() + ", length " + n;
+            double[] q = random(random, n + OFFSET, 4000);
+            double[] Q = random(random, n, 4000);
+            double v = 0.5 + random.nextDouble();
+            double b = 100 * random.nextDouble();
+            double w2 = 250.0 * 250.0;
+            double[] sums = new double[3];
+
+            kernels.leastSquares(q, OFFSET, Q, v, b, sums);
+            assertSums(
+                sums, fitTerm(q, OFFSET, Q, v, b, null), DOUBLE_TOLERANCE,
+                message + " least squares");
+            kernels.cauchy(q, OFFSET, Q, v, b, w2, sums);
+            assertSums(
+                sums, fitTerm(q, OFFSET, Q, v, b, w2), DOUBLE_TOLERANCE,
+                message + " cauchy");
+
+            float[] qf = floats(q);
+            float[] Qf = floats(Q);
+            float vf = (float) v;
+            float bf = (float) b;
+            kernels.leastSquares(qf, OFFSET, Qf, vf, bf, sums);
+            assertSums(
+                sums, fitTerm(doubles(qf), OFFSET, doubles(Qf), vf, bf, null),
+                FLOAT_TOLERANCE, message + " float least squares");
+            kernels.cauchy(qf, OFFSET, Qf, vf, bf, (float) w2, sums);
+            assertSums(
+                sums, fitTerm(doubles(qf), OFFSET, doubles(Qf), vf, bf, w2),
+                FLOAT_TOLERANCE, message + " float cauchy");
+
+            double[] pixels = random(random, n, 4000);
+            double[] z = random(random, n + OFFSET, 100);
+            double[] vs = new double[n + OFFSET];
+            for (int i = 0; i < vs.length; i++) {
+                vs[i] = 0.5 + random.nextDouble();
+            }
+            float[] corrected = new float[n];
+            kernels.correct(pixels, z, vs, OFFSET, 2.0, 1.5, 7.0, corrected);
+            for (int i = 0; i < n; i++) {
+                float expected = (float) (
+                    (pixels[i] - z[OFFSET + i] - 2.0) / vs[OFFSET + i]
+                    * 1.5 + 7.0);
+                Assert.assertEquals(
+                    corrected[i], expected, 1e-6f * Math.abs(expected),
+                    message + " correct " + i);
+            }
+
+            byte[] bytes = new byte[2 * n + OFFSET];
+            random.nextBytes(bytes);
+            for (boolean little : new boolean[] {true, false}) {
+                double[] decoded = new double[n];
+                kernels.uint16ToDoubles(bytes, OFFSET, little, -7.0, decoded);
+                for (int i = 0; i < n; i++) {
+                    int first = bytes[OFFSET + 2 * i] & 0xff;
+                    int second = bytes[OFFSET + 2 * i + 1] & 0xff;
+                    int value = little ?
+                        first | (second << 8) : (first << 8) | second;
+                    Assert.assertEquals(
+                        decoded[i], value - 7.0, message + " uint16 " + i);
+                }
+            }
+
+            double[] x = random(random, n, 2.0);
+            double[] y = random(random, n, 2.0);
+            double dot = 0.0;
+            double scale = 0.0;
+            for (int i = 0; i < n; i++) {
+                dot += x[i] * y[i];
+                scale += Math.abs(x[i] * y[i]);
+            }
+            Assert.assertEquals(
+                kernels.dot(x, y), dot,
+                DOUBLE_TOLERANCE * Math.max(1.0, scale), message + " dot");
+            double[] axpy = y.clone();
+            kernels.axpy(-0.5, x, axpy);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(
+                    axpy[i], y[i] - 0.5 * x[i], 1e-14,
+                    message + " axpy " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testScalarKernels() {
+        assertMatchesReference(new ScalarKernels());
+    }
+
+    /**
+     * Only runs where the Vector API kernels are built and the JVM was
+     * started with <code>--add-modules jdk.incubator.vector</code>.
+     */
+    @Test
+    public void testVectorKernels() {
+        Kernels vector;
+        try {
+            vector = (Kernels) Class.forName(
+                "com.cidre.algorithms.VectorKernels")
+                .getDeclaredConstructor().newInstance();
+        } catch (Throwable t) {
+            throw new SkipException("Vector kernels unavailable: " + t);
+        }
+        assertMatchesReference(vector);
+        Assert.assertTrue(Kernels.agree(new ScalarKernels(), vector));
+    }
+
+    @Test
+    public void testSelectedKernels() {
+        assertMatchesReference(Kernels.get());
+    }
+}
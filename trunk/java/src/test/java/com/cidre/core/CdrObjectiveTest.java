@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+
+package com.cidre.core;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.cidre.algorithms.ObjectiveResult;
+import com.cidre.core.ModelGenerator.Mestimator;
+
+public class CdrObjectiveTest {
+
+    private static final int SIZE = 16;
+    private static final int DEPTH = 40;
+
+    private static ModelGenerator generator() {
+        return generator(false);
+    }
+
+    private static ModelGenerator generator(boolean float32) {
+        Options options = TestStacks.options(32, SIZE, DEPTH);
+        options.float32 = float32;
+        ModelGenerator generator = new ModelGenerator(options);
+        generator.setDefaultOptions();
+        generator.prepare(TestStacks.quantileStack(SIZE, SIZE, DEPTH, 1));
+        return generator;
+    }
+
+    private static CdrObjective robust(ModelGenerator generator) {
+        return new CdrObjective(
+            generator, generator.stack, 50.0, generator.pivotShiftX,
+            generator.pivotShiftY, Mestimator.CAUCHY, generator.Q, 1, 1.0,
+            0.5, null);
+    }
+
+    /**
+     * A point off the solution so that the weights are not all one.
+     */
+    private static double[] point(ModelGenerator generator) {
+        double[] x = generator.initialGuess();
+        int n = SIZE * SIZE;
+        for (int i = 0; i < n; i++) {
+            x[i] *= 1.0 + 0.2 * Math.sin(i);
+            x[n + i] += 30.0 * Math.cos(i);
+        }
+        return x;
+    }
+
+    private static void assertTouches(
+            CdrObjective majoriser, CdrObjective robust, double[] x)
+    {
+        ObjectiveResult expected = robust.evaluate(x);
+        ObjectiveResult actual = majoriser.evaluate(x);
+        Assert.assertEquals(
+            actual.E, expected.E, 1e-9 * Math.abs(expected.E));
+        for (int i = 0; i < expected.G.length; i++) {
+            Assert.assertEquals(
+                actual.G[i], expected.G[i],
+                1e-6 * (1.0 + Math.abs(expected.G[i])), "x" + i);
+        }
+    }
+
+    @Test
+    public void testSubsetOfMajoriser() {
+        ModelGenerator generator = generator();
+        CdrObjective robust = robust(generator);
+        double[] x = point(generator);
+        int[] slices = new int[] {1, 7, 8, 20, 33};
+        assertTouches(
+            robust.reweight(x).subset(slices), robust.subset(slices), x);
+    }
+
+    @Test
+    public void testCoarsenedMajoriser() {
+        ModelGenerator generator = generator();
+        CdrObjective robust = robust(generator);
+        double[] x = point(generator);
+        assertTouches(robust.reweight(x).coarsen(10), robust.coarsen(10), x);
+    }
+
+    @Test
+    public void testFloat32Evaluation() {
+        ModelGenerator reference = generator(false);
+        ModelGenerator float32 = generator(true);
+        Assert.assertNull(float32.stack.values);
+        double[] x = point(reference);
+        for (Mestimator method : Mestimator.values()) {
+            int term = method == Mestimator.LS ? 0 : 1;
+            ObjectiveResult expected = new CdrObjective(
+                reference, reference.stack, 5.0, reference.pivotShiftX,
+                reference.pivotShiftY, method, reference.Q, term, 6.0, 0.5,
+                null).evaluate(x);
+            ObjectiveResult actual = new CdrObjective(
+                float32, float32.stack, 5.0, float32.pivotShiftX,
+                float32.pivotShiftY, method, float32.Q, term, 6.0, 0.5,
+                null).evaluate(x);
+            // the stack is rounded to 24 bits, the sums are double
+            Assert.assertEquals(
+                actual.E, expected.E, 1e-7 * Math.abs(expected.E),
+                method.toString());
+            double scale = 0;
+            for (double g : expected.G) {
+                scale = Math.max(scale, Math.abs(g));
+            }
+            for (int i = 0; i < expected.G.length; i++) {
+                Assert.assertEquals(
+                    actual.G[i], expected.G[i], 1e-4 * scale,
+                    method + " x" + i);
+            }
+        }
+    }
+}
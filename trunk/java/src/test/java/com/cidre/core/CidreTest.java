@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+package com.cidre.core;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CidreTest {
+
+    private static long estimate(
+            int optimisers, boolean float32, boolean checkpointing)
+    {
+        return Cidre.estimateMemoryFootprint(
+            500, 200, 100 * 94, 1024 * 1024, 2, 2,
+            optimisers, float32, checkpointing);
+    }
+
+    @Test
+    public void testEstimateCoversOptionalBuffers() {
+        long base = estimate(1, false, false);
+        long variables = 2 * 100 * 94 + 2;
+        // every concurrent sweep optimisation has its own history
+        Assert.assertEquals(
+            estimate(4, false, false) - base, 3 * 8 * variables * 220);
+        // the packed quantile stack is halved in float32 mode
+        Assert.assertEquals(
+            base - estimate(1, true, false), 4L * 200 * 100 * 94);
+        // checkpoint read on resume: stack, min image and optimiser state
+        Assert.assertTrue(
+            estimate(1, false, true) - base
+            >= 8L * 200 * 100 * 94 + 8L * 1024 * 1024);
+    }
+
+    @Test
+    public void testEstimateGrowsWithInput() {
+        long small = Cidre.estimateMemoryFootprint(
+            100, 200, 9400, 1 << 20, 2, 1, 1, false, false);
+        Assert.assertTrue(Cidre.estimateMemoryFootprint(
+            1000, 200, 9400, 1 << 20, 2, 1, 1, false, false) > small);
+        Assert.assertTrue(Cidre.estimateMemoryFootprint(
+            100, 200, 9400, 1 << 22, 2, 1, 1, false, false) > small);
+        Assert.assertTrue(Cidre.estimateMemoryFootprint(
+            100, 200, 9400, 1 << 20, 2, 3, 1, false, false) > small);
+    }
+}
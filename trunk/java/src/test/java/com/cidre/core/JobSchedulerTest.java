@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+package com.cidre.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class JobSchedulerTest {
+
+    /**
+     * Job with a fixed estimate that records how many jobs and how much
+     * estimated memory run at the same time.
+     */
+    private static class FakeJob extends Cidre {
+
+        private final long estimate;
+
+        private final boolean failEstimate;
+
+        private final Tracker tracker;
+
+        private boolean executed = false;
+
+        private boolean closed = false;
+
+        FakeJob(long estimate, boolean failEstimate, Tracker tracker) {
+            super("job", null, null, null, false, false, null);
+            this.estimate = estimate;
+            this.failEstimate = failEstimate;
+            this.tracker = tracker;
+        }
+
+        @Override
+        public long estimateMemoryFootprint() throws Exception {
+            if (this.failEstimate) {
+                throw new Exception("Cannot open");
+            }
+            return this.estimate;
+        }
+
+        @Override
+        public void execute() throws Exception {
+            this.tracker.enter(this.estimate);
+            try {
+                Thread.sleep(20);
+            } finally {
+                this.tracker.exit(this.estimate);
+            }
+            this.executed = true;
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
+    private static class Tracker {
+
+        private final AtomicInteger running = new AtomicInteger();
+
+        private final AtomicLong memory = new AtomicLong();
+
+        private int maxRunning = 0;
+
+        private long maxMemory = 0;
+
+        synchronized void enter(long estimate) {
+            this.maxRunning = Math.max(
+                this.maxRunning, this.running.incrementAndGet());
+            this.maxMemory = Math.max(
+                this.maxMemory, this.memory.addAndGet(estimate));
+        }
+
+        synchronized void exit(long estimate) {
+            this.running.decrementAndGet();
+            this.memory.addAndGet(-estimate);
+        }
+    }
+
+    @Test
+    public void testAdmissionRespectsSlotsAndBudget() throws Exception {
+        Tracker tracker = new Tracker();
+        List<Cidre> jobs = new ArrayList<Cidre>();
+        for (int i = 0; i < 12; i++) {
+            jobs.add(new FakeJob(30, false, tracker));
+        }
+        new JobScheduler(100, 4).run(jobs);
+        for (Cidre job : jobs) {
+            Assert.assertTrue(((FakeJob) job).executed);
+        }
+        // 4 slots, but only 3 estimates of 30 fit a budget of 100
+        Assert.assertEquals(tracker.maxRunning, 3);
+        Assert.assertTrue(tracker.maxMemory <= 100);
+        Assert.assertEquals(tracker.memory.get(), 0);
+    }
+
+    @Test
+    public void testSlotsLimitSmallJobs() throws Exception {
+        Tracker tracker = new Tracker();
+        List<Cidre> jobs = new ArrayList<Cidre>();
+        for (int i = 0; i < 10; i++) {
+            jobs.add(new FakeJob(1, false, tracker));
+        }
+        new JobScheduler(1000, 2).run(jobs);
+        Assert.assertTrue(tracker.maxRunning <= 2);
+    }
+
+    @Test
+    public void testOversizedJobRunsAlone() throws Exception {
+        Tracker tracker = new Tracker();
+        List<Cidre> jobs = new ArrayList<Cidre>();
+        jobs.add(new FakeJob(10, false, tracker));
+        jobs.add(new FakeJob(500, false, tracker));
+        jobs.add(new FakeJob(10, false, tracker));
+        new JobScheduler(100, 4).run(jobs);
+        for (Cidre job : jobs) {
+            Assert.assertTrue(((FakeJob) job).executed);
+        }
+        // the oversized job reserves the whole budget while it runs
+        Assert.assertTrue(tracker.maxMemory <= 500 + 10);
+    }
+
+    @Test
+    public void testFailedEstimateReleasesSlot() throws Exception {
+        Tracker tracker = new Tracker();
+        List<Cidre> jobs = new ArrayList<Cidre>();
+        FakeJob failing = new FakeJob(10, true, tracker);
+        jobs.add(failing);
+        for (int i = 0; i < 3; i++) {
+            jobs.add(new FakeJob(10, false, tracker));
+        }
+        try {
+            new JobScheduler(100, 1).run(jobs);
+            Assert.fail("Estimate failure not reported");
+        } catch (Exception e) {
+            Assert.assertEquals(e.getMessage(), "Cannot open");
+        }
+        Assert.assertTrue(failing.closed);
+        Assert.assertFalse(failing.executed);
+        for (int i = 1; i < jobs.size(); i++) {
+            Assert.assertTrue(((FakeJob) jobs.get(i)).executed);
+        }
+    }
+
+    @Test
+    public void testThreadsPerJob() {
+        Assert.assertEquals(JobScheduler.threadsPerJob(16, 16, 1), 16);
+        Assert.assertEquals(JobScheduler.threadsPerJob(16, 16, 4), 4);
+        Assert.assertEquals(JobScheduler.threadsPerJob(16, 2, 10), 8);
+        Assert.assertEquals(JobScheduler.threadsPerJob(16, 16, 16), 1);
+        Assert.assertEquals(JobScheduler.threadsPerJob(4, 16, 16), 1);
+        Assert.assertEquals(JobScheduler.threadsPerJob(4, 0, 3), 4);
+        for (int maxJobs = 1; maxJobs <= 32; maxJobs++) {
+            int concurrent = Math.min(maxJobs, 32);
+            Assert.assertTrue(
+                concurrent * JobScheduler.threadsPerJob(16, maxJobs, 32)
+                <= Math.max(16, concurrent));
+        }
+    }
+}
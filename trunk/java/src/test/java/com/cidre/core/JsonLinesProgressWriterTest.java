@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.cidre.algorithms.OptimiserProgress;
+
+public class JsonLinesProgressWriterTest {
+
+    private static OptimiserProgress progress(int iteration) {
+        OptimiserProgress progress = new OptimiserProgress();
+        progress.input = "dir\\plate \"A\".tif";
+        progress.channel = 1;
+        progress.stage = 2;
+        progress.lambdaVreg = 6.0;
+        progress.lambdaZero = 0.5;
+        progress.iteration = iteration;
+        progress.f = 123.25;
+        progress.gradientNorm = Double.NaN;
+        progress.t = 1.0;
+        progress.funEvals = iteration + 1;
+        progress.elapsed = 12.3456;
+        return progress;
+    }
+
+    @Test
+    public void testOneObjectPerLine() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        JsonLinesProgressWriter writer =
+            new JsonLinesProgressWriter(stream, false);
+        Assert.assertTrue(writer.iteration(progress(0)));
+        Assert.assertTrue(writer.iteration(progress(1)));
+        writer.close();
+        String[] lines = new String(
+            stream.toByteArray(), StandardCharsets.UTF_8).split("\n", -1);
+        Assert.assertEquals(lines.length, 3);
+        Assert.assertEquals(lines[2], "");
+        // strings are escaped, NaN has no JSON representation
+        Assert.assertEquals(
+            lines[1].trim(),
+            "{\"input\": \"dir\\\\plate \\\"A\\\".tif\", \"channel\": 1, "
+            + "\"stage\": 2, \"lambdaVreg\": 6.0, \"lambdaZero\": 0.5, "
+            + "\"iteration\": 1, \"f\": 123.25, \"gradientNorm\": null, "
+            + "\"t\": 1.0, \"funEvals\": 2, \"elapsedMs\": 12.346}");
+    }
+
+    @Test
+    public void testReceivesEveryIteration() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ModelGenerator generator = new ModelGenerator(
+            TestStacks.options(64, 32, 50));
+        generator.addListener(new JsonLinesProgressWriter(stream, false));
+        int[] iterations = new int[3];
+        double[] last = {Double.NaN, Double.NaN, Double.NaN};
+        generator.addListener(progress -> {
+            Assert.assertEquals(progress.iteration, iterations[progress.stage]);
+            iterations[progress.stage]++;
+            // L-BFGS only takes descent steps
+            Assert.assertFalse(progress.f > last[progress.stage]);
+            last[progress.stage] = progress.f;
+            return true;
+        });
+        generator.generate(TestStacks.quantileStack(32, 32, 50, 1));
+        Assert.assertTrue(iterations[1] > 0);
+        Assert.assertTrue(iterations[2] > 0);
+        String[] lines = new String(
+            stream.toByteArray(), StandardCharsets.UTF_8).trim().split("\n");
+        Assert.assertEquals(lines.length, iterations[1] + iterations[2]);
+    }
+}
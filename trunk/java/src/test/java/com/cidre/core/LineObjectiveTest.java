@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.cidre.algorithms.LineFunction;
+import com.cidre.algorithms.ObjectiveResult;
+import com.cidre.core.ModelGenerator.Mestimator;
+
+/**
+ * A trial step along the line evaluates the objective at that point,
+ * also after the line has advanced along earlier directions.
+ */
+public class LineObjectiveTest {
+
+    private static final int SIZE = 16;
+    private static final int DEPTH = 40;
+
+    private static ModelGenerator generator() {
+        ModelGenerator generator = new ModelGenerator(
+            TestStacks.options(32, SIZE, DEPTH));
+        generator.setDefaultOptions();
+        generator.prepare(TestStacks.quantileStack(SIZE, SIZE, DEPTH, 1));
+        return generator;
+    }
+
+    private static CdrObjective objective(
+            ModelGenerator generator, Mestimator method, int term)
+    {
+        return new CdrObjective(
+            generator, generator.stack, 50.0, generator.pivotShiftX,
+            generator.pivotShiftY, method, generator.Q, term, 6.0, 0.5,
+            null);
+    }
+
+    private static double[] point(ModelGenerator generator) {
+        double[] x = generator.initialGuess();
+        int n = SIZE * SIZE;
+        for (int i = 0; i < n; i++) {
+            x[i] *= 1.0 + 0.2 * Math.sin(i);
+            x[n + i] += 30.0 * Math.cos(i);
+        }
+        return x;
+    }
+
+    private static double[] direction(int length, int seed) {
+        double[] d = new double[length];
+        int n = (length - 2) / 2;
+        for (int i = 0; i < n; i++) {
+            d[i] = 0.01 * Math.sin(seed + 0.3 * i);
+            d[n + i] = 5.0 * Math.cos(seed + 0.7 * i);
+        }
+        d[2 * n] = 0.5 * seed;
+        d[2 * n + 1] = -2.0 * seed;
+        return d;
+    }
+
+    private static double[] step(double[] x, double t, double[] d) {
+        double[] x2 = x.clone();
+        for (int j = 0; j < x2.length; j++) {
+            x2[j] += t * d[j];
+        }
+        return x2;
+    }
+
+    private static void assertLine(CdrObjective objective, double[] x) {
+        LineFunction line = objective.line(x);
+        for (int k = 1; k <= 3; k++) {
+            double[] d = direction(x.length, k);
+            line.setDirection(d);
+            for (double t : new double[] {0.0, 0.25, 1.0, 2.0}) {
+                ObjectiveResult expected = objective.evaluate(step(x, t, d));
+                ObjectiveResult actual = line.evaluate(t);
+                String message = objective.method + " TERM "
+                    + objective.TERM + ", direction " + k + ", t = " + t;
+                Assert.assertEquals(
+                    actual.E, expected.E, 1e-9 * Math.abs(expected.E),
+                    message);
+                double scale = 0;
+                for (double g : expected.G) {
+                    scale = Math.max(scale, Math.abs(g));
+                }
+                for (int i = 0; i < expected.G.length; i++) {
+                    Assert.assertEquals(
+                        actual.G[i], expected.G[i], 1e-9 * scale,
+                        message + ", x" + i);
+                }
+            }
+            line.advance(0.5);
+            x = step(x, 0.5, d);
+        }
+    }
+
+    @Test
+    public void testLeastSquares() {
+        ModelGenerator generator = generator();
+        assertLine(
+            objective(generator, Mestimator.LS, 0), point(generator));
+        assertLine(
+            objective(generator, Mestimator.LS, 1), point(generator));
+    }
+
+    @Test
+    public void testCauchy() {
+        ModelGenerator generator = generator();
+        assertLine(
+            objective(generator, Mestimator.CAUCHY, 1), point(generator));
+    }
+
+    @Test
+    public void testMajoriser() {
+        ModelGenerator generator = generator();
+        double[] x = point(generator);
+        assertLine(
+            objective(generator, Mestimator.CAUCHY, 1).reweight(x), x);
+    }
+}
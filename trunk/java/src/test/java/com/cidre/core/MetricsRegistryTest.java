@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testJson() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.increment(MetricsRegistry.PLANES_DECODED, 4);
+        metrics.increment(MetricsRegistry.BYTES_DECODED, 1000);
+        metrics.increment(MetricsRegistry.OBJECTIVE_EVALUATIONS);
+        metrics.getTimer(MetricsRegistry.DECODE).record(1500000000L, 2048);
+        metrics.getTimer(MetricsRegistry.DECODE).record(500000000L, 0);
+        metrics.getTimer(MetricsRegistry.PHASE_PREFIX + "load").record(
+            1234567L, 0);
+        // counters and timers sorted by name, rates over the decode time
+        Assert.assertEquals(
+            metrics.toJson(),
+            "{\n"
+            + "  \"counters\": {\n"
+            + "    \"io.bytesDecoded\": 1000,\n"
+            + "    \"io.planesDecoded\": 4,\n"
+            + "    \"optimiser.objectiveEvaluations\": 1\n"
+            + "  },\n"
+            + "  \"timers\": {\n"
+            + "    \"io.decode\": {\"count\": 2, \"totalMs\": 2000.000, "
+            + "\"maxMs\": 1500.000, \"allocatedBytes\": 2048},\n"
+            + "    \"phase.load\": {\"count\": 1, \"totalMs\": 1.235, "
+            + "\"maxMs\": 1.235, \"allocatedBytes\": 0}\n"
+            + "  },\n"
+            + "  \"rates\": {\n"
+            + "    \"io.planesDecodedPerSecond\": 2.000,\n"
+            + "    \"io.bytesDecodedPerSecond\": 500.000\n"
+            + "  }\n"
+            + "}\n");
+    }
+
+    @Test
+    public void testEmptyJson() {
+        Assert.assertEquals(
+            new MetricsRegistry().toJson(),
+            "{\n"
+            + "  \"counters\": {\n"
+            + "  },\n"
+            + "  \"timers\": {\n"
+            + "  },\n"
+            + "  \"rates\": {\n"
+            + "    \"io.planesDecodedPerSecond\": 0.000,\n"
+            + "    \"io.bytesDecodedPerSecond\": 0.000\n"
+            + "  }\n"
+            + "}\n");
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final MetricsRegistry metrics = new MetricsRegistry();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    metrics.increment(MetricsRegistry.LINE_SEARCH_TRIALS);
+                    try (MetricsRegistry.Context c =
+                            metrics.time(MetricsRegistry.DECODE))
+                    {
+                        // measured
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(
+            metrics.getCounter(MetricsRegistry.LINE_SEARCH_TRIALS), 40000);
+        MetricsRegistry.Timer timer =
+            metrics.getTimer(MetricsRegistry.DECODE);
+        Assert.assertEquals(timer.getCount(), 40000);
+        Assert.assertTrue(timer.getMaxTime() <= timer.getTotalTime());
+    }
+
+    @Test
+    public void testResetAndWrite() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.increment(MetricsRegistry.LBFGS_SKIPS, 3);
+        metrics.reset();
+        Assert.assertEquals(
+            metrics.getCounter(MetricsRegistry.LBFGS_SKIPS), 0);
+        File file = File.createTempFile("metrics", ".json");
+        try {
+            metrics.writeJson(file);
+            Assert.assertEquals(
+                new String(
+                    Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8),
+                metrics.toJson());
+        } finally {
+            file.delete();
+        }
+    }
+}
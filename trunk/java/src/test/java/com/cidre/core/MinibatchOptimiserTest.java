@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+
+package com.cidre.core;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.cidre.algorithms.MinFuncOptions;
+import com.cidre.algorithms.MinFuncResult;
+import com.cidre.algorithms.Objective;
+import com.cidre.core.ModelGenerator.Mestimator;
+
+/**
+ * The minibatch phase only changes the path to the optimum: run to
+ * convergence, it ends where the full batch L-BFGS does.
+ */
+public class MinibatchOptimiserTest {
+
+    private static final int SIZE = 16;
+    private static final int DEPTH = 100;
+    private static final double LAMBDA_VREG = 12.0;
+    private static final double LAMBDA_ZERO = 0.5;
+
+    // objective relative to its value, v and b (intensity units)
+    private static final double F_TOLERANCE = 1e-7;
+    private static final double V_TOLERANCE = 1e-5;
+    private static final double B_TOLERANCE = 1e-2;
+
+    private ModelGenerator generator;
+
+    @BeforeMethod
+    public void setUp() {
+        this.generator = new ModelGenerator(
+            TestStacks.options(32, SIZE, DEPTH));
+        this.generator.setDefaultOptions();
+        this.generator.prepare(
+            TestStacks.quantileStack(SIZE, SIZE, DEPTH, 1));
+    }
+
+    /**
+     * Converged far beyond the tolerances of the stages.
+     */
+    private static MinFuncOptions converged() {
+        MinFuncOptions options = new MinFuncOptions();
+        options.maxIter = 5000;
+        options.MaxFunEvals = 10000;
+        options.progTol = 1e-12;
+        options.optTol = 1e-8;
+        options.Corr = 100;
+        return options;
+    }
+
+    private CdrObjective objective(Mestimator method, int term) {
+        ModelGenerator g = this.generator;
+        return new CdrObjective(
+            g, g.stack, 1.0, g.pivotShiftX, g.pivotShiftY, method, g.Q,
+            term, LAMBDA_VREG, LAMBDA_ZERO, null);
+    }
+
+    private MinFuncResult fullBatch(Objective objective, double[] x0) {
+        return new MinFuncOptimiser(
+            this.generator, converged(), 0, LAMBDA_VREG, LAMBDA_ZERO,
+            false).minimise(objective, x0);
+    }
+
+    private void assertConverges(Objective objective, double[] x0) {
+        MinFuncResult expected = this.fullBatch(objective, x0);
+        int n = SIZE * SIZE;
+        for (int batchSize : new int[] {10, 25}) {
+            MinFuncResult actual = new MinibatchOptimiser(
+                this.generator, converged(), batchSize, 0, LAMBDA_VREG,
+                LAMBDA_ZERO, false).minimise(objective, x0);
+            String batch = "batches of " + batchSize;
+            Assert.assertEquals(
+                actual.f, expected.f, F_TOLERANCE * Math.abs(expected.f),
+                batch);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(
+                    actual.x[i], expected.x[i], V_TOLERANCE, batch);
+                Assert.assertEquals(
+                    actual.x[n + i], expected.x[n + i], B_TOLERANCE, batch);
+            }
+        }
+    }
+
+    @Test
+    public void testLeastSquaresStage() {
+        this.assertConverges(
+            this.objective(Mestimator.LS, 0),
+            this.generator.initialGuess());
+    }
+
+    @Test
+    public void testRobustStage() {
+        // from the least squares solution, as in the model build
+        double[] x1 = this.fullBatch(
+            this.objective(Mestimator.LS, 0),
+            this.generator.initialGuess()).x;
+        this.assertConverges(this.objective(Mestimator.CAUCHY, 1), x1);
+    }
+}
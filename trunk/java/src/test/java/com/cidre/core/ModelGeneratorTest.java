@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+package com.cidre.core;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.cidre.io.Checkpoint;
+
+public class ModelGeneratorTest {
+
+    @Test
+    public void testConvergedModelIsNotPartial() {
+        Options options = TestStacks.options(64, 32, 50);
+        ModelDescriptor descriptor = new ModelGenerator(options).generate(
+            TestStacks.quantileStack(32, 32, 50, 1));
+        Assert.assertFalse(descriptor.partial);
+    }
+
+    @Test
+    public void testModelOutOfTimeIsPartial() {
+        Options options = TestStacks.options(64, 32, 50);
+        options.stageTimeBudget = 0.001;
+        ModelDescriptor descriptor = new ModelGenerator(options).generate(
+            TestStacks.quantileStack(32, 32, 50, 1));
+        Assert.assertTrue(descriptor.partial);
+        Assert.assertEquals(descriptor.v.length, 64 * 64);
+    }
+
+    @Test
+    public void testListenerStopIsNotPartial() {
+        Options options = TestStacks.options(64, 32, 50);
+        ModelGenerator generator = new ModelGenerator(options);
+        int[] last = {-1};
+        generator.addListener(progress -> {
+            if (progress.stage != 2) {
+                return true;
+            }
+            last[0] = progress.iteration;
+            return progress.iteration < 3;
+        });
+        ModelDescriptor descriptor = generator.generate(
+            TestStacks.quantileStack(32, 32, 50, 1));
+        Assert.assertEquals(last[0], 3);
+        Assert.assertFalse(descriptor.partial);
+    }
+
+    @Test
+    public void testInterruptedModelIsPartial() {
+        Options options = TestStacks.options(64, 32, 50);
+        Thread.currentThread().interrupt();
+        try {
+            ModelDescriptor descriptor =
+                new ModelGenerator(options).generate(
+                    TestStacks.quantileStack(32, 32, 50, 1));
+            Assert.assertTrue(descriptor.partial);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static Checkpoint checkpoint(Options options, String inputKey)
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("checkpoint").toFile();
+        File file = new File(directory, "input.c0.checkpoint");
+        try {
+            ModelGenerator model = new ModelGenerator(options);
+            model.setInputKey(inputKey);
+            model.setCheckpointing(file, 1000, new double[][] {{0}});
+            // a build killed a few iterations into the robust stage
+            model.addListener(progress -> {
+                if (progress.stage == 2 && progress.iteration == 5) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            });
+            ModelDescriptor descriptor = model.generate(
+                TestStacks.quantileStack(32, 32, 50, 1));
+            Assert.assertTrue(descriptor.partial);
+            Checkpoint checkpoint = Checkpoint.read(file);
+            Assert.assertEquals(checkpoint.stage, 2);
+            Assert.assertEquals(checkpoint.iteration, 6);
+            return checkpoint;
+        } finally {
+            Thread.interrupted();
+            file.delete();
+            directory.delete();
+        }
+    }
+
+    private static boolean canResume(
+            Options options, String inputKey, Checkpoint checkpoint)
+    {
+        ModelGenerator model = new ModelGenerator(options);
+        model.setInputKey(inputKey);
+        return model.canResume(checkpoint);
+    }
+
+    @Test
+    public void testCheckpointIsTiedToInputAndOptions() throws Exception {
+        Options options = TestStacks.options(64, 32, 50);
+        Checkpoint checkpoint = checkpoint(options, "input-a");
+        Assert.assertNotNull(checkpoint);
+        Assert.assertTrue(canResume(
+            TestStacks.options(64, 32, 50), "input-a", checkpoint));
+
+        // different file, channel or preprocessing
+        Assert.assertFalse(canResume(
+            TestStacks.options(64, 32, 50), "input-b", checkpoint));
+        Assert.assertFalse(canResume(
+            TestStacks.options(64, 32, 50), null, checkpoint));
+
+        Options changed = TestStacks.options(64, 32, 50);
+        changed.numberOfQuantiles = 100;
+        Assert.assertFalse(canResume(changed, "input-a", checkpoint));
+        changed = TestStacks.options(64, 32, 50);
+        changed.optimiser = Options.Method.NCG;
+        Assert.assertFalse(canResume(changed, "input-a", checkpoint));
+        changed = TestStacks.options(64, 32, 50);
+        changed.float32 = true;
+        Assert.assertFalse(canResume(changed, "input-a", checkpoint));
+        changed = TestStacks.options(64, 32, 50);
+        changed.precondition = true;
+        Assert.assertFalse(canResume(changed, "input-a", checkpoint));
+        changed = TestStacks.options(64, 32, 50);
+        changed.planeSample = 100;
+        Assert.assertFalse(canResume(changed, "input-a", checkpoint));
+        changed = TestStacks.options(64, 32, 50);
+        changed.lambdaVreg = 5.0;
+        Assert.assertFalse(canResume(changed, "input-a", checkpoint));
+    }
+
+    @Test
+    public void testResumeFinishesBuild() throws Exception {
+        Options options = TestStacks.options(64, 32, 50);
+        Checkpoint checkpoint = checkpoint(options, "input-a");
+        ModelGenerator model = new ModelGenerator(options);
+        model.setInputKey("input-a");
+        Assert.assertTrue(model.canResume(checkpoint));
+        ModelDescriptor resumed = model.resume(checkpoint);
+        Assert.assertFalse(resumed.partial);
+        ModelDescriptor full = new ModelGenerator(
+            TestStacks.options(64, 32, 50)).generate(
+                TestStacks.quantileStack(32, 32, 50, 1));
+        double diff = 0;
+        double sum = 0;
+        for (int i = 0; i < full.v.length; i++) {
+            diff += Math.abs(resumed.v[i] - full.v[i]);
+            sum += Math.abs(full.v[i]);
+        }
+        // both runs stop within the tolerances of the same minimum
+        Assert.assertTrue(diff / sum < 1e-3, "mean relative dv " + diff / sum);
+    }
+
+    @Test
+    public void testPreconditionedResumeFinishesBuild() throws Exception {
+        // the diagonal preconditioner is recomputed from the iterate, so
+        // it is not part of the checkpoint
+        Options options = TestStacks.options(64, 32, 50);
+        options.precondition = true;
+        Checkpoint checkpoint = checkpoint(options, "input-a");
+        ModelGenerator model = new ModelGenerator(options);
+        model.setInputKey("input-a");
+        Assert.assertTrue(model.canResume(checkpoint));
+        ModelDescriptor resumed = model.resume(checkpoint);
+        Assert.assertFalse(resumed.partial);
+        Options full = TestStacks.options(64, 32, 50);
+        full.precondition = true;
+        ModelDescriptor reference = new ModelGenerator(full).generate(
+            TestStacks.quantileStack(32, 32, 50, 1));
+        double diff = 0;
+        double sum = 0;
+        for (int i = 0; i < reference.v.length; i++) {
+            diff += Math.abs(resumed.v[i] - reference.v[i]);
+            sum += Math.abs(reference.v[i]);
+        }
+        Assert.assertTrue(diff / sum < 1e-3, "mean relative dv " + diff / sum);
+    }
+
+    /**
+     * The lowest robust objective reported while building a model.
+     */
+    private static double robustEnergy(boolean precondition, long seed) {
+        Options options = TestStacks.options(64, 32, 100);
+        options.precondition = precondition;
+        ModelGenerator generator = new ModelGenerator(options);
+        double[] energy = {Double.POSITIVE_INFINITY};
+        generator.addListener(progress -> {
+            if (progress.stage == 2) {
+                energy[0] = Math.min(energy[0], progress.f);
+            }
+            return true;
+        });
+        Assert.assertFalse(generator.generate(
+            TestStacks.quantileStack(32, 32, 100, seed)).partial);
+        return energy[0];
+    }
+
+    @Test
+    public void testPreconditionedRobustFitIsNoWorse() {
+        for (long seed = 1; seed <= 3; seed++) {
+            double reference = robustEnergy(false, seed);
+            double preconditioned = robustEnergy(true, seed);
+            Assert.assertTrue(
+                preconditioned <= reference * (1 + 1e-6),
+                preconditioned + " > " + reference);
+        }
+    }
+
+    private static ModelDescriptor robust(
+            Options.Method optimiser, Integer minibatch, boolean pyramid)
+    {
+        Options options = TestStacks.options(64, 32, 100);
+        options.optimiser = optimiser;
+        options.minibatch = minibatch;
+        options.quantilePyramid = pyramid;
+        return new ModelGenerator(options).generate(
+            TestStacks.quantileStack(32, 32, 100, 1));
+    }
+
+    @Test
+    public void testRobustOptimisersAgree() {
+        ModelDescriptor reference = robust(Options.Method.LBFGS, null, false);
+        for (ModelDescriptor descriptor : new ModelDescriptor[] {
+                robust(Options.Method.IRLS, null, false),
+                robust(Options.Method.IRLS, 20, false),
+                robust(Options.Method.IRLS, null, true),
+                robust(Options.Method.VARPRO, null, false)})
+        {
+            Assert.assertFalse(descriptor.partial);
+            double difference = 0;
+            for (int i = 0; i < reference.v.length; i++) {
+                difference += Math.abs(descriptor.v[i] - reference.v[i])
+                            / reference.v[i];
+            }
+            Assert.assertTrue(
+                difference / reference.v.length < 1e-2,
+                "mean relative difference " + difference / reference.v.length);
+        }
+    }
+
+    private static ModelDescriptor build(boolean float32) {
+        Options options = TestStacks.options(96, 96, 200);
+        options.float32 = float32;
+        return new ModelGenerator(options).generate(
+            TestStacks.quantileStack(96, 96, 200, 1));
+    }
+
+    @Test
+    public void testFloat32BuildMatchesDouble() {
+        // Whole builds differ mostly in where the optimiser stops, by up
+        // to 0.15 in z over seeds of this stack (z spans 300); the
+        // precision of the objective itself is tested in CdrObjectiveTest.
+        ModelDescriptor reference = build(false);
+        ModelDescriptor float32 = build(true);
+        Assert.assertFalse(float32.partial);
+        double dv = 0;
+        double dz = 0;
+        for (int i = 0; i < reference.v.length; i++) {
+            dv = Math.max(dv, Math.abs(float32.v[i] - reference.v[i])
+                              / reference.v[i]);
+            dz = Math.max(dz, Math.abs(float32.z[i] - reference.z[i]));
+        }
+        Assert.assertTrue(dv < 5e-4, "max relative dv " + dv);
+        Assert.assertTrue(dz < 0.25, "max dz " + dz);
+    }
+
+    @Test
+    public void testIrlsWithinFunctionEvaluations() {
+        Options options = TestStacks.options(64, 32, 50);
+        options.optimiser = Options.Method.IRLS;
+        options.maxFunEvals = 3;
+        ModelDescriptor descriptor = new ModelGenerator(options).generate(
+            TestStacks.quantileStack(32, 32, 50, 1));
+        Assert.assertEquals(descriptor.v.length, 64 * 64);
+    }
+
+    private static List<SweepResult> sweep(
+            List<Double> lambdaVregs, int threads) throws Exception
+    {
+        return new ModelGenerator(TestStacks.options(64, 32, 50)).sweep(
+            TestStacks.quantileStack(32, 32, 50, 1), lambdaVregs,
+            Arrays.asList(0.5, 1.0), threads);
+    }
+
+    @Test
+    public void testSweepMatchesSingleSettings() throws Exception {
+        List<SweepResult> results = sweep(Arrays.asList(6.5, 6.0), 2);
+        Assert.assertEquals(results.size(), 4);
+        double[][] expected =
+            {{6.0, 0.5}, {6.5, 0.5}, {6.0, 1.0}, {6.5, 1.0}};
+        for (int i = 0; i < results.size(); i++) {
+            SweepResult result = results.get(i);
+            Assert.assertEquals(result.lambdaVreg, expected[i][0]);
+            Assert.assertEquals(result.lambdaZero, expected[i][1]);
+            Assert.assertEquals(result.warmStarted, i % 2 == 1);
+        }
+
+        // settings run concurrently do not interfere
+        List<SweepResult> serial = sweep(Arrays.asList(6.0, 6.5), 1);
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals(
+                serial.get(i).energy, results.get(i).energy, 0.0);
+        }
+
+        // the cold start of a setting is the robust stage of a single build
+        Options options = TestStacks.options(64, 32, 50);
+        options.lambdaVreg = 6.0;
+        options.lambdaZero = 1.0;
+        double[] energy = {Double.NaN};
+        ModelGenerator generator = new ModelGenerator(options);
+        generator.addListener(progress -> {
+            if (progress.stage == 2) {
+                energy[0] = progress.f;
+            }
+            return true;
+        });
+        generator.generate(TestStacks.quantileStack(32, 32, 50, 1));
+        Assert.assertEquals(
+            results.get(2).energy, energy[0], 1e-9 * Math.abs(energy[0]));
+
+        // warm starts get at least as far down as cold starts
+        List<SweepResult> cold = sweep(Arrays.asList(6.5), 1);
+        for (int i = 0; i < cold.size(); i++) {
+            double reference = cold.get(i).energy;
+            Assert.assertTrue(
+                results.get(2 * i + 1).energy < reference * (1 + 1e-6));
+        }
+    }
+
+    private static ModelDescriptor fast(boolean model, boolean start) {
+        Options options = TestStacks.options(64, 32, 100);
+        options.fastModel = model;
+        options.fastStart = start;
+        return new ModelGenerator(options).generate(
+            TestStacks.quantileStack(32, 32, 100, 1));
+    }
+
+    private static double meanRelativeDifference(
+            double[] values, double[] reference)
+    {
+        double difference = 0;
+        for (int i = 0; i < reference.length; i++) {
+            difference += Math.abs(values[i] - reference[i]) / reference[i];
+        }
+        return difference / reference.length;
+    }
+
+    @Test
+    public void testFastModelApproximatesFullBuild() {
+        ModelDescriptor reference = fast(false, false);
+        ModelDescriptor model = fast(true, false);
+        ModelDescriptor start = fast(false, true);
+        Assert.assertEquals(model.v.length, reference.v.length);
+        Assert.assertFalse(model.partial);
+        Assert.assertFalse(start.partial);
+        double dfast = meanRelativeDifference(model.v, reference.v);
+        double dstart = meanRelativeDifference(start.v, reference.v);
+        // the rough model is within a few tenths of a percent on this
+        // stack, and starting from it reaches the same minimum
+        Assert.assertTrue(dfast < 1e-2, "mean relative dv " + dfast);
+        Assert.assertTrue(dstart < 1e-3, "mean relative dv " + dstart);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+
+package com.cidre.core;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.cidre.core.ModelGenerator.Mestimator;
+
+/**
+ * The fitting term and its curvature estimate share one scale.
+ */
+public class ObjectiveScaleTest {
+
+    private static void assertCurvature(int depth) {
+        int size = 16;
+        ModelGenerator generator = new ModelGenerator(
+            TestStacks.options(32, size, depth));
+        generator.setDefaultOptions();
+        generator.prepare(TestStacks.quantileStack(size, size, depth, 1));
+        CdrObjective objective = new CdrObjective(
+            generator, generator.stack, 0.0, generator.pivotShiftX,
+            generator.pivotShiftY, Mestimator.LS, generator.Q, 0, 0.0, 0.0,
+            null);
+        int n = size * size;
+        double[] x = new double[2 * n + 2];
+        for (int i = 0; i < n; i++) {
+            x[i] = 1.0;
+        }
+        x[2 * n] = generator.pivotShiftX;
+        double[] Hinv = objective.inverseHessianDiagonal(x);
+        double h = 1e-3;
+        for (int i : new int[] {0, n / 2 + size / 2, n, n + n / 3}) {
+            double[] xp = x.clone();
+            double[] xm = x.clone();
+            xp[i] += h;
+            xm[i] -= h;
+            double H = (objective.evaluate(xp).G[i]
+                      - objective.evaluate(xm).G[i]) / (2 * h);
+            // LS fitting term is quadratic: the estimate is exact
+            Assert.assertEquals(
+                H * Hinv[i], 1.0, 1e-6, "depth " + depth + ", x" + i);
+        }
+    }
+
+    @Test
+    public void testCurvatureMatchesGradient() {
+        assertCurvature(50);
+        assertCurvature(100);
+    }
+
+    @Test
+    public void testDataSizeFactor() {
+        Assert.assertEquals(
+            ModelGenerator.dataSizeFactor(ModelGenerator.N_STANDARD), 1.0);
+        Assert.assertEquals(ModelGenerator.dataSizeFactor(50), 4.0);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+package com.cidre.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PhaseProfilerTest {
+
+    private static final int MB = 1 << 20;
+
+    private static long poolPeaks() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    @Test
+    public void testPeakCoversLiveAllocation() {
+        PhaseProfiler profiler = new PhaseProfiler();
+        byte[] block;
+        try (PhaseProfiler.Measurement m =
+                profiler.start(PhaseProfiler.LOAD))
+        {
+            block = new byte[64 * MB];
+            block[block.length - 1] = 1;
+        }
+        PhaseProfiler.Phase phase = profiler.getPhases().get(0);
+        Assert.assertEquals(phase.name, PhaseProfiler.LOAD);
+        Assert.assertEquals(phase.count, 1);
+        Assert.assertTrue(phase.peakHeap >= 64L * MB, "" + phase.peakHeap);
+        Assert.assertEquals(block[block.length - 1], 1);
+    }
+
+    @Test
+    public void testStartDoesNotResetPoolPeaks() {
+        byte[] block = new byte[64 * MB];
+        block[0] = 1;
+        block = null;
+        long before = poolPeaks();
+        PhaseProfiler profiler = new PhaseProfiler();
+        try (PhaseProfiler.Measurement outer =
+                profiler.start(PhaseProfiler.STAGE_1))
+        {
+            try (PhaseProfiler.Measurement inner =
+                    profiler.start(PhaseProfiler.STAGE_2))
+            {
+                Assert.assertTrue(poolPeaks() >= before);
+            }
+        }
+        Assert.assertTrue(poolPeaks() >= before);
+    }
+
+    @Test
+    public void testOuterPhaseKeepsPeakOfInnerPhase() throws Exception {
+        PhaseProfiler profiler = new PhaseProfiler();
+        try (PhaseProfiler.Measurement outer =
+                profiler.start(PhaseProfiler.STAGE_1))
+        {
+            try (PhaseProfiler.Measurement inner =
+                    profiler.start(PhaseProfiler.STAGE_2))
+            {
+                byte[] block = new byte[64 * MB];
+                block[0] = 1;
+                System.gc();
+                // notifications are delivered asynchronously
+                Thread.sleep(200);
+            }
+        }
+        long outer = 0;
+        long inner = 0;
+        for (PhaseProfiler.Phase phase : profiler.getPhases()) {
+            if (phase.name.equals(PhaseProfiler.STAGE_1)) {
+                outer = phase.peakHeap;
+            } else {
+                inner = phase.peakHeap;
+            }
+        }
+        Assert.assertTrue(inner >= 64L * MB, "" + inner);
+        Assert.assertTrue(outer >= inner, outer + " < " + inner);
+    }
+
+    @Test
+    public void testRepeatedPhaseAccumulates() {
+        PhaseProfiler profiler = new PhaseProfiler();
+        for (int i = 0; i < 3; i++) {
+            try (PhaseProfiler.Measurement m =
+                    profiler.start(PhaseProfiler.SAVE))
+            {
+            }
+        }
+        Assert.assertEquals(profiler.getPhases().size(), 1);
+        Assert.assertEquals(profiler.getPhases().get(0).count, 3);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PivotedStackTest {
+
+    private static final int WIDTH = 3;
+    private static final int HEIGHT = 2;
+    private static final int DEPTH = 5;
+
+    private static double value(int x, int y, int z) {
+        return 1000.0 + 100.0 * x + 10.0 * y + z + 1.0 / 3.0;
+    }
+
+    private static List<double[][]> planes() {
+        List<double[][]> planes = new ArrayList<double[][]>();
+        for (int z = 0; z < DEPTH; z++) {
+            double[][] plane = new double[WIDTH][HEIGHT];
+            for (int x = 0; x < WIDTH; x++) {
+                for (int y = 0; y < HEIGHT; y++) {
+                    plane[x][y] = value(x, y, z);
+                }
+            }
+            planes.add(plane);
+        }
+        return planes;
+    }
+
+    @Test
+    public void testPackIsLocationMajor() {
+        List<double[][]> planes = planes();
+        PivotedStack stack = PivotedStack.pack(planes, false);
+        Assert.assertTrue(planes.isEmpty());
+        Assert.assertNull(stack.floats);
+        Assert.assertEquals(stack.size(), WIDTH * HEIGHT);
+        double[] q = new double[DEPTH];
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                int i = x * HEIGHT + y;
+                stack.location(i, q);
+                for (int z = 0; z < DEPTH; z++) {
+                    Assert.assertEquals(stack.get(i, z), value(x, y, z));
+                    Assert.assertEquals(q[z], value(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFloat32KeepsOnlyFloats() {
+        PivotedStack stack = PivotedStack.pack(planes(), true);
+        Assert.assertNull(stack.values);
+        Assert.assertEquals(stack.floats.length, WIDTH * HEIGHT * DEPTH);
+        double[] q = new double[DEPTH];
+        stack.location(HEIGHT + 1, q);
+        for (int z = 0; z < DEPTH; z++) {
+            Assert.assertEquals(q[z], (double) (float) value(1, 1, z));
+            Assert.assertEquals(stack.get(HEIGHT + 1, z), q[z]);
+        }
+    }
+
+    @Test
+    public void testSubset() {
+        for (boolean float32 : new boolean[] {false, true}) {
+            PivotedStack stack = PivotedStack.pack(planes(), float32);
+            PivotedStack subset = stack.subset(new int[] {4, 0, 2});
+            Assert.assertEquals(subset.depth, 3);
+            Assert.assertEquals(subset.floats != null, float32);
+            for (int i = 0; i < stack.size(); i++) {
+                Assert.assertEquals(subset.get(i, 0), stack.get(i, 4));
+                Assert.assertEquals(subset.get(i, 1), stack.get(i, 0));
+                Assert.assertEquals(subset.get(i, 2), stack.get(i, 2));
+            }
+        }
+    }
+
+    @Test
+    public void testCoarsen() {
+        for (boolean float32 : new boolean[] {false, true}) {
+            PivotedStack stack = PivotedStack.pack(planes(), float32);
+            PivotedStack coarse = stack.coarsen(2);
+            Assert.assertEquals(coarse.depth, 2);
+            Assert.assertEquals(coarse.floats != null, float32);
+            for (int i = 0; i < stack.size(); i++) {
+                // runs of quantiles [0, 2) and [2, 5)
+                Assert.assertEquals(
+                    coarse.get(i, 0),
+                    (stack.get(i, 0) + stack.get(i, 1)) / 2, 1e-4);
+                Assert.assertEquals(
+                    coarse.get(i, 1),
+                    (stack.get(i, 2) + stack.get(i, 3) + stack.get(i, 4))
+                    / 3, 1e-4);
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsWrongLength() {
+        new PivotedStack(WIDTH, HEIGHT, DEPTH, new double[DEPTH], null);
+    }
+}
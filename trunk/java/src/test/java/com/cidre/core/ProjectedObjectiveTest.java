@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+
+package com.cidre.core;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.cidre.algorithms.LineFunction;
+import com.cidre.algorithms.ObjectiveResult;
+import com.cidre.core.ModelGenerator.Mestimator;
+
+public class ProjectedObjectiveTest {
+
+    private static final int SIZE = 16;
+    private static final int DEPTH = 40;
+
+    private ProjectedObjective objective;
+    private double[] y;
+
+    @BeforeMethod
+    public void setUp() {
+        ModelGenerator generator = new ModelGenerator(
+            TestStacks.options(32, SIZE, DEPTH));
+        generator.setDefaultOptions();
+        generator.prepare(TestStacks.quantileStack(SIZE, SIZE, DEPTH, 1));
+        CdrObjective robust = new CdrObjective(
+            generator, generator.stack, 5.0, generator.pivotShiftX,
+            generator.pivotShiftY, Mestimator.CAUCHY, generator.Q, 1, 1.0,
+            0.5, null);
+        double[] x = generator.initialGuess();
+        int n = SIZE * SIZE;
+        for (int i = 0; i < n; i++) {
+            x[i] *= 1.0 + 0.1 * Math.sin(i);
+            x[n + i] += 20.0 * Math.cos(i);
+        }
+        this.objective = new ProjectedObjective(generator, robust, x);
+        this.y = this.objective.reduce(x);
+    }
+
+    private double[] step(double scale) {
+        double[] y2 = this.y.clone();
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            y2[i] += scale * Math.cos(3 * i);
+        }
+        return y2;
+    }
+
+    @Test
+    public void testGradientMatchesFiniteDifferences() {
+        ObjectiveResult result = this.objective.evaluate(this.y);
+        int n = SIZE * SIZE;
+        for (int i : new int[] {0, 17, n / 2 + SIZE / 2, n - 1}) {
+            double h = 1e-5;
+            double[] yp = this.y.clone();
+            double[] ym = this.y.clone();
+            yp[i] += h;
+            ym[i] -= h;
+            double expected = (this.objective.evaluate(yp).E
+                               - this.objective.evaluate(ym).E) / (2 * h);
+            // b is solved to 1e-4 cauchy_w, the gradient to about 1e-3
+            Assert.assertEquals(
+                result.G[i], expected, 1e-3 * Math.abs(expected), "y" + i);
+        }
+    }
+
+    @Test
+    public void testValueDoesNotDependOnPreviousEvaluations() {
+        ObjectiveResult first = this.objective.evaluate(this.y);
+        this.objective.evaluate(this.step(0.3));
+        this.objective.evaluate(this.step(-0.2));
+        ObjectiveResult again = this.objective.evaluate(this.y);
+        Assert.assertEquals(again.E, first.E, 0.0);
+        Assert.assertEquals(again.G, first.G);
+    }
+
+    @Test
+    public void testLineTrialsAreEvaluations() {
+        double[] d = new double[this.y.length];
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            d[i] = Math.cos(3 * i);
+        }
+        LineFunction line = this.objective.line(this.y);
+        line.setDirection(d);
+        ObjectiveResult far = line.evaluate(0.3);
+        ObjectiveResult near = line.evaluate(0.1);
+        Assert.assertEquals(
+            far.E, this.objective.evaluate(this.step(0.3)).E, 0.0);
+        Assert.assertEquals(
+            near.E, this.objective.evaluate(this.step(0.1)).E, 0.0);
+        // accepting the step moves the warm start to its solution, from
+        // which the solve can only improve on it
+        line.advance(0.1);
+        Assert.assertTrue(
+            this.objective.evaluate(this.step(0.1)).E <= near.E);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.core;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.cidre.algorithms.MinFuncOptions;
+import com.cidre.algorithms.MinFuncResult;
+import com.cidre.core.ModelGenerator.Mestimator;
+
+public class PyramidOptimiserTest {
+
+    private static final int SIZE = 16;
+    // levels of 25 and 50 quantiles, then the whole stack
+    private static final int DEPTH = 100;
+
+    @Test
+    public void testStoppedLevelCountsEarlierLevels() {
+        ModelGenerator generator = new ModelGenerator(
+            TestStacks.options(32, SIZE, DEPTH));
+        generator.setDefaultOptions();
+        generator.prepare(TestStacks.quantileStack(SIZE, SIZE, DEPTH, 1));
+        // function evaluations reported last on each level
+        int[] funEvals = new int[3];
+        int[] level = {0};
+        int[] previous = {-1};
+        generator.addListener(progress -> {
+            if (progress.iteration <= previous[0]) {
+                level[0]++;
+            }
+            previous[0] = progress.iteration;
+            funEvals[level[0]] = progress.funEvals;
+            // stop on the first iteration of the second level
+            return level[0] < 1;
+        });
+        CdrObjective objective = new CdrObjective(
+            generator, generator.stack, 0.0, generator.pivotShiftX,
+            generator.pivotShiftY, Mestimator.LS, generator.Q, 0, 1e12, 3.0,
+            null);
+        MinFuncOptions options = new MinFuncOptions();
+        options.maxIter = 500;
+        options.MaxFunEvals = 1000;
+        options.progTol = 1e-5;
+        options.optTol = 1e-5;
+        options.Corr = 100;
+        MinFuncResult result = new PyramidOptimiser(
+            generator, options, 2, 1e12, 3.0).minimise(
+                objective, generator.initialGuess());
+        Assert.assertEquals(level[0], 1);
+        Assert.assertTrue(result.exitflag < 0);
+        Assert.assertTrue(funEvals[0] > 0);
+        Assert.assertTrue(
+            result.funEvals >= funEvals[0] + funEvals[1],
+            result.funEvals + " < " + funEvals[0] + " + " + funEvals[1]);
+    }
+}
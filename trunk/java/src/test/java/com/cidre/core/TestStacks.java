@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+package com.cidre.core;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic inputs shared by the tests.
+ */
+public class TestStacks {
+
+    /**
+     * The vignetting surface of {@link #quantileStack}: 1 in the centre,
+     * falling to 0.5 in the corners.
+     */
+    public static double[][] vignetting(int width, int height) {
+        double[][] v = new double[width][height];
+        double cx = (width - 1) / 2.0;
+        double cy = (height - 1) / 2.0;
+        double r2 = cx * cx + cy * cy;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                double d2 = (x - cx) * (x - cx) + (y - cy) * (y - cy);
+                v[x][y] = 1.0 - 0.5 * d2 / r2;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Builds a sorted (quantile) stack as produced by preprocessing:
+     * plane <code>z</code> holds <code>v * q(z) + 100</code> plus unit
+     * noise, with the surface <code>v</code> of {@link #vignetting}.
+     */
+    public static List<double[][]> quantileStack(
+            int width, int height, int depth, long seed)
+    {
+        Random random = new Random(seed);
+        double[][] v = TestStacks.vignetting(width, height);
+        List<double[][]> stack = new ArrayList<double[][]>(depth);
+        for (int z = 0; z < depth; z++) {
+            double q = 100.0 + 4000.0 * Math.pow((z + 0.5) / depth, 2);
+            double[][] plane = new double[width][height];
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    plane[x][y] = v[x][y] * q + 100.0
+                                + random.nextGaussian();
+                }
+            }
+            stack.add(plane);
+        }
+        return stack;
+    }
+
+    /**
+     * Options as set up by {@link com.cidre.io.BfImageLoader} for a square
+     * image of the given size.
+     */
+    public static Options options(
+            int imageSize, int workingSize, int depth)
+    {
+        Options options = new Options();
+        options.imageSize = new Dimension(imageSize, imageSize);
+        options.workingSize = new Dimension(workingSize, workingSize);
+        options.numberOfQuantiles = depth;
+        options.numImagesProvided = depth;
+        options.bitDepth = 65536;
+        return options;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.io;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ArtifactSinkTest {
+
+    @Test
+    public void testFailedWritesDoNotPropagate() throws Exception {
+        // the sink directory cannot be created over a regular file
+        File blocker = Files.createTempFile("artifacts", ".tmp").toFile();
+        try {
+            ArtifactSink sink = new ArtifactSink(blocker.getPath());
+            double[] values = new double[] {1, 2, 3, 4, 5, 6};
+            // more artifacts than are queued, so the caller writes too
+            for (int i = 0; i < 10; i++) {
+                sink.write("plane" + i, values, 3, 2);
+                sink.write("vector" + i, values);
+                sink.write("scalar" + i, i);
+            }
+            sink.close();
+            Assert.assertTrue(blocker.isFile());
+            Assert.assertEquals(blocker.length(), 0);
+        } finally {
+            blocker.delete();
+        }
+    }
+}
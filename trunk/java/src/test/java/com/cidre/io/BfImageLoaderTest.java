@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.io;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BfImageLoaderTest {
+
+    // three series of 2 z-sections and 5 timepoints
+    private static final int SERIES = 3;
+    private static final int PLANES_PER_SERIES = 10;
+    private static final int TOTAL = SERIES * PLANES_PER_SERIES;
+
+    private static void assertPermutation(int[] order) {
+        int[] sorted = order.clone();
+        Arrays.sort(sorted);
+        Assert.assertEquals(sorted, IntStream.range(0, TOTAL).toArray());
+    }
+
+    @Test
+    public void testOrdersArePermutations() {
+        for (boolean stratify : new boolean[] {false, true}) {
+            int[] order = BfImageLoader.samplingOrder(
+                TOTAL, PLANES_PER_SERIES, stratify, 7);
+            assertPermutation(order);
+            Assert.assertNotEquals(
+                order, IntStream.range(0, TOTAL).toArray());
+        }
+    }
+
+    @Test
+    public void testOrderIsSeeded() {
+        for (boolean stratify : new boolean[] {false, true}) {
+            Assert.assertEquals(
+                BfImageLoader.samplingOrder(
+                    TOTAL, PLANES_PER_SERIES, stratify, 7),
+                BfImageLoader.samplingOrder(
+                    TOTAL, PLANES_PER_SERIES, stratify, 7));
+            Assert.assertNotEquals(
+                BfImageLoader.samplingOrder(
+                    TOTAL, PLANES_PER_SERIES, stratify, 7),
+                BfImageLoader.samplingOrder(
+                    TOTAL, PLANES_PER_SERIES, stratify, 8));
+        }
+    }
+
+    @Test
+    public void testStratifiedPrefixesAreBalanced() {
+        for (long seed = 0; seed < 20; seed++) {
+            int[] order = BfImageLoader.samplingOrder(
+                TOTAL, PLANES_PER_SERIES, true, seed);
+            int[] counts = new int[SERIES];
+            for (int i = 0; i < TOTAL; i++) {
+                counts[order[i] / PLANES_PER_SERIES]++;
+                int min = Arrays.stream(counts).min().getAsInt();
+                int max = Arrays.stream(counts).max().getAsInt();
+                Assert.assertTrue(
+                    max - min <= 1,
+                    "prefix of " + (i + 1) + ": " + Arrays.toString(counts));
+            }
+        }
+    }
+
+    @Test
+    public void testSortedRange() {
+        int[] order = BfImageLoader.samplingOrder(
+            TOTAL, PLANES_PER_SERIES, false, 3);
+        int[] pilot = BfImageLoader.sortedRange(order, 0, 8);
+        int[] extension = BfImageLoader.sortedRange(order, 8, 20);
+        int[] expected = Arrays.copyOfRange(order, 0, 8);
+        Arrays.sort(expected);
+        Assert.assertEquals(pilot, expected);
+        // an extended sample adds planes not in the pilot sample
+        for (int plane : extension) {
+            Assert.assertTrue(Arrays.binarySearch(pilot, plane) < 0);
+        }
+        for (int i = 1; i < extension.length; i++) {
+            Assert.assertTrue(extension[i - 1] < extension[i]);
+        }
+    }
+}
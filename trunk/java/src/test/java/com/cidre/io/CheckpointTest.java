@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+package com.cidre.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CheckpointTest {
+
+    private File directory;
+
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("checkpoint").toFile();
+        this.file = new File(this.directory, "input.c0.checkpoint");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (File file : this.directory.listFiles()) {
+            file.delete();
+        }
+        this.directory.delete();
+    }
+
+    private static double[] array(int length, double offset) {
+        double[] array = new double[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = offset + i * 0.5;
+        }
+        return array;
+    }
+
+    private static Checkpoint checkpoint() {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.inputKey = "0123abcd";
+        checkpoint.depth = 3;
+        checkpoint.stack = array(2 * 3 * 3, 0.25);
+        checkpoint.minImage = new double[][] {array(4, 1), array(4, 2)};
+        checkpoint.bitDepth = 4096;
+        checkpoint.lambdaVreg = 6;
+        checkpoint.lambdaZero = 0.5;
+        checkpoint.Q = array(3, 100);
+        checkpoint.pivotShiftX = 7.5;
+        checkpoint.pivotShiftY = array(6, -3);
+        checkpoint.zmin = -10;
+        checkpoint.zmax = 20;
+        checkpoint.zx0 = 1;
+        checkpoint.zy0 = 2;
+        checkpoint.stage = 2;
+        checkpoint.mse = 3.25;
+        checkpoint.iteration = 17;
+        checkpoint.funEvals = 21;
+        checkpoint.f = 123.5;
+        checkpoint.fBest = 120.25;
+        checkpoint.t = 1;
+        checkpoint.Hdiag = 0.125;
+        checkpoint.lbfgsStart = 0;
+        checkpoint.lbfgsEnd = 1;
+        checkpoint.x = array(14, 0);
+        checkpoint.xBest = array(14, 1);
+        checkpoint.g = array(14, 2);
+        checkpoint.gOld = array(14, 3);
+        checkpoint.d = array(14, 4);
+        checkpoint.S = new double[][] {array(14, 5), array(14, 6)};
+        checkpoint.Y = new double[][] {array(14, 7), array(14, 8)};
+        checkpoint.YS = array(2, 9);
+        return checkpoint;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Checkpoint written = checkpoint();
+        written.write(this.file);
+        Checkpoint read = Checkpoint.read(this.file);
+        Assert.assertNotNull(read);
+        Assert.assertEquals(read.inputKey, written.inputKey);
+        Assert.assertEquals(read.depth, written.depth);
+        Assert.assertEquals(read.stack, written.stack);
+        Assert.assertNull(read.floatStack);
+        Assert.assertTrue(Arrays.deepEquals(read.minImage, written.minImage));
+        Assert.assertEquals(read.bitDepth, written.bitDepth);
+        Assert.assertEquals(read.lambdaVreg, written.lambdaVreg);
+        Assert.assertEquals(read.lambdaZero, written.lambdaZero);
+        Assert.assertEquals(read.Q, written.Q);
+        Assert.assertEquals(read.pivotShiftX, written.pivotShiftX);
+        Assert.assertEquals(read.pivotShiftY, written.pivotShiftY);
+        Assert.assertEquals(read.zmin, written.zmin);
+        Assert.assertEquals(read.zmax, written.zmax);
+        Assert.assertEquals(read.zx0, written.zx0);
+        Assert.assertEquals(read.zy0, written.zy0);
+        Assert.assertEquals(read.stage, written.stage);
+        Assert.assertEquals(read.mse, written.mse);
+        Assert.assertEquals(read.iteration, written.iteration);
+        Assert.assertEquals(read.funEvals, written.funEvals);
+        Assert.assertEquals(read.f, written.f);
+        Assert.assertEquals(read.fBest, written.fBest);
+        Assert.assertEquals(read.t, written.t);
+        Assert.assertEquals(read.Hdiag, written.Hdiag);
+        Assert.assertEquals(read.lbfgsStart, written.lbfgsStart);
+        Assert.assertEquals(read.lbfgsEnd, written.lbfgsEnd);
+        Assert.assertEquals(read.x, written.x);
+        Assert.assertEquals(read.xBest, written.xBest);
+        Assert.assertEquals(read.g, written.g);
+        Assert.assertEquals(read.gOld, written.gOld);
+        Assert.assertEquals(read.d, written.d);
+        Assert.assertTrue(Arrays.deepEquals(read.S, written.S));
+        Assert.assertTrue(Arrays.deepEquals(read.Y, written.Y));
+        Assert.assertEquals(read.YS, written.YS);
+    }
+
+    @Test
+    public void testStageStartRoundTrip() {
+        // checkpoints at the start of a stage have no optimiser state
+        Checkpoint written = checkpoint();
+        written.iteration = 0;
+        written.xBest = null;
+        written.g = null;
+        written.gOld = null;
+        written.d = null;
+        written.S = null;
+        written.Y = null;
+        written.YS = null;
+        written.write(this.file);
+        Checkpoint read = Checkpoint.read(this.file);
+        Assert.assertNotNull(read);
+        Assert.assertEquals(read.x, written.x);
+        Assert.assertNull(read.S);
+        Assert.assertNull(read.YS);
+    }
+
+    @Test
+    public void testFloatStackRoundTrip() {
+        Checkpoint written = checkpoint();
+        written.stack = null;
+        written.floatStack = new float[2 * 3 * 3];
+        for (int i = 0; i < written.floatStack.length; i++) {
+            written.floatStack[i] = 100.0f + i / 3.0f;
+        }
+        written.write(this.file);
+        Checkpoint read = Checkpoint.read(this.file);
+        Assert.assertNotNull(read);
+        Assert.assertNull(read.stack);
+        Assert.assertEquals(read.floatStack, written.floatStack);
+    }
+
+    @Test
+    public void testMissingFile() {
+        Assert.assertNull(Checkpoint.read(this.file));
+    }
+
+    @Test
+    public void testCorruptFile() throws Exception {
+        checkpoint().write(this.file);
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        Assert.assertNull(Checkpoint.read(this.file));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+
+package com.cidre.io;
+
+import java.awt.Dimension;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.cidre.core.Options;
+
+public class StackCacheTest {
+
+    private File directory;
+
+    private File input;
+
+    private StackCache cache;
+
+    private Options options;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("stackcache").toFile();
+        this.input = new File(this.directory, "input.tif");
+        Files.write(this.input.toPath(), new byte[] {1, 2, 3});
+        this.cache = new StackCache(this.directory.getPath());
+        this.options = new Options();
+        this.options.workingSize = new Dimension(4, 3);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (File file : this.directory.listFiles()) {
+            file.delete();
+        }
+        this.directory.delete();
+    }
+
+    private String key(int channel, Integer bitDepth) throws Exception {
+        return StackCache.getKey(
+            Arrays.asList(this.input.getPath()), channel,
+            Arrays.asList(0, 1), Arrays.asList(0), Arrays.asList(0),
+            bitDepth, this.options);
+    }
+
+    private StackCache.Entry entry() {
+        StackCache.Entry entry = new StackCache.Entry();
+        entry.stack = new ArrayList<double[][]>();
+        for (int z = 0; z < 5; z++) {
+            double[][] plane = new double[4][3];
+            for (int x = 0; x < 4; x++) {
+                for (int y = 0; y < 3; y++) {
+                    plane[x][y] = z * 100 + x * 10 + y + 0.25;
+                }
+            }
+            entry.stack.add(plane);
+        }
+        entry.maxI = 4321.5;
+        entry.bitDepth = 4096;
+        entry.minImage = new double[][] {{1, 2}, {3, 4}, {5, 6}};
+        return entry;
+    }
+
+    @Test
+    public void testKeyIsStable() throws Exception {
+        Assert.assertEquals(this.key(0, null), this.key(0, null));
+    }
+
+    @Test
+    public void testKeyDependsOnInputs() throws Exception {
+        String key = this.key(0, null);
+        Assert.assertNotEquals(this.key(1, null), key);
+        Assert.assertNotEquals(this.key(0, 4096), key);
+        Assert.assertNotEquals(this.key(0, 4096), this.key(0, 65536));
+
+        this.options.numberOfQuantiles = 100;
+        Assert.assertNotEquals(this.key(0, null), key);
+        this.options.numberOfQuantiles = 200;
+        Assert.assertEquals(this.key(0, null), key);
+
+        this.options.planeSample = 50;
+        String sampled = this.key(0, null);
+        Assert.assertNotEquals(sampled, key);
+        this.options.sampleSeed = 1;
+        Assert.assertNotEquals(this.key(0, null), sampled);
+
+        Files.write(this.input.toPath(), new byte[] {1, 2, 3, 4});
+        Assert.assertNotEquals(this.key(0, null), sampled);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String key = this.key(0, null);
+        Assert.assertNull(this.cache.load(key));
+        StackCache.Entry stored = this.entry();
+        this.cache.store(key, stored);
+        StackCache.Entry loaded = this.cache.load(key);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(loaded.maxI, stored.maxI);
+        Assert.assertEquals(loaded.bitDepth, stored.bitDepth);
+        Assert.assertEquals(loaded.stack.size(), stored.stack.size());
+        for (int z = 0; z < stored.stack.size(); z++) {
+            Assert.assertTrue(Arrays.deepEquals(
+                loaded.stack.get(z), stored.stack.get(z)));
+        }
+        Assert.assertTrue(
+            Arrays.deepEquals(loaded.minImage, stored.minImage));
+    }
+
+    @Test
+    public void testCorruptEntryIsDiscarded() throws Exception {
+        String key = this.key(0, null);
+        this.cache.store(key, this.entry());
+        File file = new File(this.directory, key + ".stack");
+        // a negative depth after the header
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4 + 4 + 8 + 4);
+            raf.writeInt(-7);
+        }
+        Assert.assertNull(this.cache.load(key));
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testTruncatedEntryIsDiscarded() throws Exception {
+        String key = this.key(0, null);
+        this.cache.store(key, this.entry());
+        File file = new File(this.directory, key + ".stack");
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(file)))
+        {
+            out.write(bytes, 0, bytes.length / 2);
+        }
+        Assert.assertNull(this.cache.load(key));
+        Assert.assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.cidre.algorithms;
+
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernels} on the Java Vector API (incubator module
+ * <code>jdk.incubator.vector</code>, JDK 16+).  Loops run over the preferred
+ * vector width and finish the remainder with scalar code; the lanes of the
+ * single precision kernels are reduced into double precision sums.
+ */
+public class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> DOUBLES =
+        DoubleVector.SPECIES_PREFERRED;
+
+    private static final VectorSpecies<Float> FLOATS =
+        FloatVector.SPECIES_PREFERRED;
+
+    // species with as many lanes as DOUBLES, for conversions
+    private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(
+        short.class, VectorShape.forBitSize(DOUBLES.length() * 16));
+
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(
+        int.class, VectorShape.forBitSize(DOUBLES.length() * 32));
+
+    private static final VectorSpecies<Float> NARROW_FLOATS =
+        VectorSpecies.of(
+            float.class, VectorShape.forBitSize(DOUBLES.length() * 32));
+
+    @Override
+    public String getName() {
+        return "vector (" + DOUBLES.length() + " x double, "
+               + FLOATS.length() + " x float)";
+    }
+
+    @Override
+    public void leastSquares(
+            double[] q, int offset, double[] Q, double v, double b,
+            double[] sums)
+    {
+        DoubleVector energy = DoubleVector.zero(DOUBLES);
+        DoubleVector dv = DoubleVector.zero(DOUBLES);
+        DoubleVector db = DoubleVector.zero(DOUBLES);
+        int upper = DOUBLES.loopBound(Q.length);
+        int z = 0;
+        for (; z < upper; z += DOUBLES.length()) {
+            DoubleVector Qz = DoubleVector.fromArray(DOUBLES, Q, z);
+            DoubleVector val = Qz.mul(v).add(b).sub(
+                DoubleVector.fromArray(DOUBLES, q, offset + z));
+            energy = val.fma(val, energy);
+            dv = Qz.fma(val, dv);
+            db = db.add(val);
+        }
+        double e = energy.reduceLanes(VectorOperators.ADD);
+        double d = dv.reduceLanes(VectorOperators.ADD);
+        double c = db.reduceLanes(VectorOperators.ADD);
+        for (; z < Q.length; z++) {
+            double val = Q[z] * v + b - q[offset + z];
+            e += val * val;
+            d += Q[z] * val;
+            c += val;
+        }
+        sums[0] = e;
+        sums[1] = d;
+        sums[2] = c;
+    }
+
+    @Override
+    public void leastSquares(
+            float[] q, int offset, float[] Q, float v, float b,
+            double[] sums)
+    {
+        FloatVector energy = FloatVector.zero(FLOATS);
+        FloatVector dv = FloatVector.zero(FLOATS);
+        FloatVector db = FloatVector.zero(FLOATS);
+        int upper = FLOATS.loopBound(Q.length);
+        int z = 0;
+        for (; z < upper; z += FLOATS.length()) {
+            FloatVector Qz = FloatVector.fromArray(FLOATS, Q, z);
+            FloatVector val = Qz.mul(v).add(b).sub(
+                FloatVector.fromArray(FLOATS, q, offset + z));
+            energy = val.fma(val, energy);
+            dv = Qz.fma(val, dv);
+            db = db.add(val);
+        }
+        double e = VectorKernels.sum(energy);
+        double d = VectorKernels.sum(dv);
+        double c = VectorKernels.sum(db);
+        for (; z < Q.length; z++) {
+            float val = Q[z] * v + b - q[offset + z];
+            e += val * val;
+            d += Q[z] * val;
+            c += val;
+        }
+        sums[0] = e;
+        sums[1] = d;
+        sums[2] = c;
+    }
+
+    @Override
+    public void cauchy(
+            double[] q, int offset, double[] Q, double v, double b,
+            double w2, double[] sums)
+    {
+        DoubleVector energy = DoubleVector.zero(DOUBLES);
+        DoubleVector dv = DoubleVector.zero(DOUBLES);
+        DoubleVector db = DoubleVector.zero(DOUBLES);
+        int upper = DOUBLES.loopBound(Q.length);
+        int z = 0;
+        for (; z < upper; z += DOUBLES.length()) {
+            DoubleVector Qz = DoubleVector.fromArray(DOUBLES, Q, z);
+            DoubleVector val = Qz.mul(v).add(b).sub(
+                DoubleVector.fromArray(DOUBLES, q, offset + z));
+            DoubleVector s = val.mul(val).div(w2).add(1.0);
+            energy = energy.add(s.lanewise(VectorOperators.LOG));
+            dv = dv.add(Qz.mul(val).div(s));
+            db = db.add(val.div(s));
+        }
+        double e = energy.reduceLanes(VectorOperators.ADD);
+        double d = dv.reduceLanes(VectorOperators.ADD);
+        double c = db.reduceLanes(VectorOperators.ADD);
+        for (; z < Q.length; z++) {
+            double val = Q[z] * v + b - q[offset + z];
+            double s = 1.0 + (val * val) / w2;
+            e += Math.log(s);
+            d += (Q[z] * val) / s;
+            c += val / s;
+        }
+        sums[0] = e * w2 / 2.0;
+        sums[1] = d;
+        sums[2] = c;
+    }
+
+    @Override
+    public void cauchy(
+            float[] q, int offset, float[] Q, float v, float b, float w2,
+            double[] sums)
+    {
+        FloatVector energy = FloatVector.zero(FLOATS);
+        FloatVector dv = FloatVector.zero(FLOATS);
+        FloatVector db = FloatVector.zero(FLOATS);
+        int upper = FLOATS.loopBound(Q.length);
+        int z = 0;
+        for (; z < upper; z += FLOATS.length()) {
+            FloatVector Qz = FloatVector.fromArray(FLOATS, Q, z);
+            FloatVector val = Qz.mul(v).add(b).sub(
+                FloatVector.fromArray(FLOATS, q, offset + z));
+            FloatVector s = val.mul(val).div(w2).add(1.0f);
+            energy = energy.add(s.lanewise(VectorOperators.LOG));
+            dv = dv.add(Qz.mul(val).div(s));
+            db = db.add(val.div(s));
+        }
+        double e = VectorKernels.sum(energy);
+        double d = VectorKernels.sum(dv);
+        double c = VectorKernels.sum(db);
+        for (; z < Q.length; z++) {
+            float val = Q[z] * v + b - q[offset + z];
+            float s = 1.0f + (val * val) / w2;
+            e += Math.log(s);
+            d += (Q[z] * val) / s;
+            c += val / s;
+        }
+        sums[0] = e * w2 / 2.0;
+        sums[1] = d;
+        sums[2] = c;
+    }
+
+    @Override
+    public void correct(
+            double[] pixels, double[] z, double[] v, int offset,
+            double zShift, double scale, double shift, float[] out)
+    {
+        int upper = DOUBLES.loopBound(pixels.length);
+        int i = 0;
+        for (; i < upper; i += DOUBLES.length()) {
+            DoubleVector corrected = DoubleVector.fromArray(DOUBLES, pixels, i)
+                .sub(DoubleVector.fromArray(DOUBLES, z, offset + i))
+                .sub(zShift)
+                .div(DoubleVector.fromArray(DOUBLES, v, offset + i))
+                .mul(scale)
+                .add(shift);
+            ((FloatVector) corrected.convertShape(
+                VectorOperators.D2F, NARROW_FLOATS, 0)).intoArray(out, i);
+        }
+        for (; i < pixels.length; i++) {
+            double enumerator = pixels[i] - z[offset + i] - zShift;
+            out[i] = (float) (
+                ((enumerator / v[offset + i]) * scale) + shift);
+        }
+    }
+
+    @Override
+    public void uint16ToDoubles(
+            byte[] b, int offset, boolean little, double shift,
+            double[] out)
+    {
+        ByteOrder order =
+            little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        int upper = DOUBLES.loopBound(out.length);
+        int i = 0;
+        for (; i < upper; i += DOUBLES.length()) {
+            IntVector samples = (IntVector) ShortVector
+                .fromByteArray(SHORTS, b, offset + 2 * i, order)
+                .convertShape(VectorOperators.S2I, INTS, 0);
+            DoubleVector values = (DoubleVector) samples.and(0xffff)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+            values.add(shift).intoArray(out, i);
+        }
+        for (; i < out.length; i++) {
+            int first = b[offset + 2 * i] & 0xff;
+            int second = b[offset + 2 * i + 1] & 0xff;
+            int value = little ? first | (second << 8) : (first << 8) | second;
+            out[i] = value + shift;
+        }
+    }
+
+    @Override
+    public double dot(double[] a, double[] b) {
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        int upper = DOUBLES.loopBound(a.length);
+        int i = 0;
+        for (; i < upper; i += DOUBLES.length()) {
+            sum = DoubleVector.fromArray(DOUBLES, a, i)
+                .fma(DoubleVector.fromArray(DOUBLES, b, i), sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            result += a[i] * b[i];
+        }
+        return result;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, double[] y) {
+        int upper = DOUBLES.loopBound(x.length);
+        int i = 0;
+        for (; i < upper; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, x, i)
+                .fma(DoubleVector.broadcast(DOUBLES, alpha),
+                     DoubleVector.fromArray(DOUBLES, y, i))
+                .intoArray(y, i);
+        }
+        for (; i < x.length; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    /**
+     * Sums the lanes in double precision.
+     */
+    private static double sum(FloatVector vector) {
+        double sum = 0;
+        for (int i = 0; i < vector.length(); i++) {
+            sum += vector.lane(i);
+        }
+        return sum;
+    }
+}